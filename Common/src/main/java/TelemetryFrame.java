@@ -0,0 +1,438 @@
+/*
+ * TelemetryFrame.java
+ *
+ * Binary encoding of one set of sensor readings sent from the rover to the UI, used instead
+ * of the SENSORS text line when both ends agree on it at connect time. Frames are either
+ * fixed width, or delta compressed against the previous frame with periodic keyframes.
+ * The rover encodes frames and the UI decodes them with this one class, which both modules
+ * compile from Common/src/main/java so the two ends can't drift apart.
+ *
+ * Authors: SEP UG02
+ */
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+public class TelemetryFrame {
+
+	// Version of the frame layout below, checked at connect time
+	public static final int VERSION = 1;
+
+	// Line the rover sends after connecting to offer binary frames, and the UI echoes back to accept
+	public static final String HELLO = "TELEMETRY binary " + VERSION;
+	// Offer of delta compressed frames, accepted the same way
+	public static final String DELTA_HELLO = "TELEMETRY delta " + VERSION;
+	// Offer of fixed width frames sent as UDP datagrams, with text messages kept on the connection
+	public static final String UDP_HELLO = "TELEMETRY udp " + VERSION;
+	// Port the UI receives UDP frames on
+	public static final int UDP_PORT = 19235;
+	// Line the UI replies with to keep to the text protocol
+	public static final String TEXT = "TELEMETRY text";
+
+	// First byte of every binary message
+	public static final int TYPE_SENSORS = 1;
+	public static final int TYPE_TEXT = 2;
+	public static final int TYPE_KEYFRAME = 3;
+	public static final int TYPE_DELTA = 4;
+
+	// Sensor frame layout, all values big endian
+	//  0 type            byte
+	//  1 version         byte
+	//  2 flags           byte   (bit 0 bumper pressed, bit 1 in radiation)
+	//  3 colour id       byte
+	//  4 sequence        int
+	//  8 time            long   (rover System.nanoTime())
+	// 16 x               float  (mm)
+	// 20 y               float  (mm)
+	// 24 orientation     float  (degrees)
+	// 28 obstacle        short  (mm)
+	// 30 rotation rate   short  (degrees/sec)
+	public static final int SIZE = 32;
+
+	// Text message layout: type byte, version byte, unsigned short length, then that many ASCII bytes
+	private static final int TEXT_HEADER = 4;
+	private static final int MAX_TEXT = 0xFFFF;
+
+	// Delta compressed frames carry quantised fields as zig-zag varints:
+	//  keyframe: type, version, sequence, time, then every field as an absolute value
+	//  delta:    type, mask of changed fields, sequence and time deltas, then a delta per changed field
+	// Time is quantised to microseconds, position to 0.1mm and orientation to 0.01 degrees.
+	private static final int FIELDS = 7;
+	private static final int X = 0, Y = 1, ORIENTATION = 2, COLOUR = 3, OBSTACLE = 4, RATE = 5, FLAGS = 6;
+	private static final int MAX_DELTA_SIZE = 2 + 10 + 10 + FIELDS * 5;
+
+	private static final int FLAG_BUMPER = 1;
+	private static final int FLAG_RADIATION = 2;
+
+	private final byte[] buffer = new byte[SIZE];
+	private byte[] textBuffer = new byte[256];
+
+	// Last quantised values sent and received, that deltas are taken from
+	private final int[] sentFields = new int[FIELDS];
+	private final int[] receivedFields = new int[FIELDS];
+	private final int[] fields = new int[FIELDS];
+	private int sentSequence;
+	private long sentTime;
+	private long receivedTime;
+	private boolean haveKeyframe = false;
+	private boolean keyframeReceived = false;
+	private int framesSinceKeyframe;
+	private final byte[] deltaBuffer = new byte[MAX_DELTA_SIZE];
+
+	private int sequence;
+	private long time;
+	private float x;
+	private float y;
+	private float orientation;
+	private int colourId;
+	private int obstacleDistance;
+	private int rotationRate;
+	private boolean bumperPressed;
+	private boolean inRadiation;
+
+	/**
+	 * Encodes a sensor frame into the internal buffer and writes it.
+	 *
+	 * @param out - stream to write the frame to
+	 */
+	public void write(OutputStream out, int sequence, long time, double x, double y, double orientation,
+			int colourId, int obstacleDistance, int rotationRate, boolean bumperPressed, boolean inRadiation)
+			throws IOException {
+		encode(sequence, time, x, y, orientation, colourId, obstacleDistance, rotationRate, bumperPressed, inRadiation);
+		out.write(buffer, 0, SIZE);
+	}
+
+	/**
+	 * Encodes a sensor frame into the internal buffer.
+	 *
+	 * @return the buffer holding the SIZE byte frame, reused by the next call
+	 */
+	public byte[] encode(int sequence, long time, double x, double y, double orientation,
+			int colourId, int obstacleDistance, int rotationRate, boolean bumperPressed, boolean inRadiation) {
+		buffer[0] = TYPE_SENSORS;
+		buffer[1] = VERSION;
+		buffer[2] = (byte)((bumperPressed ? FLAG_BUMPER : 0) | (inRadiation ? FLAG_RADIATION : 0));
+		buffer[3] = (byte)colourId;
+		putInt(buffer, 4, sequence);
+		putLong(buffer, 8, time);
+		putInt(buffer, 16, Float.floatToRawIntBits((float)x));
+		putInt(buffer, 20, Float.floatToRawIntBits((float)y));
+		putInt(buffer, 24, Float.floatToRawIntBits((float)orientation));
+		putShort(buffer, 28, clampShort(obstacleDistance));
+		putShort(buffer, 30, clampShort(rotationRate));
+		return buffer;
+	}
+
+	/**
+	 * Encodes a sensor frame as a keyframe or a delta from the last one sent, and writes it.
+	 *
+	 * @param out - stream to write the frame to
+	 * @param keyframeInterval - number of frames between keyframes
+	 */
+	public void writeDelta(OutputStream out, int keyframeInterval, int sequence, long time, double x, double y,
+			double orientation, int colourId, int obstacleDistance, int rotationRate, boolean bumperPressed,
+			boolean inRadiation) throws IOException {
+		int length = encodeDelta(keyframeInterval, sequence, time, x, y, orientation, colourId, obstacleDistance,
+				rotationRate, bumperPressed, inRadiation);
+		out.write(deltaBuffer, 0, length);
+	}
+
+	/**
+	 * Encodes a sensor frame as a keyframe or a delta from the last one sent.
+	 *
+	 * @param keyframeInterval - number of frames between keyframes
+	 * @return number of bytes of getDeltaBuffer() holding the frame
+	 */
+	public int encodeDelta(int keyframeInterval, int sequence, long time, double x, double y, double orientation,
+			int colourId, int obstacleDistance, int rotationRate, boolean bumperPressed, boolean inRadiation) {
+		fields[X] = (int)Math.round(x * 10);
+		fields[Y] = (int)Math.round(y * 10);
+		fields[ORIENTATION] = (int)Math.round(orientation * 100);
+		fields[COLOUR] = colourId;
+		fields[OBSTACLE] = obstacleDistance;
+		fields[RATE] = rotationRate;
+		fields[FLAGS] = (bumperPressed ? FLAG_BUMPER : 0) | (inRadiation ? FLAG_RADIATION : 0);
+		long micros = time / 1000;
+
+		int length;
+		if (!haveKeyframe || ++framesSinceKeyframe >= keyframeInterval) {
+			deltaBuffer[0] = TYPE_KEYFRAME;
+			deltaBuffer[1] = VERSION;
+			length = putVarLong(deltaBuffer, 2, zigZag(sequence));
+			length = putVarLong(deltaBuffer, length, zigZag(micros));
+			for (int i = 0; i < FIELDS; i++) {
+				length = putVarLong(deltaBuffer, length, zigZag(fields[i]));
+			}
+			haveKeyframe = true;
+			framesSinceKeyframe = 0;
+		}
+		else {
+			int mask = 0;
+			for (int i = 0; i < FIELDS; i++) {
+				if (fields[i] != sentFields[i]) {
+					mask |= 1 << i;
+				}
+			}
+			deltaBuffer[0] = TYPE_DELTA;
+			deltaBuffer[1] = (byte)mask;
+			length = putVarLong(deltaBuffer, 2, zigZag(sequence - sentSequence));
+			length = putVarLong(deltaBuffer, length, zigZag(micros - sentTime));
+			for (int i = 0; i < FIELDS; i++) {
+				if ((mask & (1 << i)) != 0) {
+					length = putVarLong(deltaBuffer, length, zigZag(fields[i] - sentFields[i]));
+				}
+			}
+		}
+		System.arraycopy(fields, 0, sentFields, 0, FIELDS);
+		sentSequence = sequence;
+		sentTime = micros;
+		return length;
+	}
+
+	/**
+	 * @return the buffer encodeDelta() writes to, reused by the next call
+	 */
+	public byte[] getDeltaBuffer() {
+		return deltaBuffer;
+	}
+
+	/**
+	 * Makes the next delta frame sent a keyframe, e.g. after reconnecting.
+	 */
+	public void resetDelta() {
+		haveKeyframe = false;
+	}
+
+	/**
+	 * Writes a text message, such as RATES, between binary frames.
+	 *
+	 * @param out - stream to write the message to
+	 * @param message - ASCII message, without a line terminator
+	 */
+	public void writeText(OutputStream out, String message) throws IOException {
+		int length = Math.min(message.length(), MAX_TEXT);
+		ensureText(TEXT_HEADER + length);
+		textBuffer[0] = TYPE_TEXT;
+		textBuffer[1] = VERSION;
+		putShort(textBuffer, 2, length);
+		for (int i = 0; i < length; i++) {
+			textBuffer[TEXT_HEADER + i] = (byte)message.charAt(i);
+		}
+		out.write(textBuffer, 0, TEXT_HEADER + length);
+	}
+
+	/**
+	 * Reads the next message. A sensor frame is decoded into this object's fields; a text
+	 * message is left in the internal buffer to be fetched with getText().
+	 *
+	 * @param in - stream to read from
+	 * @return TYPE_SENSORS, TYPE_KEYFRAME, TYPE_DELTA or TYPE_TEXT
+	 * @throws IOException if the stream ends or holds an unknown message
+	 */
+	public int read(DataInputStream in) throws IOException {
+		int type = in.readUnsignedByte();
+		if (type == TYPE_KEYFRAME) {
+			if (in.readUnsignedByte() != VERSION)
+				throw new IOException("not a version " + VERSION + " keyframe");
+			sequence = (int)unZigZag(readVarLong(in));
+			receivedTime = unZigZag(readVarLong(in));
+			for (int i = 0; i < FIELDS; i++) {
+				receivedFields[i] = (int)unZigZag(readVarLong(in));
+			}
+			keyframeReceived = true;
+			setReceived();
+		}
+		else if (type == TYPE_DELTA) {
+			if (!keyframeReceived)
+				throw new IOException("delta frame before a keyframe");
+			int mask = in.readUnsignedByte();
+			sequence += (int)unZigZag(readVarLong(in));
+			receivedTime += unZigZag(readVarLong(in));
+			for (int i = 0; i < FIELDS; i++) {
+				if ((mask & (1 << i)) != 0) {
+					receivedFields[i] += (int)unZigZag(readVarLong(in));
+				}
+			}
+			setReceived();
+		}
+		else if (type == TYPE_SENSORS) {
+			buffer[0] = (byte)type;
+			in.readFully(buffer, 1, SIZE - 1);
+			decode(buffer, 0);
+		}
+		else if (type == TYPE_TEXT) {
+			textBuffer[0] = (byte)type;
+			in.readFully(textBuffer, 1, TEXT_HEADER - 1);
+			int length = getShort(textBuffer, 2) & 0xFFFF;
+			ensureText(TEXT_HEADER + length);
+			in.readFully(textBuffer, TEXT_HEADER, length);
+		}
+		else {
+			throw new IOException("unknown telemetry message type " + type);
+		}
+		return type;
+	}
+
+	/**
+	 * Decodes a sensor frame into this object's fields.
+	 *
+	 * @param data - array holding the frame
+	 * @param offset - index of the first byte of the frame
+	 * @throws IOException if the frame is not a sensor frame of this version
+	 */
+	public void decode(byte[] data, int offset) throws IOException {
+		if (data[offset] != TYPE_SENSORS || data[offset + 1] != VERSION)
+			throw new IOException("not a version " + VERSION + " sensor frame");
+		int flags = data[offset + 2];
+		bumperPressed = (flags & FLAG_BUMPER) != 0;
+		inRadiation = (flags & FLAG_RADIATION) != 0;
+		colourId = data[offset + 3];
+		sequence = getInt(data, offset + 4);
+		time = getLong(data, offset + 8);
+		x = Float.intBitsToFloat(getInt(data, offset + 16));
+		y = Float.intBitsToFloat(getInt(data, offset + 20));
+		orientation = Float.intBitsToFloat(getInt(data, offset + 24));
+		obstacleDistance = getShort(data, offset + 28);
+		rotationRate = getShort(data, offset + 30);
+	}
+
+	/**
+	 * @return the last text message read, as a new String
+	 */
+	public String getText() {
+		int length = getShort(textBuffer, 2) & 0xFFFF;
+		return new String(textBuffer, TEXT_HEADER, length, StandardCharsets.US_ASCII);
+	}
+
+	public int getSequence() {
+		return sequence;
+	}
+
+	public long getTime() {
+		return time;
+	}
+
+	public float getXPos() {
+		return x;
+	}
+
+	public float getYPos() {
+		return y;
+	}
+
+	public float getOrientation() {
+		return orientation;
+	}
+
+	public int getColourID() {
+		return colourId;
+	}
+
+	public int getObstacleDistance() {
+		return obstacleDistance;
+	}
+
+	public int getRotationRate() {
+		return rotationRate;
+	}
+
+	public boolean bumperPressed() {
+		return bumperPressed;
+	}
+
+	public boolean getRadiation() {
+		return inRadiation;
+	}
+
+	/**
+	 * Converts the last quantised values received to this object's fields.
+	 */
+	private void setReceived() {
+		time = receivedTime * 1000;
+		x = receivedFields[X] / 10f;
+		y = receivedFields[Y] / 10f;
+		orientation = receivedFields[ORIENTATION] / 100f;
+		colourId = receivedFields[COLOUR];
+		obstacleDistance = receivedFields[OBSTACLE];
+		rotationRate = receivedFields[RATE];
+		bumperPressed = (receivedFields[FLAGS] & FLAG_BUMPER) != 0;
+		inRadiation = (receivedFields[FLAGS] & FLAG_RADIATION) != 0;
+	}
+
+	private void ensureText(int size) {
+		if (textBuffer.length < size) {
+			byte[] larger = new byte[Math.max(size, textBuffer.length * 2)];
+			System.arraycopy(textBuffer, 0, larger, 0, textBuffer.length);
+			textBuffer = larger;
+		}
+	}
+
+	private static long zigZag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static long unZigZag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * Writes an unsigned varint, 7 bits a byte with the top bit set on all but the last.
+	 *
+	 * @return index after the last byte written
+	 */
+	private static int putVarLong(byte[] b, int i, long v) {
+		while ((v & ~0x7FL) != 0) {
+			b[i++] = (byte)((v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		b[i++] = (byte)v;
+		return i;
+	}
+
+	private static long readVarLong(DataInputStream in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (long)(b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("malformed varint");
+	}
+
+	private static int clampShort(int value) {
+		return Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value));
+	}
+
+	private static void putShort(byte[] b, int i, int v) {
+		b[i] = (byte)(v >> 8);
+		b[i + 1] = (byte)v;
+	}
+
+	private static void putInt(byte[] b, int i, int v) {
+		b[i] = (byte)(v >> 24);
+		b[i + 1] = (byte)(v >> 16);
+		b[i + 2] = (byte)(v >> 8);
+		b[i + 3] = (byte)v;
+	}
+
+	private static void putLong(byte[] b, int i, long v) {
+		putInt(b, i, (int)(v >> 32));
+		putInt(b, i + 4, (int)v);
+	}
+
+	private static short getShort(byte[] b, int i) {
+		return (short)(((b[i] & 0xFF) << 8) | (b[i + 1] & 0xFF));
+	}
+
+	private static int getInt(byte[] b, int i) {
+		return ((b[i] & 0xFF) << 24) | ((b[i + 1] & 0xFF) << 16) | ((b[i + 2] & 0xFF) << 8) | (b[i + 3] & 0xFF);
+	}
+
+	private static long getLong(byte[] b, int i) {
+		return ((long)getInt(b, i) << 32) | (getInt(b, i + 4) & 0xFFFFFFFFL);
+	}
+}
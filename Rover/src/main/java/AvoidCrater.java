@@ -6,6 +6,7 @@ public class AvoidCrater implements Behavior {
 private Rover rover;
 private boolean _suppressed = false;
 private static final float minMovementSize = 5; //units = mm, tradeoff of accuracy vs speed as it gets smaller
+private static final long eventTimeout = 50; //ms, how often suppression is checked while waiting for a colour
 
 private boolean firstSwivel = true;
 private boolean goingRight;
@@ -14,6 +15,7 @@ private int numSwivels;
 
 //Colour values
   private static final int craterColour = Color.BLACK;
+  private static final SensorEventPredicate leftCrater = SensorEventBus.colourLeft(craterColour);
 
   
 public AvoidCrater(Rover r) {
@@ -24,7 +26,7 @@ public AvoidCrater(Rover r) {
  * Takes control when we colour sensor detects crater in automatic mode
  */
 public boolean takeControl() {
-  return rover.getColourSensorColourID() == craterColour
+  return rover.getSnapshot().getColourID() == craterColour
       && rover.getMode() == MODE.automatic;
 }
 
@@ -91,8 +93,11 @@ public void action() {
     //Go forward until we lose the line
 	double startY = rover.getUnadjustedYPos();
     rover.forward();
-    while ((rover.getColourSensorColourID() == craterColour)
-        && !_suppressed) { }
+    for (long seq = rover.getEventSequence();
+        rover.getColourSensorColourID() == craterColour && !_suppressed;
+        seq = rover.getEventSequence()) {
+      rover.awaitEvent(leftCrater, seq, eventTimeout);
+    }
     rover.stop();	
     
     //Edge case fail safe
@@ -146,8 +151,11 @@ public void action() {
   
   //Get off of crater line so we can continue movement
   rover.forward();
-  while (rover.getColourSensorColourID() == craterColour
-      && !_suppressed) { }
+  for (long seq = rover.getEventSequence();
+      rover.getColourSensorColourID() == craterColour && !_suppressed;
+      seq = rover.getEventSequence()) {
+    rover.awaitEvent(leftCrater, seq, eventTimeout);
+  }
   rover.stop();
 }
 }
\ No newline at end of file
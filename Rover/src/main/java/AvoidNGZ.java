@@ -7,14 +7,14 @@
 *
 * Authors: SEP UG02
 */
-import java.util.List;
-
 import lejos.robotics.subsumption.Behavior;
 
 public class AvoidNGZ implements Behavior{
 	
 	private Rover rover;
 	private boolean _suppressed = false;
+	// Reused when working out the distance to the nearest NGZ
+	private final double[] away = new double[2];
 	
 	public AvoidNGZ(Rover r) {
 		this.rover = r;
@@ -22,11 +22,13 @@ public class AvoidNGZ implements Behavior{
 	
 	
 	/*
-	 *  Take control when ultrasonic sensor detects an object closer
-	 *  than minObstacleDistance and we are in automatic mode
+	 *  Take control when the rover is heading into a NGZ closer than
+	 *  the margin it keeps from them and we are in automatic mode
 	 */
 	public boolean takeControl() {
-		return rover.inNGZ()
+		SensorSnapshot snapshot = rover.getSnapshot();
+		return rover.ngzDistanceAhead(snapshot.getUnadjustedXPos(), snapshot.getUnadjustedYPos(),
+				snapshot.getOrientation(), away) == 0
 			&& rover.getMode() == MODE.automatic;
 	}
 	
@@ -40,10 +42,22 @@ public class AvoidNGZ implements Behavior{
 	    if(!_suppressed) {
 	    	rover.stop();
 			double initial = rover.getOrientation();
-			List<Float> waypoints = rover.getWaypoints();
-			for(int i = 0; i < waypoints.size(); i += 2) {
-				rover.goTo(waypoints.get(i), waypoints.get(i+1));
-				rover.waitComplete();
+			float[] waypoints = rover.getWaypoints();
+			int i = 0;
+			while (waypoints != null && i < waypoints.length && !_suppressed) {
+				if (rover.followTo(waypoints[i], waypoints[i+1])) {
+					i += 2;
+				}
+				else {
+					// A NGZ changed near the route; repair it from here
+					waypoints = rover.replanWaypoints();
+					i = 0;
+				}
+			}
+			if (waypoints == null) {
+				// Boxed in; stay stopped rather than drive through the NGZ
+				rover.stop();
+				return;
 			}
 			rover.rotateTo((float)initial);
 	    }
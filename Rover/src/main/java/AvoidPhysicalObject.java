@@ -1,4 +1,5 @@
 import lejos.robotics.subsumption.Behavior;
+import lejos.utility.Delay;
 
 public class AvoidPhysicalObject implements Behavior{
 	
@@ -9,10 +10,14 @@ public class AvoidPhysicalObject implements Behavior{
 	private static final int adjustDistance = 75; //How far we move horizontally to object
 	private static final float PI = 3.14159f;
 	private float multiplier = 1;
+	private static final long eventTimeout = 50; //ms, how often conditions are rechecked while waiting
+	private static final int clearDistance = 150; //Distance at which the object is out of view
+	private final SensorEventPredicate objectCleared;
 	
 	
 	public AvoidPhysicalObject(Rover r) {
 		this.rover = r;
+		this.objectCleared = r.getEventBus().distanceAbove(clearDistance);
 	}
 	
 	
@@ -21,7 +26,7 @@ public class AvoidPhysicalObject implements Behavior{
 	 *  than minObstacleDistance and we are in automatic mode
 	 */
 	public boolean takeControl() {
-		return rover.getObstacleDistance() < 60
+		return rover.getSnapshot().getObstacleDistance() < 60
 				&& rover.getMode() == MODE.automatic;
 	}
 	
@@ -53,7 +58,10 @@ public class AvoidPhysicalObject implements Behavior{
 		float rotationSweepSize = 5;
 		int curDistance = Integer.MAX_VALUE;
 		
-		while (rover.getObstacleDistance() < 150) { }
+		for (long seq = rover.getEventSequence(); rover.getObstacleDistance() < clearDistance;
+				seq = rover.getEventSequence()) {
+			rover.awaitEvent(objectCleared, seq, eventTimeout);
+		}
 		
 		
 		
@@ -129,7 +137,10 @@ public class AvoidPhysicalObject implements Behavior{
 					&& goneAroundObject) { 
 				rover.forward();
 				while (rover.getUnadjustedXPos() > initialXPos
-						&& !_suppressed) { }
+						&& !_suppressed) {
+					// Position isn't a sensor event, so poll it at a modest rate instead of spinning
+					Delay.msDelay(10);
+				}
 				rover.stop();
 				break;
 			}
@@ -0,0 +1,101 @@
+/*
+ * ColourCalibration.java
+ *
+ * Records RGB samples of each colour on the map and builds a ColourClassifier lookup table from them.
+ * Each table cell is given the colour whose average sample is nearest, or -1 (none) if no colour is near.
+ *
+ * Authors: SEP UG02
+ */
+
+import lejos.robotics.Color;
+
+public class ColourCalibration {
+
+	// Colour ids run from -1 (none) to 13 (brown)
+	private static final int maxColourId = 13;
+
+	private int bits;
+	private float fullScale;
+	private float maxDistance;
+
+	// Sum of red, green and blue and number of samples, per colour id
+	private double[][] sums = new double[maxColourId + 1][3];
+	private int[] counts = new int[maxColourId + 1];
+
+	/**
+	 * Constructor
+	 *
+	 * @param bits - bits each channel is quantised to in the lookup table
+	 * @param fullScale - channel reading that maps to the top quantisation level
+	 * @param maxDistance - furthest an RGB reading can be from a colour's average and still be classed as it
+	 */
+	ColourCalibration(int bits, float fullScale, float maxDistance) {
+		this.bits = bits;
+		this.fullScale = fullScale;
+		this.maxDistance = maxDistance;
+	}
+
+	/**
+	 * Records a sample of a known colour.
+	 *
+	 * @param colourId - colour the sensor is over
+	 * @param red - red reading
+	 * @param green - green reading
+	 * @param blue - blue reading
+	 */
+	public synchronized void addSample(int colourId, float red, float green, float blue) {
+		if (colourId < 0 || colourId > maxColourId)
+			throw new IllegalArgumentException("invalid colour id: " + colourId);
+		sums[colourId][0] += red;
+		sums[colourId][1] += green;
+		sums[colourId][2] += blue;
+		counts[colourId]++;
+	}
+
+	/**
+	 * @return number of samples recorded for a colour
+	 */
+	public synchronized int getSampleCount(int colourId) {
+		return counts[colourId];
+	}
+
+	/**
+	 * Builds a lookup table from the samples recorded so far.
+	 *
+	 * @return classifier using the table
+	 */
+	public synchronized ColourClassifier build() {
+		int levels = 1 << bits;
+		byte[] table = new byte[1 << (3 * bits)];
+		ColourClassifier classifier = new ColourClassifier(bits, fullScale, table);
+
+		for (int r = 0; r < levels; r++) {
+			for (int g = 0; g < levels; g++) {
+				for (int b = 0; b < levels; b++) {
+					// Centre of the cell in reading units
+					double red = (r + 0.5) * fullScale / levels;
+					double green = (g + 0.5) * fullScale / levels;
+					double blue = (b + 0.5) * fullScale / levels;
+
+					int nearest = Color.NONE;
+					double nearestDistance = maxDistance * maxDistance;
+					for (int id = 0; id <= maxColourId; id++) {
+						if (counts[id] == 0) {
+							continue;
+						}
+						double dr = red - sums[id][0] / counts[id];
+						double dg = green - sums[id][1] / counts[id];
+						double db = blue - sums[id][2] / counts[id];
+						double distance = dr * dr + dg * dg + db * db;
+						if (distance < nearestDistance) {
+							nearest = id;
+							nearestDistance = distance;
+						}
+					}
+					table[classifier.index(r, g, b)] = (byte)nearest;
+				}
+			}
+		}
+		return classifier;
+	}
+}
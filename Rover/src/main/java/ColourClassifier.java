@@ -0,0 +1,114 @@
+/*
+ * ColourClassifier.java
+ *
+ * Classifies RGB readings into colour ids with a lookup table built by ColourCalibration,
+ * so classifying a sample is a single array index.
+ *
+ * Authors: SEP UG02
+ */
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+public class ColourClassifier {
+
+	// Identifies a saved lookup table file
+	private static final int fileMagic = 0x52474254; // "RGBT"
+
+	private int bits;
+	private int levels;
+	private float fullScale;
+
+	// Colour id for every quantised (red, green, blue) cell
+	private byte[] table;
+
+	/**
+	 * Constructor
+	 *
+	 * @param bits - bits each channel is quantised to, giving 2^(3*bits) table entries
+	 * @param fullScale - channel reading that maps to the top quantisation level
+	 * @param table - colour id for each cell, indexed by index()
+	 */
+	ColourClassifier(int bits, float fullScale, byte[] table) {
+		if (table.length != 1 << (3 * bits))
+			throw new IllegalArgumentException("table does not match bits");
+		this.bits = bits;
+		this.levels = 1 << bits;
+		this.fullScale = fullScale;
+		this.table = table;
+	}
+
+	/**
+	 * Classifies an RGB reading.
+	 *
+	 * @return colour id of the reading, using the same ids as colour ID mode (-1 if unknown)
+	 */
+	public int classify(float red, float green, float blue) {
+		return table[index(quantise(red), quantise(green), quantise(blue))];
+	}
+
+	/**
+	 * @return bits each channel is quantised to
+	 */
+	public int getBits() {
+		return bits;
+	}
+
+	/**
+	 * @return channel reading that maps to the top quantisation level
+	 */
+	public float getFullScale() {
+		return fullScale;
+	}
+
+	/**
+	 * Converts a channel reading to a quantisation level.
+	 */
+	int quantise(float value) {
+		int level = (int)(value * levels / fullScale);
+		if (level < 0) {
+			return 0;
+		}
+		return (level >= levels) ? levels - 1 : level;
+	}
+
+	/**
+	 * @return table index of a cell given the quantisation level of each channel
+	 */
+	int index(int red, int green, int blue) {
+		return (((red << bits) | green) << bits) | blue;
+	}
+
+	/**
+	 * Writes the lookup table to a file.
+	 */
+	public void save(File file) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+			out.writeInt(fileMagic);
+			out.writeInt(bits);
+			out.writeFloat(fullScale);
+			out.write(table);
+		}
+	}
+
+	/**
+	 * Reads a lookup table written by save().
+	 *
+	 * @return classifier using the table in the file
+	 */
+	public static ColourClassifier load(File file) throws IOException {
+		try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+			if (in.readInt() != fileMagic)
+				throw new IOException("not a colour lookup table: " + file);
+			int bits = in.readInt();
+			float fullScale = in.readFloat();
+			byte[] table = new byte[1 << (3 * bits)];
+			in.readFully(table);
+			return new ColourClassifier(bits, fullScale, table);
+		}
+	}
+}
@@ -10,28 +10,62 @@ import lejos.hardware.port.Port;
 import lejos.hardware.sensor.EV3ColorSensor;
 import lejos.robotics.SampleProvider;
 
-public class ColourSensor extends Thread {
+public class ColourSensor implements PolledSensor {
 
 	private EV3ColorSensor colourSensor;
 
-	private int colourId;
+	private volatile int colourId;
 	private float[] rgb;
+	
+	// Reused for every sample so polling doesn't allocate
+	private float[] colourIdState;
+	private float[] noRgb;
+	
+	// Timestamped history of samples: [colour id, red, green, blue]
+	private SampleRing history;
+	private float[] sample;
 
 	private SampleProvider  colourIdSampler;
 	private SampleProvider  rgbSampler;
 	
-	private ColourMode currentMode;
+	private volatile ColourMode currentMode;
+	
+	// Classifies RGB readings into colour ids when in RGB mode, null if not calibrated
+	private volatile ColourClassifier classifier;
+	
+	// Log every sample is appended to, null when not recording
+	private volatile SensorRecorder recorder;
 	
 	/**
 	 * Constructor
 	 * 
 	 * @param port - port to which the ColourSensor is connected
+	 * @param historyDepth - number of samples kept in the history
 	 */
-	ColourSensor(Port port) {
+	ColourSensor(Port port, int historyDepth) {
 		colourSensor = new EV3ColorSensor(port);
-		colourIdSampler = colourSensor.getColorIDMode();
-		rgbSampler = colourSensor.getRGBMode();
+		init(colourSensor.getColorIDMode(), colourSensor.getRGBMode(), historyDepth);
+	}
+	
+	/**
+	 * Constructor for a colour sensor without hardware, e.g. replaying a sensor log
+	 * 
+	 * @param colourIdSampler - provides colour id samples
+	 * @param rgbSampler - provides [red, green, blue] samples
+	 * @param historyDepth - number of samples kept in the history
+	 */
+	ColourSensor(SampleProvider colourIdSampler, SampleProvider rgbSampler, int historyDepth) {
+		init(colourIdSampler, rgbSampler, historyDepth);
+	}
+	
+	private void init(SampleProvider colourIdSampler, SampleProvider rgbSampler, int historyDepth) {
+		this.colourIdSampler = colourIdSampler;
+		this.rgbSampler = rgbSampler;
 		rgb = new float[]{0f, 0f, 0f};
+		colourIdState = new float[colourIdSampler.sampleSize()];
+		noRgb = new float[]{0f, 0f, 0f};
+		history = new SampleRing(historyDepth, 4);
+		sample = new float[4];
 		colourId = 0;
 		currentMode = ColourMode.colourID;
 	}
@@ -44,15 +78,31 @@ public class ColourSensor extends Thread {
 	public void setColourMode(ColourMode mode) {
 		this.currentMode = mode;
 	}
+	
+	/**
+	 * @return the current colour detection mode of sensor
+	 */
+	public ColourMode getColourMode() {
+		return currentMode;
+	}
+	
+	/**
+	 * Sets the lookup table used to work out colour ids from RGB readings
+	 * 
+	 * @param classifier - calibrated classifier, or null to report 0 in RGB mode
+	 */
+	public void setClassifier(ColourClassifier classifier) {
+		this.classifier = classifier;
+	}
 
     /**
      * Query colour detected by color sensor
      * 
      * @return colour id (0-7) of detected colour (NONE, BLACK, BLUE, GREEN, YELLOW, RED, WHITE, BROWN)
-     * If not in correct mode returns 0;
+     * In RGB mode the id comes from the calibrated classifier. If there is none returns 0;
      */ 
     public int getColourID(){
-    	if (currentMode == ColourMode.colourID) {
+    	if (currentMode == ColourMode.colourID || classifier != null) {
     		return colourId;
     	}
     	else {
@@ -71,35 +121,90 @@ public class ColourSensor extends Thread {
     		return rgb;
     	}
     	else {
-    		return new float[]{0f, 0f, 0f};
+    		// Zero again in case a caller modified the returned array
+    		noRgb[0] = 0f;
+    		noRgb[1] = 0f;
+    		noRgb[2] = 0f;
+    		return noRgb;
+    	}
+    }
+    
+    /**
+     * Copies the level of red, green and blue light into a caller supplied array, without allocating.
+     * 
+     * @param dest - array of at least 3 elements to fill; filled with 0 if not in RGB mode
+     */
+    public void getRGB(float[] dest) {
+    	if (currentMode == ColourMode.RGB) {
+    		System.arraycopy(rgb, 0, dest, 0, 3);
+    	}
+    	else {
+    		dest[0] = 0f;
+    		dest[1] = 0f;
+    		dest[2] = 0f;
     	}
     }
 
 	/**
-	 * Continuously polls for colour sensor readings
+	 * Polls for colour sensor readings
 	 */
-	public void run() {
-		while (true) {	
-			
-			if (currentMode == ColourMode.colourID) {
-				// Retrieve id mode colour
-				float[] colourIdState = new float[colourIdSampler.sampleSize()];
-				colourIdSampler.fetchSample(colourIdState, 0);
-				colourId = (int)colourIdState[0];
+	public void poll() {
+		if (currentMode == ColourMode.colourID) {
+			// Retrieve id mode colour
+			colourIdSampler.fetchSample(colourIdState, 0);
+			colourId = (int)colourIdState[0];
+			sample[0] = colourId;
+			sample[1] = 0f;
+			sample[2] = 0f;
+			sample[3] = 0f;
+		}
+		
+		else if (currentMode == ColourMode.RGB) {
+			// Retrieve rgb mode colour
+			rgbSampler.fetchSample(rgb, 0);
+			ColourClassifier current = classifier;
+			if (current != null) {
+				colourId = current.classify(rgb[0], rgb[1], rgb[2]);
 			}
-			
-			else if (currentMode == ColourMode.RGB) {
-				// Retrieve rgb mode colour
-				rgbSampler.fetchSample(rgb, 0);
+			sample[0] = (current != null) ? colourId : 0f;
+			System.arraycopy(rgb, 0, sample, 1, 3);
+		}
+		long now = System.nanoTime();
+		history.publish(now, sample, 0);
+		
+		SensorRecorder log = recorder;
+		if (log != null) {
+			if (currentMode == ColourMode.colourID) {
+				log.record(SensorChannel.colourId, now, colourIdState, 0, 1);
+			} else {
+				log.record(SensorChannel.colourRgb, now, rgb, 0, 3);
 			}
 		}
 	}
+
+	/**
+	 * Starts or stops appending every sample to a sensor log
+	 * 
+	 * @param recorder - log to append to, or null to stop recording
+	 */
+	public void setRecorder(SensorRecorder recorder) {
+		this.recorder = recorder;
+	}
+
+	/**
+	 * @return timestamped history of readings (sample[0] colour id, sample[1..3] red, green, blue)
+	 */
+	public SampleRing getHistory() {
+		return history;
+	}
 	
 	/**
      * Closes the colour sensor port.
      * Call this when the Rover has finished operation and is going to disconnect everything.
      */
     public void close() {
-    	colourSensor.close();
+    	if (colourSensor != null) {
+    		colourSensor.close();
+    	}
     }
 }
@@ -0,0 +1,67 @@
+/*
+ * Command.java
+ *
+ * A command parsed by a CommandTable: its opcode and numeric arguments. One instance is
+ * reused for every command parsed, so parsing doesn't allocate.
+ *
+ * Authors: SEP UG02
+ */
+public class Command {
+
+	// Most arguments a command can have
+	public static final int MAX_ARGS = 8;
+
+	private int opcode;
+	private final double[] args = new double[MAX_ARGS];
+	private int argCount;
+
+	/**
+	 * @return opcode the command's name was registered with
+	 */
+	public int getOpcode() {
+		return opcode;
+	}
+
+	/**
+	 * @return number of arguments given
+	 */
+	public int getArgCount() {
+		return argCount;
+	}
+
+	/**
+	 * @return argument i as a double
+	 */
+	public double getDouble(int i) {
+		return args[i];
+	}
+
+	/**
+	 * @return argument i as an int
+	 */
+	public int getInt(int i) {
+		return (int)args[i];
+	}
+
+	/**
+	 * Copies another command's opcode and arguments into this one.
+	 */
+	void copyFrom(Command other) {
+		opcode = other.opcode;
+		argCount = other.argCount;
+		System.arraycopy(other.args, 0, args, 0, argCount);
+	}
+
+	void reset(int opcode) {
+		this.opcode = opcode;
+		this.argCount = 0;
+	}
+
+	boolean addArg(double value) {
+		if (argCount == MAX_ARGS) {
+			return false;
+		}
+		args[argCount++] = value;
+		return true;
+	}
+}
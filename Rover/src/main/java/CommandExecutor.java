@@ -0,0 +1,196 @@
+/*
+ * CommandExecutor.java
+ *
+ * Thread that carries out commands queued by the command server, so a command that blocks
+ * never holds up reading the ones after it. Commands other than motion run in the order they
+ * arrive, ahead of any queued motion; an urgent command such as a stop or mode change discards
+ * any queued motion and cancels motion that is already running as soon as it is queued.
+ *
+ * Authors: SEP UG02
+ */
+
+import java.util.ArrayDeque;
+
+public class CommandExecutor extends Thread {
+
+	// Weight given to the newest command when averaging latency
+	private static final double STATS_WEIGHT = 0.1;
+
+	/**
+	 * A queued command with its own copy of the arguments. Entries are reused.
+	 */
+	private static class Entry {
+		CommandHandler handler;
+		CommandPriority priority;
+		final Command command = new Command();
+		long queuedAt;
+	}
+
+	// Queued urgent and normal entries in arrival order, queued motion, and entries free to be reused
+	private final ArrayDeque<Entry> ordered;
+	private final ArrayDeque<Entry> motion;
+	private final ArrayDeque<Entry> free = new ArrayDeque<Entry>();
+
+	// Entry being carried out, or null
+	private Entry running;
+
+	// Cancels running motion, e.g. by stopping the pilot
+	private final Runnable preemption;
+
+	// Time from being queued to starting to run, per opcode, in ns
+	private final long[] executed;
+	private final double[] averageLatency;
+	private final long[] maxLatency;
+	private long preempted = 0;
+	private long rejected = 0;
+
+	/**
+	 * Constructor
+	 *
+	 * @param commandCount - number of opcodes, to keep statistics for
+	 * @param capacity - most commands queued at once
+	 * @param preemption - run when an urgent command arrives while a motion command is running
+	 */
+	public CommandExecutor(int commandCount, int capacity, Runnable preemption) {
+		setName("CommandExecutor");
+		this.preemption = preemption;
+		ordered = new ArrayDeque<Entry>(capacity);
+		motion = new ArrayDeque<Entry>(capacity);
+		for (int i = 0; i < capacity; i++) {
+			free.add(new Entry());
+		}
+		executed = new long[commandCount];
+		averageLatency = new double[commandCount];
+		maxLatency = new long[commandCount];
+	}
+
+	/**
+	 * Queues a command. If the queue is full, queued motion is dropped to make room for a more
+	 * important command; a command that can't be queued is counted as rejected.
+	 *
+	 * @param handler - carries out the command
+	 * @param priority - whether the command is motion, and whether it cancels motion
+	 * @param command - parsed command, copied so the caller can reuse it
+	 * @return true if the command was queued
+	 */
+	public boolean submit(CommandHandler handler, CommandPriority priority, Command command) {
+		boolean preempt = false;
+		synchronized (this) {
+			if (priority == CommandPriority.urgent) {
+				while (!motion.isEmpty()) {
+					free.add(motion.poll());
+					preempted++;
+				}
+				preempt = running != null && running.priority == CommandPriority.motion;
+				if (preempt) {
+					preempted++;
+				}
+			}
+			if (free.isEmpty() && priority != CommandPriority.motion && !motion.isEmpty()) {
+				free.add(motion.pollFirst());
+				rejected++;
+			}
+			Entry entry = free.poll();
+			if (entry == null) {
+				rejected++;
+				return false;
+			}
+			entry.handler = handler;
+			entry.priority = priority;
+			entry.command.copyFrom(command);
+			entry.queuedAt = System.nanoTime();
+			(priority == CommandPriority.motion ? motion : ordered).add(entry);
+			notifyAll();
+		}
+		if (preempt) {
+			preemption.run();
+		}
+		return true;
+	}
+
+	/**
+	 * Carries out queued commands, in arrival order with motion last.
+	 */
+	public void run() {
+		while (true) {
+			Entry entry;
+			try {
+				entry = take();
+			} catch (InterruptedException e) {
+				return;
+			}
+
+			recordLatency(entry.command.getOpcode(), System.nanoTime() - entry.queuedAt);
+			try {
+				entry.handler.handle(entry.command);
+			} catch (RuntimeException e) {
+				// A failing command mustn't stop the executor
+				e.printStackTrace();
+			}
+
+			synchronized (this) {
+				running = null;
+				free.add(entry);
+			}
+		}
+	}
+
+	/**
+	 * @return number of commands with the given opcode that have been run
+	 */
+	public synchronized long getExecutedCount(int opcode) {
+		return executed[opcode];
+	}
+
+	/**
+	 * @return average time commands with the given opcode waited to run, in microseconds
+	 */
+	public synchronized long getAverageLatency(int opcode) {
+		return Math.round(averageLatency[opcode] / 1000.0);
+	}
+
+	/**
+	 * @return longest time a command with the given opcode waited to run, in microseconds
+	 */
+	public synchronized long getMaxLatency(int opcode) {
+		return maxLatency[opcode] / 1000;
+	}
+
+	/**
+	 * @return number of queued or running motion commands cancelled by urgent ones
+	 */
+	public synchronized long getPreemptedCount() {
+		return preempted;
+	}
+
+	/**
+	 * @return number of commands dropped because the queue was full
+	 */
+	public synchronized long getRejectedCount() {
+		return rejected;
+	}
+
+	private synchronized Entry take() throws InterruptedException {
+		while (true) {
+			Entry entry = ordered.poll();
+			if (entry == null) {
+				entry = motion.poll();
+			}
+			if (entry != null) {
+				running = entry;
+				return entry;
+			}
+			wait();
+		}
+	}
+
+	private synchronized void recordLatency(int opcode, long latency) {
+		if (executed[opcode]++ == 0) {
+			averageLatency[opcode] = latency;
+		}
+		averageLatency[opcode] += STATS_WEIGHT * (latency - averageLatency[opcode]);
+		if (latency > maxLatency[opcode]) {
+			maxLatency[opcode] = latency;
+		}
+	}
+}
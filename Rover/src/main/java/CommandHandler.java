@@ -0,0 +1,17 @@
+/*
+ * CommandHandler.java
+ *
+ * Interface for the code that carries out a command registered with a CommandTable.
+ *
+ * Authors: SEP UG02
+ */
+public interface CommandHandler {
+
+	/**
+	 * Carries out a command. The command is reused for the next one parsed, so any
+	 * arguments that are needed later must be copied out of it.
+	 *
+	 * @param command - parsed command and its arguments
+	 */
+	void handle(Command command);
+}
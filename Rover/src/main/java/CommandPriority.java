@@ -0,0 +1,15 @@
+/*
+* CommandPriority.java
+*
+* A CommandPriority enum that contains how queued commands are carried out:
+* immediate - never queued; handled on the network thread as soon as it is read, e.g. heartbeats
+* urgent - stopping and changing mode; cancel any queued or running motion as soon as they arrive,
+*          then run in arrival order with normal commands
+* normal - everything else, such as NGZ changes and calibration; run in arrival order
+* motion - starting the rover moving; run once no other commands are queued
+*
+* Authors: SEP UG02
+*/
+public enum CommandPriority {
+	immediate, urgent, normal, motion
+}
@@ -0,0 +1,281 @@
+/*
+ * CommandTable.java
+ *
+ * Parses text commands of the form "NAME arg arg ..." straight from a byte buffer and dispatches
+ * them to the handler registered for the name. Names are looked up by hashing their bytes and
+ * arguments are parsed into a reused Command, so a command is handled without allocating.
+ * New commands are added by registering a handler rather than by editing a switch.
+ * If a CommandExecutor is set, commands are queued on it by priority instead of being run
+ * on the thread that parsed them, except for immediate commands.
+ *
+ * Authors: SEP UG02
+ */
+import java.nio.ByteBuffer;
+
+public class CommandTable {
+
+	// Size of the name hash table; must be a power of two larger than the number of commands
+	private static final int TABLE_SIZE = 64;
+
+	private static final double[] POW10 = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18
+	};
+
+	// Name of each registered command, indexed by hash slot, with the opcode it was given
+	private final byte[][] names = new byte[TABLE_SIZE][];
+	private final int[] slotOpcodes = new int[TABLE_SIZE];
+
+	// Name, handler, number of arguments required and priority, indexed by opcode
+	private String[] opcodeNames = new String[0];
+	private CommandHandler[] handlers = new CommandHandler[0];
+	private int[] argCounts = new int[0];
+	private CommandPriority[] priorities = new CommandPriority[0];
+
+	private final Command command = new Command();
+
+	// Queue commands are run from, or null to run them as soon as they are parsed
+	private CommandExecutor executor;
+
+	/**
+	 * Registers a command with normal priority.
+	 *
+	 * @param name - name the command starts with, ASCII without spaces
+	 * @param argCount - number of numeric arguments the command must have
+	 * @param handler - carries out the command
+	 * @return the opcode given to the command
+	 */
+	public int register(String name, int argCount, CommandHandler handler) {
+		return register(name, argCount, CommandPriority.normal, handler);
+	}
+
+	/**
+	 * Registers a command. Commands must all be registered before any are dispatched.
+	 *
+	 * @param name - name the command starts with, ASCII without spaces
+	 * @param argCount - number of numeric arguments the command must have
+	 * @param priority - order the command is run in when queued on an executor
+	 * @param handler - carries out the command
+	 * @return the opcode given to the command
+	 */
+	public synchronized int register(String name, int argCount, CommandPriority priority, CommandHandler handler) {
+		if (argCount > Command.MAX_ARGS)
+			throw new IllegalArgumentException("too many arguments for " + name);
+		byte[] bytes = name.getBytes();
+		int slot = find(bytes, 0, bytes.length);
+		if (names[slot] != null)
+			throw new IllegalArgumentException("command already registered: " + name);
+		if (handlers.length == TABLE_SIZE / 2)
+			throw new IllegalStateException("command table full");
+
+		int opcode = handlers.length;
+		String[] newNames = new String[opcode + 1];
+		CommandHandler[] newHandlers = new CommandHandler[opcode + 1];
+		int[] newArgCounts = new int[opcode + 1];
+		CommandPriority[] newPriorities = new CommandPriority[opcode + 1];
+		System.arraycopy(opcodeNames, 0, newNames, 0, opcode);
+		System.arraycopy(handlers, 0, newHandlers, 0, opcode);
+		System.arraycopy(argCounts, 0, newArgCounts, 0, opcode);
+		System.arraycopy(priorities, 0, newPriorities, 0, opcode);
+		newNames[opcode] = name;
+		newHandlers[opcode] = handler;
+		newArgCounts[opcode] = argCount;
+		newPriorities[opcode] = priority;
+		opcodeNames = newNames;
+		handlers = newHandlers;
+		argCounts = newArgCounts;
+		priorities = newPriorities;
+
+		slotOpcodes[slot] = opcode;
+		names[slot] = bytes;
+		return opcode;
+	}
+
+	/**
+	 * Parses a single command and passes it to its handler. Must only be called from one thread.
+	 *
+	 * @param buffer - buffer holding the command
+	 * @param start - index of the first byte of the command
+	 * @param end - index after the last byte of the command, excluding any line terminator
+	 * @return false if the command is empty, unknown or has the wrong arguments
+	 */
+	public boolean dispatch(ByteBuffer buffer, int start, int end) {
+		start = skipSpaces(buffer, start, end);
+		int nameEnd = start;
+		while (nameEnd < end && !isSpace(buffer.get(nameEnd))) {
+			nameEnd++;
+		}
+		if (nameEnd == start) {
+			return false;
+		}
+
+		byte[][] table = names;
+		int slot = find(buffer, start, nameEnd);
+		if (table[slot] == null) {
+			return false;
+		}
+		int opcode = slotOpcodes[slot];
+		command.reset(opcode);
+
+		int i = skipSpaces(buffer, nameEnd, end);
+		while (i < end) {
+			int argEnd = i;
+			while (argEnd < end && !isSpace(buffer.get(argEnd))) {
+				argEnd++;
+			}
+			double value = parseNumber(buffer, i, argEnd);
+			if (Double.isNaN(value) || !command.addArg(value)) {
+				return false;
+			}
+			i = skipSpaces(buffer, argEnd, end);
+		}
+
+		if (command.getArgCount() != argCounts[opcode]) {
+			return false;
+		}
+		if (executor != null && priorities[opcode] != CommandPriority.immediate) {
+			executor.submit(handlers[opcode], priorities[opcode], command);
+		}
+		else {
+			handlers[opcode].handle(command);
+		}
+		return true;
+	}
+
+	/**
+	 * Sets the executor commands are queued on, or null to run them as soon as they are parsed.
+	 */
+	public void setExecutor(CommandExecutor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * @return number of registered commands; opcodes run from 0 to this minus one
+	 */
+	public int getCommandCount() {
+		return handlers.length;
+	}
+
+	/**
+	 * @return name the command with the given opcode was registered with
+	 */
+	public String getName(int opcode) {
+		return opcodeNames[opcode];
+	}
+
+	/**
+	 * Parses a decimal number such as -12, 3.5 or 1.2e3.
+	 *
+	 * @return the number, or NaN if the bytes aren't a number
+	 */
+	static double parseNumber(ByteBuffer buffer, int start, int end) {
+		int i = start;
+		boolean negative = false;
+		if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+			negative = buffer.get(i) == '-';
+			i++;
+		}
+		long mantissa = 0;
+		int digits = 0;
+		int scale = 0;
+		boolean fraction = false;
+		boolean any = false;
+		for (; i < end; i++) {
+			byte b = buffer.get(i);
+			if (b >= '0' && b <= '9') {
+				any = true;
+				if (digits < 18) {
+					mantissa = mantissa * 10 + (b - '0');
+					digits += (mantissa != 0) ? 1 : 0;
+					if (fraction) {
+						scale--;
+					}
+				}
+				else if (!fraction) {
+					scale++;
+				}
+			}
+			else if (b == '.' && !fraction) {
+				fraction = true;
+			}
+			else {
+				break;
+			}
+		}
+		if (!any) {
+			return Double.NaN;
+		}
+		if (i < end && (buffer.get(i) == 'e' || buffer.get(i) == 'E')) {
+			i++;
+			boolean negativeExponent = false;
+			if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+				negativeExponent = buffer.get(i) == '-';
+				i++;
+			}
+			int exponent = 0;
+			boolean anyExponent = false;
+			for (; i < end && buffer.get(i) >= '0' && buffer.get(i) <= '9'; i++) {
+				exponent = Math.min(exponent * 10 + (buffer.get(i) - '0'), 400);
+				anyExponent = true;
+			}
+			if (!anyExponent) {
+				return Double.NaN;
+			}
+			scale += negativeExponent ? -exponent : exponent;
+		}
+		if (i != end) {
+			return Double.NaN;
+		}
+
+		double value = mantissa;
+		if (scale < 0) {
+			value = (-scale < POW10.length) ? value / POW10[-scale] : value / Math.pow(10, -scale);
+		}
+		else if (scale > 0) {
+			value = (scale < POW10.length) ? value * POW10[scale] : value * Math.pow(10, scale);
+		}
+		return negative ? -value : value;
+	}
+
+	/**
+	 * @return the slot holding the name, or the empty slot it would go in
+	 */
+	private int find(ByteBuffer buffer, int start, int end) {
+		int hash = 0x811C9DC5;
+		for (int i = start; i < end; i++) {
+			hash = (hash ^ (buffer.get(i) & 0xFF)) * 0x01000193;
+		}
+		int slot = hash & (TABLE_SIZE - 1);
+		while (names[slot] != null && !matches(names[slot], buffer, start, end)) {
+			slot = (slot + 1) & (TABLE_SIZE - 1);
+		}
+		return slot;
+	}
+
+	private int find(byte[] name, int start, int end) {
+		return find(ByteBuffer.wrap(name), start, end);
+	}
+
+	private static boolean matches(byte[] name, ByteBuffer buffer, int start, int end) {
+		if (name.length != end - start) {
+			return false;
+		}
+		for (int i = 0; i < name.length; i++) {
+			if (name[i] != buffer.get(start + i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int skipSpaces(ByteBuffer buffer, int i, int end) {
+		while (i < end && isSpace(buffer.get(i))) {
+			i++;
+		}
+		return i;
+	}
+
+	private static boolean isSpace(byte b) {
+		return b == ' ' || b == '\t' || b == '\r';
+	}
+}
@@ -1,75 +1,354 @@
-import java.io.BufferedReader;
+/*
+ * Communication.java
+ *
+ * Command server for control clients. A single thread uses a Selector to accept any number of
+ * clients, including a UI reconnecting after a dropped connection, and reads newline framed
+ * commands from each without ever blocking on one of them.
+ * A client that sends "PING <seq>" heartbeats is answered with "PONG <seq>" straight away, and
+ * is dropped if it then goes quiet for longer than the heartbeat timeout; losing the controlling
+ * client stops the rover if it is being driven manually.
+ *
+ * Authors: SEP UG02
+ */
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.net.InetSocketAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
 
 public class Communication extends Thread {
 
+	// Size of each client's read buffer; longer commands are discarded
+	private static final int BUFFER_SIZE = 1024;
+
+	// Longest time to wait for network activity before checking the rover is still running, in ms
+	private static final long SELECT_TIMEOUT = 500;
+
+	private static final long NANOS_PER_MILLI = 1000000L;
+
+	/**
+	 * Read buffer and heartbeat state of a connected client.
+	 */
+	private static class Client {
+		final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		// Time anything was last read from the client, in ns
+		long lastHeard = System.nanoTime();
+		// Whether the client sends heartbeats, so can be timed out
+		boolean heartbeats = false;
+		// Whether the rest of an overlong command is being skipped, up to its newline
+		boolean discarding = false;
+	}
+
 	private Rover rover;
 	
-	public Communication(Rover rover) {
+	// Commands the rover understands, parsed without allocating
+	private final CommandTable commands;
+	
+	// Runs commands off the network thread, in priority order
+	private final CommandExecutor executor;
+
+	// Longest a client sending heartbeats may go quiet before it is dropped, in ns
+	private final long heartbeatTimeout;
+
+	// Client whose commands are being dispatched, which replies go to
+	private SocketChannel replyChannel;
+	private Client replyClient;
+
+	// Reused for building PONG replies
+	private final ByteBuffer reply = ByteBuffer.allocate(32);
+
+	/**
+	 * Constructor
+	 *
+	 * @param rover - rover commands are carried out on
+	 * @param queueCapacity - most commands queued on the executor at once
+	 * @param heartbeatTimeout - longest a client sending heartbeats may go quiet, in ms
+	 */
+	public Communication(final Rover rover, int queueCapacity, long heartbeatTimeout) {
 		this.rover = rover;
+		this.heartbeatTimeout = heartbeatTimeout * NANOS_PER_MILLI;
+		this.commands = createCommands(rover);
+		commands.register("PING", 1, CommandPriority.immediate, new CommandHandler() {
+			public void handle(Command command) {
+				pong((long)command.getDouble(0));
+			}
+		});
+		this.executor = new CommandExecutor(commands.getCommandCount(), queueCapacity, new Runnable() {
+			public void run() {
+				rover.stop();
+			}
+		});
+		executor.setDaemon(true);
+		commands.setExecutor(executor);
+	}
+	
+	/**
+	 * @return commands the rover understands
+	 */
+	public CommandTable getCommands() {
+		return commands;
 	}
 	
+	/**
+	 * @return executor commands are run on
+	 */
+	public CommandExecutor getExecutor() {
+		return executor;
+	}
+	
+	/**
+	 * Registers every command a control client can send.
+	 */
+	static CommandTable createCommands(final Rover rover) {
+		CommandTable table = new CommandTable();
+		CommandHandler stop = new CommandHandler() {
+			public void handle(Command command) {
+				rover.stop();
+			}
+		};
+		table.register("UP-PRESS", 0, CommandPriority.motion, new CommandHandler() {
+			public void handle(Command command) {
+				rover.forward();
+			}
+		});
+		table.register("UP-RELEASE", 0, CommandPriority.urgent, stop);
+		table.register("DOWN-PRESS", 0, CommandPriority.motion, new CommandHandler() {
+			public void handle(Command command) {
+				rover.backward();
+			}
+		});
+		table.register("DOWN-RELEASE", 0, CommandPriority.urgent, stop);
+		table.register("LEFT-PRESS", 0, CommandPriority.motion, new CommandHandler() {
+			public void handle(Command command) {
+				rover.turnL();
+			}
+		});
+		table.register("LEFT-RELEASE", 0, CommandPriority.urgent, stop);
+		table.register("RIGHT-PRESS", 0, CommandPriority.motion, new CommandHandler() {
+			public void handle(Command command) {
+				rover.turnR();
+			}
+		});
+		table.register("RIGHT-RELEASE", 0, CommandPriority.urgent, stop);
+		table.register("EXIT", 0, CommandPriority.urgent, new CommandHandler() {
+			public void handle(Command command) {
+				rover.stopRunning();
+			}
+		});
+		table.register("STATE-AUTO", 0, CommandPriority.urgent, new CommandHandler() {
+			public void handle(Command command) {
+				rover.stop();
+				rover.setAutoControl();
+			}
+		});
+		table.register("STATE-MANUAL", 0, CommandPriority.urgent, new CommandHandler() {
+			public void handle(Command command) {
+				rover.stop();
+				rover.setManualControl();
+			}
+		});
+		table.register("ADDNGZ", 4, new CommandHandler() {
+			public void handle(Command command) {
+				rover.addNGZ(command.getDouble(0), command.getDouble(1), command.getDouble(2), command.getDouble(3));
+			}
+		});
+		table.register("REMOVENGZ", 4, new CommandHandler() {
+			public void handle(Command command) {
+				rover.removeNGZ(command.getDouble(0), command.getDouble(1), command.getDouble(2), command.getDouble(3));
+			}
+		});
+		table.register("CALIBRATE", 1, new CommandHandler() {
+			public void handle(Command command) {
+				rover.calibrateColour(command.getInt(0));
+			}
+		});
+		table.register("CALIBRATE-SAVE", 0, new CommandHandler() {
+			public void handle(Command command) {
+				rover.saveColourCalibration();
+			}
+		});
+		return table;
+	}
+
+	/**
+	 * Accepts clients and handles their commands until the rover stops running.
+	 */
 	public void run() {
-		ServerSocket serv;
+		executor.start();
+		try (Selector selector = Selector.open();
+				ServerSocketChannel server = ServerSocketChannel.open()) {
+			server.socket().setReuseAddress(true);
+			server.bind(new InetSocketAddress(19232));
+			server.configureBlocking(false);
+			server.register(selector, SelectionKey.OP_ACCEPT);
+
+			long timeout = Math.max(1, Math.min(SELECT_TIMEOUT, heartbeatTimeout / NANOS_PER_MILLI / 4));
+			while (rover.isRunning()) {
+				selector.select(timeout);
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isAcceptable()) {
+						accept(server, selector);
+					}
+					else if (key.isReadable()) {
+						read(key);
+					}
+				}
+				checkHeartbeats(selector);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Accepts a new client. Telemetry follows the most recently connected client.
+	 */
+	private void accept(ServerSocketChannel server, Selector selector) throws IOException {
+		SocketChannel client = server.accept();
+		if (client == null) {
+			return;
+		}
+		client.configureBlocking(false);
+		client.register(selector, SelectionKey.OP_READ, new Client());
+		rover.setHostAddress((InetSocketAddress) client.socket().getRemoteSocketAddress());
+	}
+
+	/**
+	 * Reads whatever a client has sent and handles every complete command in it.
+	 * A client that has closed its connection, or whose connection fails, is dropped.
+	 */
+	private void read(SelectionKey key) {
+		SocketChannel client = (SocketChannel) key.channel();
+		Client state = (Client) key.attachment();
+		ByteBuffer buffer = state.buffer;
 		try {
-			serv = new ServerSocket(19232);
-			Socket socket = serv.accept();
-			rover.setHostAddress((InetSocketAddress) socket.getRemoteSocketAddress());
-			BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-			// the listener with the while readline
-			String line;
-			while ((line = reader.readLine()) != "STOP" && rover.isRunning()) {
-				String[] command = line.split(" ");
-				switch (command[0]) {
-				case "UP-PRESS":
-					rover.forward();
-					break;
-				case "UP-RELEASE":
-					rover.stop();
-					break;
-				case "DOWN-PRESS":
-					rover.backward();
-					break;
-				case "DOWN-RELEASE":
-					rover.stop();
-					break;
-				case "LEFT-PRESS":
-					rover.turnL();
-					break;
-				case "LEFT-RELEASE":
-					rover.stop();
-					break;
-				case "RIGHT-PRESS":
-					rover.turnR();
-					break;
-				case "RIGHT-RELEASE":
-					rover.stop();
-					break;
-				case "EXIT":
-					rover.stopRunning();
-					break;
-				case "STATE-AUTO":
-					rover.stop();
-					rover.setAutoControl();
-					break;
-				case "STATE-MANUAL":
-					rover.stop();
-					rover.setManualControl();
-					break;
-				case "ADDNGZ":
-					rover.addNGZ(Double.valueOf(command[1]),Double.valueOf(command[2]),Double.valueOf(command[3]),Double.valueOf(command[4]));
-					break;
-				case "REMOVENGZ":
-					rover.removeNGZ(Double.valueOf(command[1]),Double.valueOf(command[2]),Double.valueOf(command[3]),Double.valueOf(command[4]));
-					break;
-				default:
-					break;
+			if (client.read(buffer) < 0) {
+				close(key);
+				return;
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			close(key);
+			return;
+		}
+
+		state.lastHeard = System.nanoTime();
+		replyChannel = client;
+		replyClient = state;
+
+		// Handle each complete line, then keep any partial line for the next read
+		buffer.flip();
+		int start = 0;
+		for (int i = buffer.position(); i < buffer.limit(); i++) {
+			if (buffer.get(i) == '\n') {
+				if (state.discarding) {
+					// End of an overlong command, whose start was already thrown away
+					state.discarding = false;
+				}
+				else {
+					try {
+						commands.dispatch(buffer, start, i);
+					} catch (RuntimeException e) {
+						// A failing command mustn't stop the server
+						e.printStackTrace();
+					}
 				}
+				start = i + 1;
+			}
+		}
+		buffer.position(start);
+		buffer.compact();
+		if (!buffer.hasRemaining()) {
+			// A command longer than the buffer can't be valid, so skip it through to its newline
+			buffer.clear();
+			state.discarding = true;
+		}
+		replyChannel = null;
+		replyClient = null;
+	}
+
+	/**
+	 * Answers a heartbeat from the client being read, marking it as one that can time out.
+	 * The reply is small enough to go straight into the socket's send buffer.
+	 */
+	private void pong(long seq) {
+		if (replyChannel == null) {
+			return;
+		}
+		replyClient.heartbeats = true;
+		reply.clear();
+		reply.put((byte)'P').put((byte)'O').put((byte)'N').put((byte)'G').put((byte)' ');
+		putLong(reply, seq);
+		reply.put((byte)'\n');
+		reply.flip();
+		try {
+			replyChannel.write(reply);
+		} catch (IOException e) {
+			// The dead connection is noticed and dropped on the next read
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Drops clients that send heartbeats but have gone quiet for longer than the timeout.
+	 * If that leaves no client sending heartbeats, the rover is stopped when driven manually.
+	 */
+	private void checkHeartbeats(Selector selector) {
+		long now = System.nanoTime();
+		boolean dropped = false;
+		boolean alive = false;
+		for (SelectionKey key : selector.keys()) {
+			if (!(key.attachment() instanceof Client)) {
+				continue;
+			}
+			Client state = (Client) key.attachment();
+			if (!state.heartbeats) {
+				continue;
+			}
+			if (now - state.lastHeard > heartbeatTimeout) {
+				close(key);
+				dropped = true;
+			}
+			else {
+				alive = true;
 			}
+		}
+		if (dropped && !alive && rover.getMode() == MODE.manual) {
+			rover.stop();
+		}
+	}
+
+	private static void putLong(ByteBuffer buffer, long value) {
+		if (value < 0) {
+			buffer.put((byte)'-');
+			value = -value;
+		}
+		int start = buffer.position();
+		do {
+			buffer.put((byte)('0' + value % 10));
+			value /= 10;
+		} while (value != 0);
+		// Digits were put least significant first
+		for (int i = start, j = buffer.position() - 1; i < j; i++, j--) {
+			byte b = buffer.get(i);
+			buffer.put(i, buffer.get(j));
+			buffer.put(j, b);
+		}
+	}
+
+	private void close(SelectionKey key) {
+		key.cancel();
+		try {
+			key.channel().close();
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
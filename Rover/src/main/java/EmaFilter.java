@@ -0,0 +1,39 @@
+/*
+ * EmaFilter.java
+ *
+ * Filter stage that smooths samples with an exponential moving average.
+ *
+ * Authors: SEP UG02
+ */
+public class EmaFilter implements SampleFilter {
+
+	private float alpha;
+
+	private float average;
+	private boolean hasAverage;
+
+	/**
+	 * Constructor
+	 *
+	 * @param alpha - weight of the newest sample, between 0 (ignore new samples) and 1 (no smoothing)
+	 */
+	public EmaFilter(float alpha) {
+		if (alpha <= 0 || alpha > 1)
+			throw new IllegalArgumentException("alpha must be in (0, 1]");
+		this.alpha = alpha;
+	}
+
+	public float filter(float sample) {
+		if (hasAverage) {
+			average += alpha * (sample - average);
+		} else {
+			average = sample;
+			hasAverage = true;
+		}
+		return average;
+	}
+
+	public void reset() {
+		hasAverage = false;
+	}
+}
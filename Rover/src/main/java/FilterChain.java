@@ -0,0 +1,66 @@
+/*
+ * FilterChain.java
+ *
+ * Runs a sample through a sequence of filter stages, each stage feeding the next.
+ *
+ * Authors: SEP UG02
+ */
+public class FilterChain implements SampleFilter {
+
+	private SampleFilter[] stages;
+
+	/**
+	 * Constructor
+	 *
+	 * @param stages - filter stages in the order samples pass through them
+	 */
+	public FilterChain(SampleFilter... stages) {
+		this.stages = stages;
+	}
+
+	/**
+	 * Builds a filter chain from a comma separated description, e.g. "median:5,outlier:300:3,ema:0.5".
+	 * Stages are median:size, outlier:maxStep:maxRejections and ema:alpha.
+	 * An empty description gives a chain that passes samples straight through.
+	 *
+	 * @param spec - description of the stages
+	 * @return filter chain running the described stages in order
+	 */
+	public static FilterChain parse(String spec) {
+		if (spec == null || spec.trim().isEmpty()) {
+			return new FilterChain();
+		}
+		String[] descriptions = spec.split(",");
+		SampleFilter[] stages = new SampleFilter[descriptions.length];
+		for (int i = 0; i < descriptions.length; i++) {
+			String[] parts = descriptions[i].trim().split(":");
+			switch (parts[0]) {
+			case "median":
+				stages[i] = new MedianFilter(Integer.valueOf(parts[1]));
+				break;
+			case "outlier":
+				stages[i] = new OutlierFilter(Float.valueOf(parts[1]), Integer.valueOf(parts[2]));
+				break;
+			case "ema":
+				stages[i] = new EmaFilter(Float.valueOf(parts[1]));
+				break;
+			default:
+				throw new IllegalArgumentException("unknown filter stage: " + parts[0]);
+			}
+		}
+		return new FilterChain(stages);
+	}
+
+	public float filter(float sample) {
+		for (int i = 0; i < stages.length; i++) {
+			sample = stages[i].filter(sample);
+		}
+		return sample;
+	}
+
+	public void reset() {
+		for (int i = 0; i < stages.length; i++) {
+			stages[i].reset();
+		}
+	}
+}
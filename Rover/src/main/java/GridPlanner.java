@@ -0,0 +1,204 @@
+/*
+ * GridPlanner.java
+ *
+ * Base of the planners that search the cells of a NGZGrid. It knows which cells the rover fits
+ * in, estimates distances with the octile heuristic, finds the first clear point beyond a NGZ
+ * along a heading, and smooths a path of cells into the few waypoints it has to turn at.
+ * Subclasses decide how cells are searched and how long they remember which cells are free.
+ *
+ * Authors: SEP UG02
+ */
+
+import java.util.Arrays;
+
+public abstract class GridPlanner {
+
+	protected static final float DIAGONAL = (float)Math.sqrt(2);
+
+	// Extra cost of each step through a blocked cell, when the path starts inside a NGZ
+	protected static final float BLOCKED_COST = 10;
+
+	// Offsets of the eight neighbours; the first four are straight, the rest diagonal
+	protected static final int[] DX = {1, -1, 0, 0, 1, 1, -1, -1};
+	protected static final int[] DY = {0, 0, 1, -1, 1, -1, 1, -1};
+
+	protected final NGZGrid grid;
+
+	// Cells the rover's centre must keep from a NGZ on each side
+	protected final int radius;
+
+	// Size of the grid the search state was made for
+	protected int width = 0;
+	protected int height = 0;
+
+	// Cells of the path being built, start first
+	protected int[] cells = new int[256];
+	protected int cellCount = 0;
+
+	// Cells the smoothed path turns at
+	private int[] smoothed = new int[256];
+
+	// Point found by findExit
+	protected double exitX;
+	protected double exitY;
+
+	/**
+	 * Constructor
+	 *
+	 * @param grid - NGZs to plan around
+	 * @param trackWidth - width of the rover in mm
+	 */
+	protected GridPlanner(NGZGrid grid, double trackWidth) {
+		this.grid = grid;
+		this.radius = (int)Math.ceil(trackWidth / 2 / grid.getScale());
+	}
+
+	/**
+	 * @return true if the rover fits in a cell without touching a NGZ
+	 */
+	protected abstract boolean isFree(int cell);
+
+	/**
+	 * Looks the clearance of a cell up in the grid's distance field. Must be called holding
+	 * the grid's lock, so a search sees the NGZs as they were when it started.
+	 *
+	 * @return true if no NGZ is within the rover's clearance of a cell
+	 */
+	protected boolean clearance(int cell) {
+		return grid.cellClearanceSquared(cell % width, cell / width) > radius * radius;
+	}
+
+	protected boolean inGrid(int x, int y) {
+		return x >= 0 && x < width && y >= 0 && y < height;
+	}
+
+	protected static float heuristic(int x, int y, int gx, int gy) {
+		int dx = Math.abs(gx - x);
+		int dy = Math.abs(gy - y);
+		return Math.max(dx, dy) + (DIAGONAL - 1) * Math.min(dx, dy);
+	}
+
+	/**
+	 * Steps along a heading until past the NGZ ahead, and sets exitX and exitY to the first
+	 * clear point beyond it.
+	 *
+	 * @return false if the grid ends before a clear point is found
+	 */
+	protected boolean findExit(double x, double y, double heading) {
+		double step = grid.getScale();
+		double dx = step * Math.cos(Math.toRadians(heading));
+		double dy = step * Math.sin(Math.toRadians(heading));
+		boolean passed = false;
+		for (int i = 0, steps = width + height; i < steps; i++) {
+			exitX = x + dx * i;
+			exitY = y + dy * i;
+			int cell_x = grid.toCellX(exitX);
+			int cell_y = grid.toCellY(exitY);
+			if (!inGrid(cell_x, cell_y)) {
+				return false;
+			}
+			if (!isFree(cell_x + cell_y * width)) {
+				passed = true;
+			}
+			else if (passed) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Adds a cell to the end of the path being built.
+	 */
+	protected void addCell(int cell) {
+		if (cellCount == cells.length) {
+			cells = Arrays.copyOf(cells, cellCount * 2);
+			smoothed = new int[cells.length];
+		}
+		cells[cellCount++] = cell;
+	}
+
+	/**
+	 * Smooths the path built into the cells it has to turn at and converts them to x, y pairs.
+	 * From each kept cell the path skips to the furthest later cell in a clear straight line,
+	 * or along a straight run of cells, which lets a path leave a NGZ it starts in.
+	 *
+	 * @return x, y pairs of the waypoints after the start, ending exactly at the goal
+	 */
+	protected float[] smoothPath(double goal_x, double goal_y) {
+		int kept = 0;
+		int anchor = 0;
+		while (anchor < cellCount - 1) {
+			int next = anchor + 1;
+			while (next < cellCount - 1 && (straight(anchor, next + 1) || visible(cells[anchor], cells[next + 1]))) {
+				next++;
+			}
+			smoothed[kept++] = cells[next];
+			anchor = next;
+		}
+
+		float[] waypoints = new float[kept * 2];
+		for (int i = 0; i < kept; i++) {
+			waypoints[i * 2] = (float)grid.toX(smoothed[i] % width);
+			waypoints[i * 2 + 1] = (float)grid.toY(smoothed[i] / width);
+		}
+		if (kept > 0) {
+			waypoints[kept * 2 - 2] = (float)goal_x;
+			waypoints[kept * 2 - 1] = (float)goal_y;
+		}
+		return waypoints;
+	}
+
+	/**
+	 * @return true if the path runs in one direction from cells[from] to cells[to]
+	 */
+	private boolean straight(int from, int to) {
+		int dx = cells[from + 1] % width - cells[from] % width;
+		int dy = cells[from + 1] / width - cells[from] / width;
+		for (int i = from + 1; i < to; i++) {
+			if (cells[i + 1] % width - cells[i] % width != dx || cells[i + 1] / width - cells[i] / width != dy) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return true if every cell on the line between two cells is free, including both cells
+	 *         either side of a diagonal step
+	 */
+	private boolean visible(int from, int to) {
+		int x = from % width;
+		int y = from / width;
+		int x1 = to % width;
+		int y1 = to / width;
+		int dx = Math.abs(x1 - x);
+		int dy = Math.abs(y1 - y);
+		int sx = (x1 > x) ? 1 : -1;
+		int sy = (y1 > y) ? 1 : -1;
+		int err = dx - dy;
+		if (!isFree(from)) {
+			return false;
+		}
+		while (x != x1 || y != y1) {
+			int e2 = 2 * err;
+			boolean stepX = e2 > -dy;
+			boolean stepY = e2 < dx;
+			if (stepX && stepY && (!isFree(x + sx + y * width) || !isFree(x + (y + sy) * width))) {
+				return false;
+			}
+			if (stepX) {
+				err -= dy;
+				x += sx;
+			}
+			if (stepY) {
+				err += dx;
+				y += sy;
+			}
+			if (!isFree(x + y * width)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -10,25 +10,50 @@ import lejos.hardware.port.Port;
 import lejos.hardware.sensor.EV3GyroSensor;
 import lejos.robotics.SampleProvider;
 
-public class GyroSensor extends Thread {
+public class GyroSensor implements PolledSensor {
 	
 	private EV3GyroSensor gyroSensor;
 	
-	private int rotationAngle; //Unit Degrees
-	private int rotationRate; //Unit: Degrees/sec
+	private volatile int rotationAngle; //Unit Degrees
+	private volatile int rotationRate; //Unit: Degrees/sec
 	
-	private SampleProvider angleSampler;
-	private SampleProvider rateSampler;
+	// Fetches angle and rate together: sample[0] is the angle, sample[1] the rate
+	private SampleProvider angleAndRateSampler;
+	
+	// Reused for every sample so polling doesn't allocate
+	private float[] state;
+	
+	// Timestamped history of samples: [angle, rate]
+	private SampleRing history;
+	
+	// Log every sample is appended to, null when not recording
+	private volatile SensorRecorder recorder;
 	
 	/**
 	 * Constructor
 	 * 
 	 * @param port - port to which GyroSensor is connected
+	 * @param historyDepth - number of samples kept in the history
 	 */
-	GyroSensor(Port port) {
+	GyroSensor(Port port, int historyDepth) {
 		gyroSensor = new EV3GyroSensor(port);
-		angleSampler = gyroSensor.getAngleMode();
-		rateSampler = gyroSensor.getRateMode();
+		init(gyroSensor.getAngleAndRateMode(), historyDepth);
+	}
+	
+	/**
+	 * Constructor for a gyro sensor without hardware, e.g. replaying a sensor log
+	 * 
+	 * @param sampler - provides [angle, rate] samples
+	 * @param historyDepth - number of samples kept in the history
+	 */
+	GyroSensor(SampleProvider sampler, int historyDepth) {
+		init(sampler, historyDepth);
+	}
+	
+	private void init(SampleProvider sampler, int historyDepth) {
+		angleAndRateSampler = sampler;
+		state = new float[angleAndRateSampler.sampleSize()];
+		history = new SampleRing(historyDepth, 2);
 		rotationAngle = 0;
 		rotationRate = 0;
 	}
@@ -50,27 +75,45 @@ public class GyroSensor extends Thread {
 	}
 	
 	/**
-	 *  Continuously polls for sensor readings
+	 *  Polls for sensor readings
 	 */
-	public void run() {
-		while (true) {		
-			// Retrieve angle of rotation
-			float[] angleState = new float[angleSampler.sampleSize()];
-			angleSampler.fetchSample(angleState, 0);
-			rotationAngle = (int)angleState[0];
-			
-			// Retrieve rate of rotation
-			float[] rateState = new float[rateSampler.sampleSize()];
-			rateSampler.fetchSample(rateState, 0);
-			rotationRate = (int)rateState[0];
+	public void poll() {
+		// Retrieve angle and rate of rotation in a single fetch
+		angleAndRateSampler.fetchSample(state, 0);
+		rotationAngle = (int)state[0];
+		rotationRate = (int)state[1];
+		long now = System.nanoTime();
+		history.publish(now, state, 0);
+		
+		SensorRecorder log = recorder;
+		if (log != null) {
+			log.record(SensorChannel.gyro, now, state, 0, 2);
 		}
 	}
+
+	/**
+	 * Starts or stops appending every sample to a sensor log
+	 * 
+	 * @param recorder - log to append to, or null to stop recording
+	 */
+	public void setRecorder(SensorRecorder recorder) {
+		this.recorder = recorder;
+	}
+
+	/**
+	 * @return timestamped history of angles and rates (sample[0] angle, sample[1] rate)
+	 */
+	public SampleRing getHistory() {
+		return history;
+	}
 	
 	/**
      * Closes the gyro sensor port.
      * Call this when the Rover has finished operation and is going to disconnect everything.
      */
     public void close() {
-    	gyroSensor.close();
+    	if (gyroSensor != null) {
+    		gyroSensor.close();
+    	}
     }	
 }
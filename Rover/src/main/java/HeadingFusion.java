@@ -0,0 +1,13 @@
+/*
+* HeadingFusion.java
+*
+* A HeadingFusion enum that contains the ways the pose provider can work out the rover's heading:
+* odometry - heading from wheel odometry only
+* complementary - fixed blend of gyro and wheel odometry
+* kalman - blend of gyro and wheel odometry weighted by how much each can be trusted
+*
+* Authors: SEP UG02
+*/
+public enum HeadingFusion {
+	odometry, complementary, kalman
+}
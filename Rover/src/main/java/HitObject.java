@@ -22,7 +22,7 @@ class HitObject implements Behavior {
      * @return true if either or both touch sensors have been pressed.
      */
     private boolean checkCollision() {
-        return rover.bumperPressed();
+        return rover.getSnapshot().bumperPressed();
     }
 
     /**
@@ -0,0 +1,603 @@
+/*
+ * IncrementalPlanner.java
+ *
+ * D* Lite planner over the cells of a NGZGrid. The search runs back from the goal and is kept
+ * between plans, so when NGZs are added or removed, or the rover moves on along its route,
+ * only the costs the change actually affects are repaired instead of planning from scratch.
+ * Cells, costs and smoothing are the same as PathPlanner's. The planner listens to the grid;
+ * changes are queued as they happen and applied on the next plan, and a change near the
+ * route being followed is flagged so the rover can stop and replan. A change near the goal can
+ * alter most costs, so a repair that grows too large is abandoned for a plan from scratch.
+ * Search state takes 25 bytes a cell: about 6MB for the rover's starting 500x500 grid, and
+ * 10MB once the grid has grown to its 628x640 limit.
+ *
+ * Authors: SEP UG02
+ */
+
+import java.util.Arrays;
+
+public class IncrementalPlanner extends GridPlanner implements NGZListener {
+
+	private static final float INFINITY = Float.POSITIVE_INFINITY;
+
+	// Keys within this of the start's are treated as ties and expanded, as rounding in float
+	// costs can otherwise leave a cell on the cheapest path out of date
+	private static final float TIE_TOLERANCE = 0.01f;
+
+	// Most changes queued between plans; past this it is cheaper to start again
+	private static final int MAX_PENDING = 1024;
+
+	// Whether a cell is known to be usable; looked up when first needed and forgotten when
+	// a NGZ within the rover's clearance of it changes
+	private static final byte UNKNOWN = 0, FREE = 1, BLOCKED = 2;
+	private byte[] usable = new byte[0];
+
+	// Cost of the cheapest path from each cell to the goal, and its one step lookahead
+	private float[] g = new float[0];
+	private float[] rhs = new float[0];
+
+	// Priority queue of cells whose cost and lookahead differ, keyed by [key1; key2];
+	// heapIndex is each cell's position in the heap plus one, or 0 if it isn't queued
+	private int[] heap = new int[0];
+	private int[] heapIndex = new int[0];
+	private float[] key1 = new float[0];
+	private float[] key2 = new float[0];
+	private int heapSize = 0;
+
+	// Cells being planned between, or -1 when there is no search to repair
+	private int start = -1;
+	private int goal = -1;
+
+	// Last goal planned to, which stays valid when the grid grows and the search is dropped
+	private boolean hasGoal = false;
+	private double goalX;
+	private double goalY;
+
+	// Start cell when the keys were last adjusted, and the total adjustment for moving start
+	private int last;
+	private float km;
+
+	// Rectangles of cells changed since the last plan, 4 ints each, guarded by the grid's lock
+	private int[] pending = new int[64];
+	private int pendingCount = 0;
+	private boolean resized = false;
+
+	// Cells of the route last returned, guarded by the grid's lock
+	private int[] route = new int[256];
+	private int routeLength = 0;
+	private volatile boolean routeChanged = false;
+
+	// Cells expanded by the last plan from scratch, which limits what a repair may expand
+	private int fullExpanded = 0;
+
+	// Cost of the last plan
+	private int expanded = 0;
+	private int changedCells = 0;
+	private long planTime = 0;
+
+	/**
+	 * Constructor. The planner must be added to the grid's listeners to see changes.
+	 *
+	 * @param grid - NGZs to plan around
+	 * @param trackWidth - width of the rover in mm
+	 */
+	public IncrementalPlanner(NGZGrid grid, double trackWidth) {
+		super(grid, trackWidth);
+	}
+
+	/**
+	 * Plans a path around the NGZ in front of the rover, to the first point along its heading
+	 * beyond it. If the rover is already inside the NGZ, the path first leaves it the shortest way.
+	 *
+	 * @param x - x position of the rover
+	 * @param y - y position of the rover
+	 * @param heading - heading of the rover in degrees
+	 * @return x, y pairs of the waypoints to drive to, or null if there is no way past
+	 */
+	public synchronized float[] detour(double x, double y, double heading) {
+		synchronized (grid) {
+			prepare();
+			// The exit must be found with the NGZs as they are now, not as last looked up
+			applyChanges();
+			return findExit(x, y, heading) ? search(x, y, exitX, exitY) : null;
+		}
+	}
+
+	/**
+	 * Plans a path between two points, reusing the last search if the goal is the same.
+	 *
+	 * @return x, y pairs of the waypoints to drive to after the start, or null if the goal
+	 *         can't be reached
+	 */
+	public synchronized float[] plan(double start_x, double start_y, double goal_x, double goal_y) {
+		synchronized (grid) {
+			prepare();
+			return search(start_x, start_y, goal_x, goal_y);
+		}
+	}
+
+	/**
+	 * Plans again from a new position to the last goal, repairing the search for any NGZs
+	 * changed since, or planning from scratch if the grid has grown.
+	 *
+	 * @return x, y pairs of the waypoints to drive to, or null if there is no goal or it
+	 *         can't be reached
+	 */
+	public synchronized float[] replan(double x, double y) {
+		synchronized (grid) {
+			prepare();
+			return hasGoal ? search(x, y, goalX, goalY) : null;
+		}
+	}
+
+	/**
+	 * @return true if a NGZ has changed near the route last returned since it was planned
+	 */
+	public boolean routeChanged() {
+		return routeChanged;
+	}
+
+	/**
+	 * @return number of cells expanded by the last plan
+	 */
+	public synchronized int getExpandedCount() {
+		return expanded;
+	}
+
+	/**
+	 * @return number of cells whose clearance changed and had their costs repaired by the last plan
+	 */
+	public synchronized int getChangedCellCount() {
+		return changedCells;
+	}
+
+	/**
+	 * @return time the last plan took, including repairs, in ns
+	 */
+	public synchronized long getPlanTime() {
+		return planTime;
+	}
+
+	/**
+	 * Queues a change to be repaired on the next plan, and flags the route if it passes
+	 * within the rover's clearance of the change.
+	 */
+	public void ngzChanged(int min_x, int min_y, int max_x, int max_y, boolean resized) {
+		if (resized || pendingCount == MAX_PENDING * 4) {
+			this.resized = true;
+			routeChanged = routeLength > 0;
+			return;
+		}
+		if (pendingCount == pending.length) {
+			pending = Arrays.copyOf(pending, pendingCount * 2);
+		}
+		pending[pendingCount++] = min_x - radius;
+		pending[pendingCount++] = min_y - radius;
+		pending[pendingCount++] = max_x + radius;
+		pending[pendingCount++] = max_y + radius;
+		for (int i = 0; i < routeLength; i++) {
+			int x = route[i] % width;
+			int y = route[i] / width;
+			if (x >= min_x - radius && x <= max_x + radius && y >= min_y - radius && y <= max_y + radius) {
+				routeChanged = true;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Makes the search state fit the grid, starting again if the grid has grown.
+	 */
+	private void prepare() {
+		if (grid.getWidth() != width || grid.getHeight() != height || resized) {
+			width = grid.getWidth();
+			height = grid.getHeight();
+			int size = width * height;
+			if (usable.length != size) {
+				usable = new byte[size];
+				g = new float[size];
+				rhs = new float[size];
+				heap = new int[size];
+				heapIndex = new int[size];
+				key1 = new float[size];
+				key2 = new float[size];
+			}
+			else {
+				Arrays.fill(usable, UNKNOWN);
+			}
+			resized = false;
+			pendingCount = 0;
+			routeLength = 0;
+			goal = -1;
+		}
+	}
+
+	private float[] search(double start_x, double start_y, double goal_x, double goal_y) {
+		long begin = System.nanoTime();
+		expanded = 0;
+		changedCells = 0;
+		routeLength = 0;
+		routeChanged = false;
+		int sx = grid.toCellX(start_x);
+		int sy = grid.toCellY(start_y);
+		int gx = grid.toCellX(goal_x);
+		int gy = grid.toCellY(goal_y);
+		hasGoal = true;
+		goalX = goal_x;
+		goalY = goal_y;
+		if (!inGrid(sx, sy) || !inGrid(gx, gy)) {
+			// Changes can't be repaired without a search, so the next plan starts again
+			forgetChanges();
+			goal = -1;
+			return null;
+		}
+		int newStart = sx + sy * width;
+		int newGoal = gx + gy * width;
+
+		boolean repairing = (newGoal == goal);
+		if (!repairing) {
+			// A new goal invalidates every cost; clearances stay valid once changes are applied
+			forgetChanges();
+			initialise(newStart, newGoal);
+		}
+		else {
+			repairChanges();
+			if (newStart != start) {
+				km += heuristic(last % width, last / width, sx, sy);
+				last = newStart;
+				start = newStart;
+			}
+		}
+
+		float[] path = null;
+		if (isFree(goal)) {
+			if (!repairing) {
+				computeShortestPath(Integer.MAX_VALUE);
+				fullExpanded = expanded;
+			}
+			else if (!computeShortestPath(fullExpanded / 2)) {
+				// A change near the goal alters the cost of most cells; once a repair has
+				// expanded half as many as a plan from scratch, starting again is cheaper
+				int repaired = expanded;
+				initialise(start, goal);
+				computeShortestPath(Integer.MAX_VALUE);
+				fullExpanded = expanded - repaired;
+			}
+			path = path();
+		}
+		planTime = System.nanoTime() - begin;
+		return path;
+	}
+
+	private void initialise(int newStart, int newGoal) {
+		Arrays.fill(g, INFINITY);
+		Arrays.fill(rhs, INFINITY);
+		Arrays.fill(heapIndex, 0);
+		heapSize = 0;
+		start = newStart;
+		goal = newGoal;
+		last = newStart;
+		km = 0;
+		rhs[goal] = 0;
+		insert(goal, heuristic(goal % width, goal / width, start % width, start / width), 0);
+	}
+
+	/**
+	 * Brings the clearance of every cell near a change up to date, repairing the search if
+	 * there is one to repair.
+	 */
+	private void applyChanges() {
+		if (goal == -1) {
+			forgetChanges();
+		}
+		else {
+			repairChanges();
+		}
+	}
+
+	/**
+	 * Forgets the clearance of every cell near a change, without repairing any costs.
+	 */
+	private void forgetChanges() {
+		for (int p = 0; p < pendingCount; p += 4) {
+			int min_x = Math.max(pending[p], 0);
+			int min_y = Math.max(pending[p + 1], 0);
+			int max_x = Math.min(pending[p + 2], width - 1);
+			int max_y = Math.min(pending[p + 3], height - 1);
+			for (int y = min_y; y <= max_y; y++) {
+				Arrays.fill(usable, min_x + y * width, max_x + 1 + y * width, UNKNOWN);
+			}
+		}
+		pendingCount = 0;
+	}
+
+	/**
+	 * Looks the clearance of every cell near a change up again. Where it differs, the edges
+	 * into, out of and cutting past the cell have changed, so the lookahead of the cell and
+	 * its neighbours is worked out again. Cells never looked at can't have affected any cost.
+	 */
+	private void repairChanges() {
+		for (int p = 0; p < pendingCount; p += 4) {
+			int min_x = Math.max(pending[p], 0);
+			int min_y = Math.max(pending[p + 1], 0);
+			int max_x = Math.min(pending[p + 2], width - 1);
+			int max_y = Math.min(pending[p + 3], height - 1);
+			for (int y = min_y; y <= max_y; y++) {
+				for (int x = min_x; x <= max_x; x++) {
+					int cell = x + y * width;
+					byte old = usable[cell];
+					if (old == UNKNOWN) {
+						continue;
+					}
+					usable[cell] = UNKNOWN;
+					if (isFree(cell) == (old == FREE)) {
+						continue;
+					}
+					changedCells++;
+					updateLookahead(x, y);
+					for (int i = 0; i < DX.length; i++) {
+						if (inGrid(x + DX[i], y + DY[i])) {
+							updateLookahead(x + DX[i], y + DY[i]);
+						}
+					}
+				}
+			}
+		}
+		pendingCount = 0;
+	}
+
+	/**
+	 * Expands cells until the cost of start is known, or the limit has been reached.
+	 *
+	 * @return false if the search stopped at the limit
+	 */
+	private boolean computeShortestPath(int limit) {
+		int sx = start % width;
+		int sy = start / width;
+		for (int n = 0; heapSize > 0; n++) {
+			if (n == limit) {
+				return false;
+			}
+			int u = heap[0];
+			float startKey = Math.min(g[start], rhs[start]);
+			if (key1[u] > startKey + km + TIE_TOLERANCE && rhs[start] <= g[start]) {
+				return true;
+			}
+			expanded++;
+			int ux = u % width;
+			int uy = u / width;
+			float k = Math.min(g[u], rhs[u]);
+			float newKey1 = k + heuristic(ux, uy, sx, sy) + km;
+			if (less(key1[u], key2[u], newKey1, k)) {
+				update(u, newKey1, k);
+			}
+			else if (g[u] > rhs[u]) {
+				g[u] = rhs[u];
+				remove(u);
+				for (int i = 0; i < DX.length; i++) {
+					int px = ux - DX[i];
+					int py = uy - DY[i];
+					if (!inGrid(px, py)) {
+						continue;
+					}
+					int s = px + py * width;
+					if (s != goal) {
+						rhs[s] = Math.min(rhs[s], cost(px, py, i) + g[u]);
+						updateVertex(s);
+					}
+				}
+			}
+			else {
+				float old = g[u];
+				g[u] = INFINITY;
+				for (int i = 0; i < DX.length; i++) {
+					int px = ux - DX[i];
+					int py = uy - DY[i];
+					if (!inGrid(px, py)) {
+						continue;
+					}
+					int s = px + py * width;
+					if (s != goal && rhs[s] == cost(px, py, i) + old) {
+						rhs[s] = lookahead(px, py);
+					}
+					updateVertex(s);
+				}
+				if (u != goal) {
+					rhs[u] = lookahead(ux, uy);
+				}
+				updateVertex(u);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Follows the cheapest costs from start to goal and smooths the path they make.
+	 */
+	private float[] path() {
+		if (g[start] == INFINITY && rhs[start] == INFINITY) {
+			return null;
+		}
+		cellCount = 0;
+		int cell = start;
+		addCell(cell);
+		for (int n = width * height; cell != goal && n > 0; n--) {
+			int x = cell % width;
+			int y = cell / width;
+			int best = -1;
+			float bestCost = INFINITY;
+			for (int i = 0; i < DX.length; i++) {
+				float c = cost(x, y, i);
+				if (c == INFINITY) {
+					continue;
+				}
+				int next = x + DX[i] + (y + DY[i]) * width;
+				if (c + g[next] < bestCost) {
+					bestCost = c + g[next];
+					best = next;
+				}
+			}
+			if (best == -1) {
+				return null;
+			}
+			cell = best;
+			addCell(cell);
+		}
+		if (cell != goal) {
+			return null;
+		}
+
+		if (route.length < cellCount) {
+			route = new int[cells.length];
+		}
+		System.arraycopy(cells, 0, route, 0, cellCount);
+		routeLength = cellCount;
+		return smoothPath(goalX, goalY);
+	}
+
+	/**
+	 * Works out the lookahead of a cell again after the edges around it changed.
+	 */
+	private void updateLookahead(int x, int y) {
+		int cell = x + y * width;
+		if (cell != goal) {
+			rhs[cell] = lookahead(x, y);
+		}
+		updateVertex(cell);
+	}
+
+	/**
+	 * @return cost of the cheapest step to a neighbour and on to the goal from there
+	 */
+	private float lookahead(int x, int y) {
+		float best = INFINITY;
+		for (int i = 0; i < DX.length; i++) {
+			float c = cost(x, y, i);
+			if (c != INFINITY) {
+				best = Math.min(best, c + g[x + DX[i] + (y + DY[i]) * width]);
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @return cost of stepping from a cell to its neighbour in direction i, with the same
+	 *         rules as PathPlanner: blocked cells can only be crossed while leaving a NGZ,
+	 *         at extra cost, and diagonal steps mustn't cut a blocked corner
+	 */
+	private float cost(int x, int y, int i) {
+		int nx = x + DX[i];
+		int ny = y + DY[i];
+		if (!inGrid(nx, ny)) {
+			return INFINITY;
+		}
+		int next = nx + ny * width;
+		boolean escaping = !isFree(x + y * width);
+		if (!escaping) {
+			if (!isFree(next)) {
+				return INFINITY;
+			}
+			if (i >= 4 && (!isFree(nx + y * width) || !isFree(x + ny * width))) {
+				return INFINITY;
+			}
+		}
+		float step = (i >= 4) ? DIAGONAL : 1;
+		return isFree(next) ? step : step * BLOCKED_COST;
+	}
+
+	protected boolean isFree(int cell) {
+		if (usable[cell] == UNKNOWN) {
+			usable[cell] = clearance(cell) ? FREE : BLOCKED;
+		}
+		return usable[cell] == FREE;
+	}
+
+	private void updateVertex(int cell) {
+		if (g[cell] != rhs[cell]) {
+			float k = Math.min(g[cell], rhs[cell]);
+			float k1 = k + heuristic(cell % width, cell / width, start % width, start / width) + km;
+			if (heapIndex[cell] != 0) {
+				update(cell, k1, k);
+			}
+			else {
+				insert(cell, k1, k);
+			}
+		}
+		else if (heapIndex[cell] != 0) {
+			remove(cell);
+		}
+	}
+
+	private static boolean less(float a1, float a2, float b1, float b2) {
+		return a1 < b1 || (a1 == b1 && a2 < b2);
+	}
+
+	private boolean less(int a, int b) {
+		return less(key1[a], key2[a], key1[b], key2[b]);
+	}
+
+	private void insert(int cell, float k1, float k2) {
+		key1[cell] = k1;
+		key2[cell] = k2;
+		heap[heapSize] = cell;
+		heapIndex[cell] = heapSize + 1;
+		heapSize++;
+		siftUp(heapSize - 1);
+	}
+
+	private void update(int cell, float k1, float k2) {
+		key1[cell] = k1;
+		key2[cell] = k2;
+		int i = heapIndex[cell] - 1;
+		siftUp(i);
+		siftDown(heapIndex[cell] - 1);
+	}
+
+	private void remove(int cell) {
+		int i = heapIndex[cell] - 1;
+		heapIndex[cell] = 0;
+		int moved = heap[--heapSize];
+		if (i < heapSize) {
+			heap[i] = moved;
+			heapIndex[moved] = i + 1;
+			siftUp(i);
+			siftDown(heapIndex[moved] - 1);
+		}
+	}
+
+	private void siftUp(int i) {
+		int cell = heap[i];
+		while (i > 0) {
+			int up = (i - 1) >>> 1;
+			if (!less(cell, heap[up])) {
+				break;
+			}
+			heap[i] = heap[up];
+			heapIndex[heap[i]] = i + 1;
+			i = up;
+		}
+		heap[i] = cell;
+		heapIndex[cell] = i + 1;
+	}
+
+	private void siftDown(int i) {
+		int cell = heap[i];
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= heapSize) {
+				break;
+			}
+			if (child + 1 < heapSize && less(heap[child + 1], heap[child])) {
+				child++;
+			}
+			if (!less(heap[child], cell)) {
+				break;
+			}
+			heap[i] = heap[child];
+			heapIndex[heap[i]] = i + 1;
+			i = child;
+		}
+		heap[i] = cell;
+		heapIndex[cell] = i + 1;
+	}
+}
@@ -0,0 +1,180 @@
+/*
+ * LcdRenderer.java
+ *
+ * Low priority thread that shows the latest sensor snapshot on the EV3 LCD a few times a second.
+ * Values are formatted into reused char buffers and only the characters that changed since the
+ * last refresh are redrawn.
+ *
+ * Authors: SEP UG02
+ */
+import java.util.Arrays;
+
+import lejos.hardware.ev3.LocalEV3;
+import lejos.hardware.lcd.LCD;
+import lejos.hardware.lcd.TextLCD;
+
+public class LcdRenderer extends Thread {
+
+	// Fields shown on screen
+	private static final int COLOUR = 0, ORIENTATION = 1, RATE = 2, DISTANCE = 3, BUMPER = 4, X = 5, Y = 6;
+
+	// Column, row and width in characters of each field
+	private static final int[][] layout = {
+		{8, 2, 5},
+		{6, 3, 6},
+		{12, 3, 5},
+		{12, 4, 6},
+		{8, 5, 5},
+		{3, 6, 10},
+		{3, 7, 10},
+	};
+
+	private static final char[] trueText = "true".toCharArray();
+	private static final char[] falseText = "false".toCharArray();
+
+	private final Rover rover;
+	private final long period;
+
+	// Characters currently on screen for each field, and the field being formatted
+	private final char[][] shown = new char[layout.length][];
+	private final char[] text = new char[16];
+	private int length;
+
+	/**
+	 * Constructor
+	 *
+	 * @param rover - rover whose snapshots are shown
+	 * @param rate - refresh rate in Hz
+	 */
+	LcdRenderer(Rover rover, int rate) {
+		setName("LcdRenderer");
+		setPriority(Thread.MIN_PRIORITY);
+		this.rover = rover;
+		this.period = 1000 / Math.max(1, rate);
+		for (int i = 0; i < layout.length; i++) {
+			shown[i] = new char[layout[i][2]];
+		}
+	}
+
+	/**
+	 * Draws the titles, then redraws changed values at the refresh rate.
+	 */
+	public void run() {
+		TextLCD t = LocalEV3.get().getTextLCD();
+		LCD.setAutoRefresh(false);
+
+		// Draw sensor titles.
+		t.drawString("Sensors", 5, 0);
+		t.drawString("Colour:", 0, 2);
+		t.drawString("Gyro:", 0, 3);
+		t.drawString("Ultrasonic:", 0, 4);
+		t.drawString("Bumper:", 0, 5);
+		t.drawString("X:", 0, 6);
+		t.drawString("Y:", 0, 7);
+		for (int i = 0; i < layout.length; i++) {
+			Arrays.fill(shown[i], ' ');
+		}
+
+		while (true) {
+			SensorSnapshot snapshot = rover.getSnapshot();
+			boolean changed = false;
+
+			formatInt(snapshot.getColourID());
+			changed |= draw(t, COLOUR);
+			formatFixed(snapshot.getOrientation());
+			changed |= draw(t, ORIENTATION);
+			formatInt(snapshot.getRotationRate());
+			changed |= draw(t, RATE);
+			formatInt(snapshot.getObstacleDistance());
+			changed |= draw(t, DISTANCE);
+			formatBoolean(snapshot.bumperPressed());
+			changed |= draw(t, BUMPER);
+			formatFixed(snapshot.getXPos());
+			changed |= draw(t, X);
+			formatFixed(snapshot.getYPos());
+			changed |= draw(t, Y);
+
+			if (changed) {
+				LCD.refresh();
+			}
+
+			try {
+				Thread.sleep(period);
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Draws the characters of the formatted field that differ from what is on screen,
+	 * padding with spaces and cutting it off at the field width.
+	 *
+	 * @return true if anything was drawn
+	 */
+	private boolean draw(TextLCD t, int field) {
+		char[] current = shown[field];
+		int x = layout[field][0];
+		int y = layout[field][1];
+		boolean changed = false;
+		for (int i = 0; i < current.length; i++) {
+			char c = (i < length) ? text[i] : ' ';
+			if (current[i] != c) {
+				t.drawChar(c, x + i, y);
+				current[i] = c;
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	private void formatBoolean(boolean value) {
+		char[] word = value ? trueText : falseText;
+		System.arraycopy(word, 0, text, 0, word.length);
+		length = word.length;
+	}
+
+	private void formatInt(int value) {
+		length = 0;
+		appendInt(value);
+	}
+
+	/**
+	 * Formats a value to one decimal place.
+	 */
+	private void formatFixed(double value) {
+		length = 0;
+		long tenths = Math.round(value * 10);
+		if (tenths < 0) {
+			append('-');
+			tenths = -tenths;
+		}
+		appendInt(tenths / 10);
+		append('.');
+		append((char)('0' + tenths % 10));
+	}
+
+	private void appendInt(long value) {
+		if (value < 0) {
+			append('-');
+			value = -value;
+		}
+		int start = length;
+		do {
+			append((char)('0' + value % 10));
+			value /= 10;
+		} while (value != 0);
+		// Digits were appended least significant first
+		for (int i = start, j = length - 1; i < j; i++, j--) {
+			char c = text[i];
+			text[i] = text[j];
+			text[j] = c;
+		}
+	}
+
+	private void append(char c) {
+		if (length < text.length) {
+			text[length++] = c;
+		}
+	}
+}
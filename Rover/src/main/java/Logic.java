@@ -42,7 +42,11 @@ public class Logic {
 		Behavior[] behaviorList = {sweepSearch, avoidCrater, avoidPhysicalObject, avoidNGZ,  radiation, collisions, manual}; 
 		Arbitrator arbitrator = new Arbitrator(behaviorList);
 		
-		while (rover.getObstacleDistance() < 10) {}
+		// Wait for the obstacle in front of the ultrasonic sensor to be removed before starting
+		SensorEventPredicate started = rover.getEventBus().distanceAbove(10);
+		for (long seq = rover.getEventSequence(); rover.getObstacleDistance() < 10; seq = rover.getEventSequence()) {
+			rover.awaitEvent(started, seq, 100);
+		}
 		arbitrator.go();
 		
 	}
@@ -0,0 +1,70 @@
+/*
+ * MedianFilter.java
+ *
+ * Filter stage that outputs the median of the last N samples, removing single noisy readings.
+ *
+ * Authors: SEP UG02
+ */
+public class MedianFilter implements SampleFilter {
+
+	// Samples in arrival order, as a circular buffer
+	private float[] window;
+	// The same samples kept in sorted order
+	private float[] sorted;
+	private int next;
+	private int count;
+
+	/**
+	 * Constructor
+	 *
+	 * @param size - number of samples to take the median of
+	 */
+	public MedianFilter(int size) {
+		if (size < 1)
+			throw new IllegalArgumentException("size must be positive");
+		window = new float[size];
+		sorted = new float[size];
+	}
+
+	public float filter(float sample) {
+		if (Float.isNaN(sample) || Float.isInfinite(sample)) {
+			// A non-finite sample can't be found again to remove it, so repeat the newest one instead
+			if (count == 0) {
+				return sample;
+			}
+			sample = window[(next + window.length - 1) % window.length];
+		}
+		if (count == window.length) {
+			// Remove the oldest sample from the sorted window
+			remove(window[next]);
+		} else {
+			count++;
+		}
+		window[next] = sample;
+		next = (next + 1) % window.length;
+		insert(sample);
+		return sorted[count / 2];
+	}
+
+	public void reset() {
+		next = 0;
+		count = 0;
+	}
+
+	private void remove(float value) {
+		int i = 0;
+		while (i < count - 1 && sorted[i] != value) {
+			i++;
+		}
+		System.arraycopy(sorted, i + 1, sorted, i, count - 1 - i);
+	}
+
+	private void insert(float value) {
+		int i = count - 1;
+		while (i > 0 && sorted[i - 1] > value) {
+			sorted[i] = sorted[i - 1];
+			i--;
+		}
+		sorted[i] = value;
+	}
+}
@@ -0,0 +1,74 @@
+/*
+ * NGZAreaTable.java
+ *
+ * Summed-area table over the cells of a NGZGrid: each entry holds the number of NGZ cells above
+ * and to the left of it, so the NGZ cells in any rectangle are counted with four lookups.
+ * After a change only the entries below and to the right of the changed cells are rebuilt.
+ *
+ * Authors: SEP UG02
+ */
+
+public class NGZAreaTable {
+
+	private final int width;
+	private final int height;
+
+	// sums[y * stride + x] is the number of NGZ cells in columns 0..x-1 of rows 0..y-1
+	private final int stride;
+	private final int[] sums;
+
+	/**
+	 * Constructor
+	 *
+	 * @param width - width of the grid in cells
+	 * @param height - height of the grid in cells
+	 */
+	NGZAreaTable(int width, int height) {
+		this.width = width;
+		this.height = height;
+		this.stride = width + 1;
+		this.sums = new int[stride * (height + 1)];
+	}
+
+	/**
+	 * Recounts every entry that depends on cells at or beyond a column and row.
+	 *
+	 * @param cells - NGZ bits, 64 cells to a word along each row
+	 * @param wordsPerRow - words in each row of cells
+	 * @param fromX - leftmost column that changed
+	 * @param fromY - top row that changed
+	 */
+	void rebuild(long[] cells, int wordsPerRow, int fromX, int fromY) {
+		fromX = Math.max(0, Math.min(fromX, width));
+		fromY = Math.max(0, Math.min(fromY, height));
+		for (int y = fromY; y < height; y++) {
+			int above = y * stride;
+			int below = above + stride;
+			int row = y * wordsPerRow;
+			// Cells left of fromX haven't changed, so their count for this row can be reused
+			int running = sums[below + fromX] - sums[above + fromX];
+			for (int x = fromX; x < width; x++) {
+				running += (int)(cells[row + (x >>> 6)] >>> x) & 1;
+				sums[below + x + 1] = sums[above + x + 1] + running;
+			}
+		}
+	}
+
+	/**
+	 * Counts the NGZ cells in a rectangle, cut off at the edges of the grid.
+	 *
+	 * @return number of NGZ cells in columns minX..maxX of rows minY..maxY
+	 */
+	int count(int minX, int minY, int maxX, int maxY) {
+		minX = Math.max(minX, 0);
+		minY = Math.max(minY, 0);
+		maxX = Math.min(maxX, width - 1);
+		maxY = Math.min(maxY, height - 1);
+		if (minX > maxX || minY > maxY) {
+			return 0;
+		}
+		int top = minY * stride;
+		int bottom = (maxY + 1) * stride;
+		return sums[bottom + maxX + 1] - sums[bottom + minX] - sums[top + maxX + 1] + sums[top + minX];
+	}
+}
@@ -0,0 +1,163 @@
+/*
+ * NGZDistanceField.java
+ *
+ * Exact Euclidean distance transform over the cells of a NGZGrid: each entry holds the nearest
+ * NGZ cell to a cell, so the clearance of any cell, and the direction away from the NGZ, is one
+ * lookup. The transform is separable; every column records its nearest NGZ row, and every row
+ * takes the lower envelope of the parabolas those columns make. After a change only the changed
+ * columns are scanned again, and only the rows where a column's nearest NGZ row moved.
+ * Entries are written one at a time, so they can be read without locking while a change is
+ * being made, each read seeing the nearest cell either before or after it.
+ *
+ * Authors: SEP UG02
+ */
+
+import java.util.Arrays;
+
+public class NGZDistanceField {
+
+	// Entry with no NGZ cell in reach
+	static final int NONE = -1;
+
+	private final int width;
+	private final int height;
+
+	// columnRow[y * width + x] is the row of the nearest NGZ cell in column x to row y
+	private final short[] columnRow;
+
+	// nearest[y * width + x] is the index of the nearest NGZ cell to cell (x, y)
+	private final int[] nearest;
+
+	// Scratch for a change: one column, the rows to redo, and the lower envelope of a row
+	private final int[] column;
+	private final boolean[] rowChanged;
+	private final int[] hull;
+	private final long[] hullHeight;
+	private final double[] hullStart;
+
+	/**
+	 * Constructor. The field starts with no NGZ cells.
+	 *
+	 * @param width - width of the grid in cells
+	 * @param height - height of the grid in cells
+	 */
+	NGZDistanceField(int width, int height) {
+		this.width = width;
+		this.height = height;
+		this.columnRow = new short[width * height];
+		this.nearest = new int[width * height];
+		Arrays.fill(columnRow, (short)NONE);
+		Arrays.fill(nearest, NONE);
+		this.column = new int[height];
+		this.rowChanged = new boolean[height];
+		this.hull = new int[width];
+		this.hullHeight = new long[width];
+		this.hullStart = new double[width];
+	}
+
+	/**
+	 * Works out the nearest NGZ cell again for every cell a change of columns can affect.
+	 *
+	 * @param cells - NGZ bits, 64 cells to a word along each row
+	 * @param wordsPerRow - words in each row of cells
+	 * @param minX - leftmost column that changed
+	 * @param maxX - rightmost column that changed
+	 */
+	void update(long[] cells, int wordsPerRow, int minX, int maxX) {
+		minX = Math.max(minX, 0);
+		maxX = Math.min(maxX, width - 1);
+		if (minX > maxX) {
+			return;
+		}
+		Arrays.fill(rowChanged, false);
+		for (int x = minX; x <= maxX; x++) {
+			updateColumn(cells, wordsPerRow, x);
+		}
+		for (int y = 0; y < height; y++) {
+			if (rowChanged[y]) {
+				updateRow(y);
+			}
+		}
+	}
+
+	/**
+	 * @return index (y * width + x) of the nearest NGZ cell to a cell, or NONE if there are none
+	 */
+	int nearest(int x, int y) {
+		return nearest[y * width + x];
+	}
+
+	/**
+	 * Finds the nearest NGZ row in a column for every row, from one pass down the column and
+	 * one back up, and marks the rows where it moved.
+	 */
+	private void updateColumn(long[] cells, int wordsPerRow, int x) {
+		int word = x >>> 6;
+		long bit = 1L << x;
+		int above = NONE;
+		for (int y = 0; y < height; y++) {
+			if ((cells[y * wordsPerRow + word] & bit) != 0) {
+				above = y;
+			}
+			column[y] = above;
+		}
+		int below = NONE;
+		for (int y = height - 1; y >= 0; y--) {
+			if ((cells[y * wordsPerRow + word] & bit) != 0) {
+				below = y;
+			}
+			int row = column[y];
+			if (below != NONE && (row == NONE || below - y < y - row)) {
+				row = below;
+			}
+			if (columnRow[y * width + x] != row) {
+				columnRow[y * width + x] = (short)row;
+				rowChanged[y] = true;
+			}
+		}
+	}
+
+	/**
+	 * Finds the nearest NGZ cell for every cell of a row. Each column with a NGZ cell gives a
+	 * parabola of the squared distance along the row; the lowest parabola over each cell
+	 * belongs to the column holding its nearest NGZ cell.
+	 */
+	private void updateRow(int y) {
+		int offset = y * width;
+		int k = -1;
+		for (int q = 0; q < width; q++) {
+			int row = columnRow[offset + q];
+			if (row == NONE) {
+				continue;
+			}
+			long h = (long)(y - row) * (y - row);
+			double start = Double.NEGATIVE_INFINITY;
+			while (k >= 0) {
+				int p = hull[k];
+				// Where the parabola of column q drops below the parabola of column p
+				start = ((h + (long)q * q) - (hullHeight[k] + (long)p * p)) / (2.0 * (q - p));
+				if (start > hullStart[k]) {
+					break;
+				}
+				k--;
+				start = Double.NEGATIVE_INFINITY;
+			}
+			k++;
+			hull[k] = q;
+			hullHeight[k] = h;
+			hullStart[k] = start;
+		}
+
+		if (k < 0) {
+			Arrays.fill(nearest, offset, offset + width, NONE);
+			return;
+		}
+		int j = 0;
+		for (int x = 0; x < width; x++) {
+			while (j < k && hullStart[j + 1] <= x) {
+				j++;
+			}
+			nearest[offset + x] = columnRow[offset + hull[j]] * width + hull[j];
+		}
+	}
+}
@@ -1,126 +1,408 @@
 /*
 * NGZGrid.java
 *
-* A grid of ngz points
-* 
+* A grid of ngz points, one bit per cell, packed 64 cells to a long along each row.
+* Rectangles are set and cleared a word at a time, positions outside the grid are never in a
+* NGZ, and the grid grows around its centre when a NGZ is added beyond its edge.
+* Changes are made by one thread at a time; point queries don't lock, so behaviours checking
+* positions are never held up by a NGZ being added. A summed-area table kept alongside the
+* cells answers whether a rectangle or a corridor along a segment touches any NGZ, a distance
+* field gives the clearance of any position and the direction away from the nearest NGZ in one
+* lookup, and listeners are told which cells each change touched.
+*
 * Authors: SEP UG02
 */
-import java.util.List;
-import java.util.ArrayList;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class NGZGrid {
-	private int width;
-	private int height;
-	private double scale; // cells per m
-	private double xoffset;
-	private double yoffset;
-	
-	private byte[][] grid;
-	
+
+	// Cells per word
+	private static final int WORD_BITS = 64;
+
+	// Largest width or height the grid may grow to by default, in cells; NGZs beyond it are
+	// cut off. Widths grow a word at a time, so from 500 cells this allows 628x640. The
+	// summed-area table and distance field take 8 bytes a cell, and the rover's
+	// IncrementalPlanner 25 more, so about 13MB at that size, plus the old tables while the
+	// grid grows; that leaves room in the EV3's 64MB
+	private static final int DEFAULT_MAX_SIZE = 640;
+
+	/*
+	 * Size and position of the grid with its cells. Replaced as a whole when the grid grows,
+	 * so a query always sees a size that matches the cells.
+	 */
+	private static class Layout {
+		final int width;
+		final int height;
+		final double xoffset;
+		final double yoffset;
+		// Cell (x, y) is bit x % 64 of cells[y * wordsPerRow + x / 64]
+		final int wordsPerRow;
+		final long[] cells;
+		// NGZ cell counts, only read or changed while holding the grid's lock
+		final NGZAreaTable area;
+		// Nearest NGZ cell to each cell, changed while holding the grid's lock but read without it
+		final NGZDistanceField distance;
+
+		Layout(int width, int height, double xoffset, double yoffset) {
+			this.width = width;
+			this.height = height;
+			this.xoffset = xoffset;
+			this.yoffset = yoffset;
+			this.wordsPerRow = width / WORD_BITS;
+			this.cells = new long[wordsPerRow * height];
+			this.area = new NGZAreaTable(width, height);
+			this.distance = new NGZDistanceField(width, height);
+		}
+	}
+
+	private final double scale; // mm per cell
+	private final int maxSize; // largest width or height the grid may grow to, in cells
+	private volatile Layout layout;
+
+	private final CopyOnWriteArrayList<NGZListener> listeners = new CopyOnWriteArrayList<NGZListener>();
+
 	public NGZGrid(int width, int height, double scale) {
-		
-		this.width = width;
-		this.height = height;
+		this(width, height, scale, DEFAULT_MAX_SIZE);
+	}
+
+	/*
+	 * @param maxSize: largest width or height the grid may grow to, in cells
+	 */
+	public NGZGrid(int width, int height, double scale, int maxSize) {
 		this.scale = scale;
-		this.xoffset = width/2;
-		this.yoffset = height/2;
-		
-		grid = new byte[height][width];
+		this.maxSize = maxSize;
+		this.layout = new Layout(roundUp(width), height, width/2, height/2);
 	}
-	
+
 	/*
 	 * Get whether position is in NGZ
-	 * 
+	 *
 	 * @param x: x coordinate
 	 * @param y: y coordinate
 	 */
 	public boolean inNGZ(double x, double y) {
-		int scaled_x = (int)Math.round((x/scale)+xoffset);
-		int scaled_y = (int)Math.round((y/scale)+yoffset);
-		//if(scaled_x < 0 || scaled_x >= width || scaled_y < 0 || scaled_y >= height) return false;
-		return (grid[scaled_x][scaled_y] == 1);		
+		Layout l = layout;
+		return get(l, cellX(l, x), cellY(l, y));
+	}
+
+	/*
+	 * Get whether a cell is in a NGZ. Cells outside the grid never are.
+	 *
+	 * @param cell_x: column of the cell
+	 * @param cell_y: row of the cell
+	 */
+	public boolean isSet(int cell_x, int cell_y) {
+		return get(layout, cell_x, cell_y);
 	}
-	
+
 	/*
 	 * Sends NGZ coordinates.
 	 */
-	public void addNGZ(double start_x, double start_y, double end_x, double end_y) {
-		int scaled_start_x = (int)Math.round((start_x/scale)+xoffset);
-		int scaled_start_y = (int)Math.round((start_y/scale)+yoffset);
-		int scaled_end_x = (int)Math.round((end_x/scale)+xoffset);
-		int scaled_end_y = (int)Math.round((end_y/scale)+yoffset);
-		for(int x = scaled_start_x; x <= scaled_end_x; x++) {
-			for(int y = scaled_start_y; y <= scaled_end_y; y++) {
-				grid[x][y] = 1;
-			}
-		}
+	public synchronized void addNGZ(double start_x, double start_y, double end_x, double end_y) {
+		double low_x = Math.min(start_x, end_x);
+		double low_y = Math.min(start_y, end_y);
+		double high_x = Math.max(start_x, end_x);
+		double high_y = Math.max(start_y, end_y);
+		Layout l = layout;
+		growToFit(cellX(l, low_x), cellY(l, low_y), cellX(l, high_x), cellY(l, high_y));
+		boolean resized = l != layout;
+		l = layout;
+		int min_x = cellX(l, low_x);
+		int min_y = cellY(l, low_y);
+		int max_x = cellX(l, high_x);
+		int max_y = cellY(l, high_y);
+		fill(l, min_x, min_y, max_x, max_y, true);
+		l.area.rebuild(l.cells, l.wordsPerRow, min_x, min_y);
+		l.distance.update(l.cells, l.wordsPerRow, min_x, max_x);
+		notifyListeners(min_x, min_y, max_x, max_y, resized);
 	}
-	
+
 	/*
 	 * Sends NGZ coordinates.
 	 */
-	public void removeNGZ(double start_x, double start_y, double end_x, double end_y) {
-		int scaled_start_x = (int)Math.round((start_x/scale)+xoffset);
-		int scaled_start_y = (int)Math.round((start_y/scale)+yoffset);
-		int scaled_end_x = (int)Math.round((end_x/scale)+xoffset);
-		int scaled_end_y = (int)Math.round((end_y/scale)+yoffset);
-		for(int x = scaled_start_x; x <= scaled_end_x; x++) {
-			for(int y = scaled_start_y; y <= scaled_end_y; y++) {
-				grid[x][y] = 0;
+	public synchronized void removeNGZ(double start_x, double start_y, double end_x, double end_y) {
+		Layout l = layout;
+		int min_x = cellX(l, Math.min(start_x, end_x));
+		int min_y = cellY(l, Math.min(start_y, end_y));
+		int max_x = cellX(l, Math.max(start_x, end_x));
+		int max_y = cellY(l, Math.max(start_y, end_y));
+		fill(l, min_x, min_y, max_x, max_y, false);
+		l.area.rebuild(l.cells, l.wordsPerRow, min_x, min_y);
+		l.distance.update(l.cells, l.wordsPerRow, min_x, max_x);
+		notifyListeners(min_x, min_y, max_x, max_y, false);
+	}
+
+	/*
+	 * Register to be told about every NGZ added or removed
+	 */
+	public void addListener(NGZListener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(NGZListener listener) {
+		listeners.remove(listener);
+	}
+
+	/*
+	 * Count the NGZ cells in a rectangle of cells, cut off at the edges of the grid.
+	 *
+	 * @param min_x, min_y: first column and row
+	 * @param max_x, max_y: last column and row
+	 */
+	public synchronized int countCells(int min_x, int min_y, int max_x, int max_y) {
+		return layout.area.count(min_x, min_y, max_x, max_y);
+	}
+
+	/*
+	 * Count the NGZ cells in a rectangle. Corners may be given in any order.
+	 */
+	public synchronized int countNGZ(double start_x, double start_y, double end_x, double end_y) {
+		Layout l = layout;
+		return l.area.count(cellX(l, Math.min(start_x, end_x)), cellY(l, Math.min(start_y, end_y)),
+				cellX(l, Math.max(start_x, end_x)), cellY(l, Math.max(start_y, end_y)));
+	}
+
+	/*
+	 * Get whether a rover of the given width can drive straight between two points without
+	 * touching a NGZ. The corridor is covered by boxes no longer than they are wide, each
+	 * checked with one table lookup, so the answer errs on the side of blocked near corners.
+	 *
+	 * @param width: width of the corridor in mm
+	 */
+	public synchronized boolean corridorClear(double from_x, double from_y, double to_x, double to_y, double width) {
+		Layout l = layout;
+		double half = width / 2;
+		double dx = to_x - from_x;
+		double dy = to_y - from_y;
+		int pieces = Math.max(1, (int)Math.ceil(Math.sqrt(dx * dx + dy * dy) / Math.max(width, scale)));
+		double x = from_x;
+		double y = from_y;
+		for (int i = 1; i <= pieces; i++) {
+			double next_x = from_x + dx * i / pieces;
+			double next_y = from_y + dy * i / pieces;
+			if (l.area.count(cellX(l, Math.min(x, next_x) - half), cellY(l, Math.min(y, next_y) - half),
+					cellX(l, Math.max(x, next_x) + half), cellY(l, Math.max(y, next_y) + half)) > 0) {
+				return false;
 			}
+			x = next_x;
+			y = next_y;
+		}
+		return true;
+	}
+
+	/*
+	 * Get the distance from a position to the edge of the nearest NGZ cell. The nearest cell is
+	 * found for the cell holding the position, so the distance is exact to within a cell.
+	 * Positions outside the grid are measured to the NGZ nearest the closest edge cell.
+	 *
+	 * @return distance in mm, 0 inside a NGZ, or infinity if there are no NGZs
+	 */
+	public double clearance(double x, double y) {
+		Layout l = layout;
+		int cell_x = clamp(cellX(l, x), l.width);
+		int cell_y = clamp(cellY(l, y), l.height);
+		int nearest = l.distance.nearest(cell_x, cell_y);
+		if (nearest == NGZDistanceField.NONE) {
+			return Double.POSITIVE_INFINITY;
+		}
+		if (nearest == cell_y * l.width + cell_x) {
+			return 0;
+		}
+		double dx = x - (nearest % l.width - l.xoffset) * scale;
+		double dy = y - (nearest / l.width - l.yoffset) * scale;
+		return Math.max(0, Math.sqrt(dx * dx + dy * dy) - scale / 2);
+	}
+
+	/*
+	 * Get the direction the clearance of a position grows fastest in, straight away from the
+	 * nearest NGZ cell.
+	 *
+	 * @param gradient: receives the unit x, y vector, or 0, 0 inside a NGZ or if there are no NGZs
+	 */
+	public void clearanceGradient(double x, double y, double[] gradient) {
+		Layout l = layout;
+		int cell_x = clamp(cellX(l, x), l.width);
+		int cell_y = clamp(cellY(l, y), l.height);
+		int nearest = l.distance.nearest(cell_x, cell_y);
+		gradient[0] = 0;
+		gradient[1] = 0;
+		if (nearest == NGZDistanceField.NONE || nearest == cell_y * l.width + cell_x) {
+			return;
+		}
+		double dx = x - (nearest % l.width - l.xoffset) * scale;
+		double dy = y - (nearest / l.width - l.yoffset) * scale;
+		double length = Math.sqrt(dx * dx + dy * dy);
+		if (length > 0) {
+			gradient[0] = dx / length;
+			gradient[1] = dy / length;
+		}
+	}
+
+	/*
+	 * Get the squared distance between the centre of a cell and the centre of the nearest NGZ
+	 * cell. Cells outside the grid are measured from the closest edge cell.
+	 *
+	 * @param cell_x: column of the cell
+	 * @param cell_y: row of the cell
+	 * @return squared distance in cells, or Integer.MAX_VALUE if there are no NGZs
+	 */
+	public int cellClearanceSquared(int cell_x, int cell_y) {
+		Layout l = layout;
+		cell_x = clamp(cell_x, l.width);
+		cell_y = clamp(cell_y, l.height);
+		int nearest = l.distance.nearest(cell_x, cell_y);
+		if (nearest == NGZDistanceField.NONE) {
+			return Integer.MAX_VALUE;
 		}
+		int dx = nearest % l.width - cell_x;
+		int dy = nearest / l.width - cell_y;
+		return dx * dx + dy * dy;
+	}
+
+	/*
+	 * @return width of the grid in cells
+	 */
+	public int getWidth() {
+		return layout.width;
+	}
+
+	/*
+	 * @return height of the grid in cells
+	 */
+	public int getHeight() {
+		return layout.height;
+	}
+
+	/*
+	 * @return size of a cell in mm
+	 */
+	public double getScale() {
+		return scale;
+	}
+
+	/*
+	 * @return column of the cell holding an x coordinate
+	 */
+	public int toCellX(double x) {
+		return cellX(layout, x);
+	}
+
+	/*
+	 * @return row of the cell holding a y coordinate
+	 */
+	public int toCellY(double y) {
+		return cellY(layout, y);
+	}
+
+	/*
+	 * @return x coordinate of the centre of a column
+	 */
+	public double toX(int cell_x) {
+		return (cell_x - layout.xoffset) * scale;
 	}
-	
-	public List<Float> getWaypoints(double x, double y, double angle) {
-		int multiplier = (angle > 0)? 1 : -1;
-		
-		// Find entry point
-		double entry_x = x;
-		double entry_y = y;
-		while(inNGZ(entry_x, entry_y)) {
-			entry_y -= scale*multiplier;
+
+	/*
+	 * @return y coordinate of the centre of a row
+	 */
+	public double toY(int cell_y) {
+		return (cell_y - layout.yoffset) * scale;
+	}
+
+	private int cellX(Layout l, double x) {
+		return (int)Math.round((x/scale)+l.xoffset);
+	}
+
+	private int cellY(Layout l, double y) {
+		return (int)Math.round((y/scale)+l.yoffset);
+	}
+
+	private static int clamp(int cell, int size) {
+		return Math.max(0, Math.min(cell, size - 1));
+	}
+
+	private static boolean get(Layout l, int cell_x, int cell_y) {
+		if (cell_x < 0 || cell_x >= l.width || cell_y < 0 || cell_y >= l.height) return false;
+		return (l.cells[cell_y * l.wordsPerRow + (cell_x >>> 6)] & (1L << cell_x)) != 0;
+	}
+
+	/*
+	 * Sets or clears every cell of a rectangle, cut off at the edges of the grid.
+	 * Whole words are written at once, with masks for the partial words at each end of a row.
+	 */
+	private static void fill(Layout l, int min_x, int min_y, int max_x, int max_y, boolean set) {
+		min_x = Math.max(min_x, 0);
+		min_y = Math.max(min_y, 0);
+		max_x = Math.min(max_x, l.width - 1);
+		max_y = Math.min(max_y, l.height - 1);
+		if (min_x > max_x || min_y > max_y) return;
+
+		long[] cells = l.cells;
+		int stride = l.wordsPerRow;
+		int first_word = min_x >>> 6;
+		int last_word = max_x >>> 6;
+		long first_mask = -1L << min_x;
+		long last_mask = -1L >>> (WORD_BITS - 1 - (max_x & (WORD_BITS - 1)));
+		if (first_word == last_word) {
+			first_mask &= last_mask;
 		}
-		
-		// Find exit point
-		double exit_x = x;
-		double exit_y = y;
-		while(inNGZ(exit_x, exit_y)) {
-			exit_y += scale*multiplier;
+		for (int y = min_y, row = min_y * stride; y <= max_y; y++, row += stride) {
+			if (set) {
+				cells[row + first_word] |= first_mask;
+				for (int w = first_word + 1; w < last_word; w++) {
+					cells[row + w] = -1L;
+				}
+				if (last_word != first_word) {
+					cells[row + last_word] |= last_mask;
+				}
+			}
+			else {
+				cells[row + first_word] &= ~first_mask;
+				for (int w = first_word + 1; w < last_word; w++) {
+					cells[row + w] = 0;
+				}
+				if (last_word != first_word) {
+					cells[row + last_word] &= ~last_mask;
+				}
+			}
 		}
-		
-		// Find lower travel point
-		double lower_x = x;
-		double lower_y = y;
-		while(inNGZ(lower_x, lower_y)) {
-			lower_x -= scale;
+	}
+
+	/*
+	 * Grows the grid evenly about its centre until it holds the given cells, or reaches its
+	 * largest size. Each side grows by at least half the grid so repeated growth stays cheap,
+	 * and columns are added in whole words so rows can be copied word by word.
+	 */
+	private void growToFit(int min_x, int min_y, int max_x, int max_y) {
+		Layout l = layout;
+		int pad_x = Math.max(0, Math.max(-min_x, max_x - l.width + 1));
+		int pad_y = Math.max(0, Math.max(-min_y, max_y - l.height + 1));
+		if (pad_x == 0 && pad_y == 0) return;
+
+		if (pad_x > 0) pad_x = Math.max(pad_x, l.width / 2);
+		if (pad_y > 0) pad_y = Math.max(pad_y, l.height / 2);
+		pad_x = Math.max(0, Math.min(roundUp(pad_x), (maxSize - l.width) / 2 / WORD_BITS * WORD_BITS));
+		pad_y = Math.max(0, Math.min(pad_y, (maxSize - l.height) / 2));
+		if (pad_x == 0 && pad_y == 0) return;
+
+		Layout grown = new Layout(l.width + 2 * pad_x, l.height + 2 * pad_y, l.xoffset + pad_x, l.yoffset + pad_y);
+		for (int y = 0; y < l.height; y++) {
+			System.arraycopy(l.cells, y * l.wordsPerRow, grown.cells,
+					(y + pad_y) * grown.wordsPerRow + pad_x / WORD_BITS, l.wordsPerRow);
 		}
-		
-		// Find upper travel point
-		double upper_x = exit_x;
-		double upper_y = exit_y-scale*multiplier;
-		while (inNGZ(upper_x, upper_y)) {
-			upper_x -= scale;
+		grown.area.rebuild(grown.cells, grown.wordsPerRow, 0, 0);
+		grown.distance.update(grown.cells, grown.wordsPerRow, 0, grown.width - 1);
+		layout = grown;
+	}
+
+	private void notifyListeners(int min_x, int min_y, int max_x, int max_y, boolean resized) {
+		for (NGZListener listener : listeners) {
+			listener.ngzChanged(min_x, min_y, max_x, max_y, resized);
 		}
-		
-		// Buffer space
-		entry_y -= scale*multiplier;
-		exit_y += scale*multiplier;
-		upper_x -= scale;
-		upper_y += 2*scale*multiplier;
-		lower_x -= scale;
-		lower_y -= 2*scale*multiplier;
-		
-		List<Float> waypoints = new ArrayList<Float>();
-		waypoints.add((float)entry_x);
-		waypoints.add((float)entry_y);
-		waypoints.add((float)lower_x);
-		waypoints.add((float)lower_y);
-		waypoints.add((float)upper_x);
-		waypoints.add((float)upper_y);
-		waypoints.add((float)exit_x);
-		waypoints.add((float)exit_y);
-		
-		return waypoints;
+	}
+
+	// Rounds a number of cells up to whole words
+	private static int roundUp(int cells) {
+		return (cells + WORD_BITS - 1) / WORD_BITS * WORD_BITS;
 	}
 
 }
\ No newline at end of file
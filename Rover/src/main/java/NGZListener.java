@@ -0,0 +1,22 @@
+/*
+ * NGZListener.java
+ *
+ * Interface for code that needs to know when NGZs are added to or removed from a NGZGrid,
+ * such as a planner repairing the route it is following.
+ *
+ * Authors: SEP UG02
+ */
+public interface NGZListener {
+
+	/**
+	 * Called after NGZ cells have been set or cleared, while the grid is still locked, so it
+	 * must return quickly and must not wait on another thread.
+	 *
+	 * @param min_x - first column that may have changed
+	 * @param min_y - first row that may have changed
+	 * @param max_x - last column that may have changed
+	 * @param max_y - last row that may have changed
+	 * @param resized - true if the grid grew, which moves every cell
+	 */
+	void ngzChanged(int min_x, int min_y, int max_x, int max_y, boolean resized);
+}
@@ -0,0 +1,61 @@
+/*
+ * NGZSpeedLimit.java
+ *
+ * Slows the rover down as it heads towards a NGZ, so it reaches the margin it keeps from NGZs
+ * at a crawl instead of braking once it is already there. The distance left before the margin
+ * comes from the NGZ grid's distance field, and the speed falls in a straight line from the
+ * speed set, ngz_slow_distance short of the margin, to ngz_min_speed of it at the margin.
+ *
+ * Authors: SEP UG02
+ */
+
+import java.util.Properties;
+
+public class NGZSpeedLimit implements PolledSensor {
+
+	// Smallest change in the share of speed worth sending to the motors
+	private static final double STEP = 0.05;
+
+	private Rover rover;
+
+	// Distance before the margin the rover starts slowing at, in mm
+	private double slowDistance;
+	// Share of the set speed the rover has slowed to by the margin
+	private double minSpeed;
+
+	private double applied = 1;
+
+	// Reused when working out the distance to the nearest NGZ
+	private final double[] away = new double[2];
+
+	/**
+	 * Constructor
+	 *
+	 * @param rover - rover whose speed is limited
+	 * @param prop - configuration holding the slowing distance and minimum speed
+	 */
+	NGZSpeedLimit(Rover rover, Properties prop) {
+		this.rover = rover;
+		this.slowDistance = Double.valueOf(prop.getProperty("ngz_slow_distance"));
+		this.minSpeed = Double.valueOf(prop.getProperty("ngz_min_speed"));
+	}
+
+	/**
+	 * Works out the share of the set speed the rover may drive at from where it is heading,
+	 * and applies it if it has changed.
+	 */
+	public void poll() {
+		SensorSnapshot snapshot = rover.getSnapshot();
+		double ahead = rover.ngzDistanceAhead(snapshot.getUnadjustedXPos(), snapshot.getUnadjustedYPos(),
+				snapshot.getOrientation(), away);
+		double fraction = 1;
+		if (ahead < slowDistance) {
+			fraction = minSpeed + (1 - minSpeed) * ahead / slowDistance;
+		}
+
+		if (Math.abs(fraction - applied) >= STEP || (fraction != applied && (fraction == 1 || ahead == 0))) {
+			rover.limitSpeed(fraction);
+			applied = fraction;
+		}
+	}
+}
@@ -0,0 +1,44 @@
+/*
+ * OutlierFilter.java
+ *
+ * Filter stage that rejects samples which jump too far from the last accepted sample,
+ * unless the jump persists, in which case the scene has really changed.
+ *
+ * Authors: SEP UG02
+ */
+public class OutlierFilter implements SampleFilter {
+
+	private float maxStep;
+	private int maxRejections;
+
+	private float last;
+	private boolean hasLast;
+	private int rejections;
+
+	/**
+	 * Constructor
+	 *
+	 * @param maxStep - largest change from the last accepted sample that is accepted straight away
+	 * @param maxRejections - number of consecutive rejected samples after which a jump is accepted
+	 */
+	public OutlierFilter(float maxStep, int maxRejections) {
+		this.maxStep = maxStep;
+		this.maxRejections = maxRejections;
+	}
+
+	public float filter(float sample) {
+		if (!hasLast || Math.abs(sample - last) <= maxStep || rejections >= maxRejections) {
+			last = sample;
+			hasLast = true;
+			rejections = 0;
+		} else {
+			rejections++;
+		}
+		return last;
+	}
+
+	public void reset() {
+		hasLast = false;
+		rejections = 0;
+	}
+}
@@ -0,0 +1,252 @@
+/*
+ * PathPlanner.java
+ *
+ * A* path planner over the cells of a NGZGrid. The rover moves between the eight neighbours of
+ * a cell, guided by the octile distance to the goal, and a cell is only usable if no NGZ lies
+ * within half the rover's track width of it, checked with one distance field lookup.
+ * The cell path found is smoothed by skipping every waypoint the rover can see past, and is
+ * returned as a primitive array of x, y pairs. Every plan starts from scratch; see
+ * IncrementalPlanner for repairing a route as NGZs change. Search state is kept between plans, so once the
+ * arrays have grown to the size of the grid, the returned path is all a plan allocates.
+ *
+ * Authors: SEP UG02
+ */
+
+import java.util.Arrays;
+
+public class PathPlanner extends GridPlanner {
+
+	// Whether a cell is known to be usable during a search
+	private static final byte UNKNOWN = 0, FREE = 1, BLOCKED = 2;
+
+	// Per cell search state, only valid where visited[cell] == search
+	private int search = 0;
+	private int[] visited = new int[0];
+	private float[] cost = new float[0];
+	private int[] parent = new int[0];
+	private boolean[] closed = new boolean[0];
+	private byte[] usable = new byte[0];
+
+	// Binary heap of open cells ordered by estimated total cost; a cell may appear more than
+	// once, in which case only its cheapest entry is expanded
+	private int[] heap = new int[256];
+	private float[] heapKey = new float[256];
+	private int heapSize = 0;
+
+	// Cells expanded by the last plan
+	private int expanded = 0;
+
+	/**
+	 * Constructor
+	 *
+	 * @param grid - NGZs to plan around
+	 * @param trackWidth - width of the rover in mm
+	 */
+	public PathPlanner(NGZGrid grid, double trackWidth) {
+		super(grid, trackWidth);
+	}
+
+	/**
+	 * Plans a path around the NGZ in front of the rover, to the first point along its heading
+	 * beyond it. If the rover is already inside the NGZ, the path first leaves it the shortest way.
+	 *
+	 * @param x - x position of the rover
+	 * @param y - y position of the rover
+	 * @param heading - heading of the rover in degrees
+	 * @return x, y pairs of the waypoints to drive to, or null if there is no way past
+	 */
+	public synchronized float[] detour(double x, double y, double heading) {
+		synchronized (grid) {
+			prepare();
+			return findExit(x, y, heading) ? search(x, y, exitX, exitY) : null;
+		}
+	}
+
+	/**
+	 * Plans a path between two points.
+	 *
+	 * @return x, y pairs of the waypoints to drive to after the start, or null if the goal
+	 *         can't be reached
+	 */
+	public synchronized float[] plan(double start_x, double start_y, double goal_x, double goal_y) {
+		synchronized (grid) {
+			prepare();
+			return search(start_x, start_y, goal_x, goal_y);
+		}
+	}
+
+	/**
+	 * @return number of cells expanded by the last plan
+	 */
+	public synchronized int getExpandedCount() {
+		return expanded;
+	}
+
+	/**
+	 * Starts a new search, making the arrays fit the grid if it has grown.
+	 */
+	private void prepare() {
+		if (grid.getWidth() != width || grid.getHeight() != height) {
+			width = grid.getWidth();
+			height = grid.getHeight();
+			int size = width * height;
+			visited = new int[size];
+			cost = new float[size];
+			parent = new int[size];
+			closed = new boolean[size];
+			usable = new byte[size];
+			search = 0;
+		}
+		search++;
+		if (search == Integer.MAX_VALUE) {
+			Arrays.fill(visited, 0);
+			search = 1;
+		}
+	}
+
+	private float[] search(double start_x, double start_y, double goal_x, double goal_y) {
+		expanded = 0;
+		int sx = grid.toCellX(start_x);
+		int sy = grid.toCellY(start_y);
+		int gx = grid.toCellX(goal_x);
+		int gy = grid.toCellY(goal_y);
+		if (!inGrid(sx, sy) || !inGrid(gx, gy)) {
+			return null;
+		}
+		int start = sx + sy * width;
+		int goal = gx + gy * width;
+		if (!isFree(goal)) {
+			return null;
+		}
+
+		heapSize = 0;
+		open(start, -1, 0, heuristic(sx, sy, gx, gy));
+		while (heapSize > 0) {
+			int cell = pop();
+			if (closed[cell]) {
+				continue;
+			}
+			closed[cell] = true;
+			expanded++;
+			if (cell == goal) {
+				return path(goal, goal_x, goal_y);
+			}
+
+			int x = cell % width;
+			int y = cell / width;
+			// Blocked cells can only be crossed while leaving the NGZ the path started in
+			boolean escaping = !isFree(cell);
+			for (int i = 0; i < DX.length; i++) {
+				int nx = x + DX[i];
+				int ny = y + DY[i];
+				if (!inGrid(nx, ny)) {
+					continue;
+				}
+				int next = nx + ny * width;
+				if (!passable(next, escaping)) {
+					continue;
+				}
+				// Don't cut the corner between two diagonal cells
+				if (i >= 4 && (!passable(nx + y * width, escaping) || !passable(x + ny * width, escaping))) {
+					continue;
+				}
+				float step = (i >= 4) ? DIAGONAL : 1;
+				if (!isFree(next)) {
+					step *= BLOCKED_COST;
+				}
+				float g = cost[cell] + step;
+				if (g < cost[next]) {
+					open(next, cell, g, g + heuristic(nx, ny, gx, gy));
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Follows the cells back from the goal and smooths the path they make.
+	 */
+	private float[] path(int goal, double goal_x, double goal_y) {
+		cellCount = 0;
+		for (int cell = goal; cell != -1; cell = parent[cell]) {
+			addCell(cell);
+		}
+		for (int i = 0, j = cellCount - 1; i < j; i++, j--) {
+			int cell = cells[i];
+			cells[i] = cells[j];
+			cells[j] = cell;
+		}
+		return smoothPath(goal_x, goal_y);
+	}
+
+	private boolean passable(int cell, boolean escaping) {
+		return escaping || isFree(cell);
+	}
+
+	/**
+	 * @return true if no NGZ is within the rover's clearance of a cell, looked up once a search
+	 */
+	protected boolean isFree(int cell) {
+		if (visited[cell] != search) {
+			visited[cell] = search;
+			usable[cell] = UNKNOWN;
+			closed[cell] = false;
+			cost[cell] = Float.MAX_VALUE;
+		}
+		if (usable[cell] == UNKNOWN) {
+			usable[cell] = clearance(cell) ? FREE : BLOCKED;
+		}
+		return usable[cell] == FREE;
+	}
+
+	private void open(int cell, int from, float g, float f) {
+		isFree(cell);
+		cost[cell] = g;
+		parent[cell] = from;
+		push(cell, f);
+	}
+
+	private void push(int cell, float key) {
+		if (heapSize == heap.length) {
+			heap = Arrays.copyOf(heap, heapSize * 2);
+			heapKey = Arrays.copyOf(heapKey, heapSize * 2);
+		}
+		int i = heapSize++;
+		while (i > 0) {
+			int up = (i - 1) >>> 1;
+			if (heapKey[up] <= key) {
+				break;
+			}
+			heap[i] = heap[up];
+			heapKey[i] = heapKey[up];
+			i = up;
+		}
+		heap[i] = cell;
+		heapKey[i] = key;
+	}
+
+	private int pop() {
+		int top = heap[0];
+		int last = heap[--heapSize];
+		float key = heapKey[heapSize];
+		int i = 0;
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= heapSize) {
+				break;
+			}
+			if (child + 1 < heapSize && heapKey[child + 1] < heapKey[child]) {
+				child++;
+			}
+			if (heapKey[child] >= key) {
+				break;
+			}
+			heap[i] = heap[child];
+			heapKey[i] = heapKey[child];
+			i = child;
+		}
+		heap[i] = last;
+		heapKey[i] = key;
+		return top;
+	}
+}
@@ -0,0 +1,15 @@
+/*
+ * PolledSensor.java
+ *
+ * Interface for anything that takes a reading when asked to by the SensorScheduler.
+ *
+ * Authors: SEP UG02
+ */
+public interface PolledSensor {
+
+	/**
+	 * Fetches a single sample from the underlying SampleProvider and stores it.
+	 * Called by the SensorScheduler at the rate the sensor was registered with.
+	 */
+	void poll();
+}
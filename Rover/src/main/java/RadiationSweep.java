@@ -15,7 +15,7 @@ public class RadiationSweep implements Behavior{
 	}
 	
 	public boolean takeControl() {
-		return rover.getColourSensorColourID() == Color.GREEN
+		return rover.getSnapshot().getColourID() == Color.GREEN
         		&& rover.getMode() == MODE.automatic;  
 	}
 	
@@ -0,0 +1,76 @@
+/*
+ * ReplaySampleProvider.java
+ *
+ * A SampleProvider that plays back one channel of a SensorLog in place of sensor hardware,
+ * either in real time or one record per fetch as fast as the caller asks.
+ *
+ * Authors: SEP UG02
+ */
+
+import lejos.robotics.SampleProvider;
+
+public class ReplaySampleProvider implements SampleProvider {
+
+	private SensorLog log;
+	private SensorChannel source;
+	private int sampleSize;
+	private boolean realTime;
+
+	// Index of the next record to consider and of the record last returned
+	private int next = 0;
+	private int current = -1;
+
+	/**
+	 * Constructor
+	 *
+	 * @param log - recorded log to play back
+	 * @param source - channel of the log to play back
+	 * @param sampleSize - number of values in each sample
+	 * @param realTime - true to play records back at the times they were recorded,
+	 *                   false to return the next record on every fetch
+	 */
+	public ReplaySampleProvider(SensorLog log, SensorChannel source, int sampleSize, boolean realTime) {
+		this.log = log;
+		this.source = source;
+		this.sampleSize = sampleSize;
+		this.realTime = realTime;
+	}
+
+	public int sampleSize() {
+		return sampleSize;
+	}
+
+	/**
+	 * Fills sample with the current record. Once the log runs out the last record is repeated.
+	 */
+	public void fetchSample(float[] sample, int offset) {
+		if (realTime) {
+			// Advance to the latest record recorded no later than the replay clock
+			long until = (log.size() > 0) ? log.getTime(0) + log.replayElapsed() : 0;
+			while (next < log.size() && log.getTime(next) - until <= 0) {
+				if (log.getChannel(next) == source) {
+					current = next;
+				}
+				next++;
+			}
+		} else {
+			while (next < log.size() && log.getChannel(next) != source) {
+				next++;
+			}
+			if (next < log.size()) {
+				current = next++;
+			}
+		}
+
+		for (int i = 0; i < sampleSize; i++) {
+			sample[offset + i] = (current >= 0) ? log.getValue(current, i) : 0f;
+		}
+	}
+
+	/**
+	 * @return true once every record of this channel has been played back
+	 */
+	public boolean isFinished() {
+		return next >= log.size();
+	}
+}
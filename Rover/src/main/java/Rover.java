@@ -8,18 +8,24 @@
  * Authors: SEP UG02
  */
 
+import java.io.File;
+import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.Properties;
 import lejos.robotics.navigation.*;
 import lejos.hardware.motor.EV3LargeRegulatedMotor;
 import lejos.robotics.navigation.DifferentialPilot;
+import lejos.utility.Delay;
 import lejos.robotics.navigation.Navigator;
-import java.util.List;
 
 
 public class Rover {
 
 	private static final double trackWidth = 120;
+	// Time between checks that the route being followed is still clear, in ms
+	private static final int ROUTE_CHECK_INTERVAL = 50;
+	// Distance of the colour sensor in front of the centre of rotation, in mm
+	private static final double colourSensorOffset = 33.0;
 	@SuppressWarnings("unused")
 	private static final double wheelDiameter = 56;
 	
@@ -39,17 +45,50 @@ public class Rover {
 	private DifferentialPilot movePilot;
 	private myOdometryPoseProvider pose;
 		
-	//Update display every 0.5 seconds
+	// Polls all sensors from a single thread
+	SensorScheduler scheduler;
+	
+	// Fires events when sensor readings change, for behaviours to wait on
+	private SensorEventBus eventBus;
+	
+	// Adjusts sensor rates to the current mode and motion
+	private SamplingPolicy samplingPolicy;
+	
+	// Sends sensor data to the UI
 	SensorUpdater updater;
+	// Shows sensor data on the LCD
+	LcdRenderer lcdRenderer;
 	Communication communicator;
-	private InetSocketAddress hostAddress = null;
+	private volatile InetSocketAddress hostAddress = null;
 	
 	private boolean isRunning = true;
-	private boolean isMoving = false; 
+	private volatile boolean laneTravel = false;
 		
-	private boolean connected = false;
-	private boolean inRadiation = false;
+	private volatile boolean connected = false;
+	private volatile boolean inRadiation = false;
 	private NGZGrid ngzGrid;
+	private IncrementalPlanner planner;
+	// Gap in mm the rover keeps between its sides and a NGZ
+	private double ngzMargin;
+	
+	// Linear speed last set, and the share of it the rover is held to near a NGZ
+	private double cruiseSpeed;
+	private double speedLimit = 1;
+	
+	// Latest consistent set of readings, replaced as a whole on every publish
+	private volatile SensorSnapshot snapshot;
+	
+	// Log of sensor samples, null when not recording
+	private SensorRecorder recorder;
+	
+	// RGB colour classification, calibrated on the map
+	private ColourCalibration colourCalibration;
+	private File colourClassifierFile;
+	private int calibrationSamples;
+	// Time the colour sensor takes to give readings in a new mode, in ms
+	private long colourModeSwitchTime;
+	// Longest a calibration may take before it gives up, in ms
+	private long calibrationTimeout;
     
     /*
      * Constructor
@@ -72,42 +111,184 @@ public class Rover {
     	rmotor.setAcceleration(Integer.valueOf(prop.getProperty("default_acceleration")));
     	
 
-    	// Initialise sensors
-    	touchSensor = new TouchSensor(Helpers.getPort(prop.getProperty("touch_sensor")));    	
-    	colourSensor = new ColourSensor(Helpers.getPort(prop.getProperty("colour_sensor")));
-    	gyroSensor = new GyroSensor(Helpers.getPort(prop.getProperty("gyro_sensor")));
-    	ultrasonicSensor = new UltrasonicSensor(Helpers.getPort(prop.getProperty("ultrasonic_sensor")));
+    	// Initialise sensors, from the hardware or from a recorded sensor log
+    	int historyDepth = Integer.valueOf(prop.getProperty("sensor_history_depth"));
+    	SampleFilter ultrasonicFilter = FilterChain.parse(prop.getProperty("ultrasonic_filter"));
+    	String replayFile = prop.getProperty("replay_file", "");
+    	ReplaySampleProvider tachoReplay = null;
+    	if (replayFile.isEmpty()) {
+	    	touchSensor = new TouchSensor(Helpers.getPort(prop.getProperty("touch_sensor")), historyDepth);    	
+	    	colourSensor = new ColourSensor(Helpers.getPort(prop.getProperty("colour_sensor")), historyDepth);
+	    	gyroSensor = new GyroSensor(Helpers.getPort(prop.getProperty("gyro_sensor")), historyDepth);
+	    	ultrasonicSensor = new UltrasonicSensor(Helpers.getPort(prop.getProperty("ultrasonic_sensor")), historyDepth,
+	    			ultrasonicFilter);
+    	}
+    	else {
+    		boolean realTime = Boolean.valueOf(prop.getProperty("replay_real_time"));
+    		SensorLog log;
+    		try {
+    			log = new SensorLog(new File(replayFile));
+    		} catch (IOException e) {
+    			throw new IllegalStateException("could not open replay log " + replayFile, e);
+    		}
+    		touchSensor = new TouchSensor(new ReplaySampleProvider(log, SensorChannel.touch, 1, realTime), historyDepth);
+    		colourSensor = new ColourSensor(new ReplaySampleProvider(log, SensorChannel.colourId, 1, realTime),
+    				new ReplaySampleProvider(log, SensorChannel.colourRgb, 3, realTime), historyDepth);
+    		gyroSensor = new GyroSensor(new ReplaySampleProvider(log, SensorChannel.gyro, 2, realTime), historyDepth);
+    		ultrasonicSensor = new UltrasonicSensor(new ReplaySampleProvider(log, SensorChannel.ultrasonic, 1, realTime),
+    				historyDepth, ultrasonicFilter);
+    		tachoReplay = new ReplaySampleProvider(log, SensorChannel.tacho, 2, realTime);
+    	}
+    	
+    	// Classify colours from RGB readings if a calibrated lookup table has been saved
+    	colourClassifierFile = new File(prop.getProperty("colour_classifier_file"));
+    	calibrationSamples = Integer.valueOf(prop.getProperty("colour_calibration_samples"));
+    	colourModeSwitchTime = Long.valueOf(prop.getProperty("colour_mode_switch_time"));
+    	calibrationTimeout = Long.valueOf(prop.getProperty("colour_calibration_timeout"));
+    	colourCalibration = new ColourCalibration(Integer.valueOf(prop.getProperty("colour_classifier_bits")),
+    			Float.valueOf(prop.getProperty("colour_classifier_full_scale")),
+    			Float.valueOf(prop.getProperty("colour_classifier_max_distance")));
+    	if (colourClassifierFile.exists()) {
+    		try {
+    			colourSensor.setClassifier(ColourClassifier.load(colourClassifierFile));
+    			colourSensor.setColourMode(ColourMode.RGB);
+    		} catch (IOException e) {
+    			e.printStackTrace();
+    		}
+    	}
+    	
+    	// Distance thresholds are added by the predicates behaviours wait on
+    	eventBus = new SensorEventBus();
+    	
+    	// Register sensors with the scheduler at their configured rates (Hz), passing each reading to the event bus
+    	scheduler = new SensorScheduler();
+    	scheduler.register("touch", new PolledSensor() {
+    		public void poll() {
+    			touchSensor.poll();
+    			eventBus.bumperSample(touchSensor.bumperPressed(), System.nanoTime());
+    		}
+    	}, Integer.valueOf(prop.getProperty("touch_sensor_rate")));
+    	// A change of colour is published in a snapshot straight away, so behaviours reading the
+    	// snapshot see colours crossed faster than the snapshot rate
+    	scheduler.register("colour", new PolledSensor() {
+    		public void poll() {
+    			colourSensor.poll();
+    			int colour = colourSensor.getColourID();
+    			eventBus.colourSample(colour, System.nanoTime());
+    			if (snapshot != null && snapshot.getColourID() != colour) {
+    				publishSnapshot();
+    			}
+    		}
+    	}, Integer.valueOf(prop.getProperty("colour_sensor_rate")));
+    	// Each gyro reading is also fed to the pose provider for heading fusion
+    	scheduler.register("gyro", new PolledSensor() {
+    		public void poll() {
+    			gyroSensor.poll();
+    			pose.gyroSample(gyroSensor.getAngle(), gyroSensor.getRate(), System.nanoTime());
+    		}
+    	}, Integer.valueOf(prop.getProperty("gyro_sensor_rate")));
+    	scheduler.register("ultrasonic", new PolledSensor() {
+    		public void poll() {
+    			ultrasonicSensor.poll();
+    			eventBus.distanceSample(ultrasonicSensor.getDistance(), System.nanoTime());
+    		}
+    	}, Integer.valueOf(prop.getProperty("ultrasonic_sensor_rate")));
 
-    	ngzGrid = new NGZGrid(500,500,20);		
+    	// Routes are planned as if the rover were wider by the margin on each side
+    	ngzGrid = new NGZGrid(500,500,20, Integer.valueOf(prop.getProperty("ngz_grid_max_size")));
+    	ngzMargin = Double.valueOf(prop.getProperty("ngz_margin"));
+    	planner = new IncrementalPlanner(ngzGrid, trackWidth + 2 * ngzMargin);
+    	ngzGrid.addListener(planner);		
    
-    	// Create a new SensorUpdater
+    	// Create a new SensorUpdater and LCD renderer
     	updater = new SensorUpdater(this);
+    	lcdRenderer = new LcdRenderer(this, Integer.valueOf(prop.getProperty("lcd_refresh_rate")));
     	
     	// Create a new communicator
-    	communicator = new Communication(this);
+    	communicator = new Communication(this, Integer.valueOf(prop.getProperty("command_queue_capacity")),
+    			Long.valueOf(prop.getProperty("heartbeat_timeout")));
     	    	    	
     	//Create movePilot and pose provider
     	movePilot = new DifferentialPilot(56, trackWidth, lmotor, rmotor);
     	pose = new myOdometryPoseProvider(movePilot);
+    	pose.setHeadingFusion(HeadingFusion.valueOf(prop.getProperty("heading_fusion")),
+    			Float.valueOf(prop.getProperty("heading_fusion_gain")));
     	navi = new Navigator(movePilot, pose);
+    	cruiseSpeed = movePilot.getLinearSpeed();
+    	
+    	// When replaying, the pose follows the recorded tacho counts, as the motors aren't driving
+    	if (tachoReplay != null) {
+    		final ReplaySampleProvider tachos = tachoReplay;
+    		final float mmPerDegree = (float)(Math.PI * Double.valueOf(prop.getProperty("wheel_diameter")) / 360);
+    		final float[] tacho = new float[2];
+    		scheduler.register("replay-tacho", new PolledSensor() {
+    			public void poll() {
+    				tachos.fetchSample(tacho, 0);
+    				pose.wheelSample(tacho[0] * mmPerDegree, tacho[1] * mmPerDegree, (float)trackWidth);
+    			}
+    		}, Integer.valueOf(prop.getProperty("tacho_record_rate")));
+    	}
     	setOrientation(90f);
     	setLocation(0f, 0f);
+    	
+    	// Publish a snapshot of all readings at a fixed rate once the pose provider exists
+    	publishSnapshot();
+    	scheduler.register("snapshot", new PolledSensor() {
+    		public void poll() {
+    			publishSnapshot();
+    		}
+    	}, Integer.valueOf(prop.getProperty("snapshot_rate")));
+    	
+    	samplingPolicy = new SamplingPolicy(this, scheduler, prop);
+    	scheduler.register("policy", samplingPolicy, Integer.valueOf(prop.getProperty("sampling_policy_rate")));
+    	
+    	// Slow the rover down as it heads towards a NGZ
+    	scheduler.register("ngz", new NGZSpeedLimit(this, prop), Integer.valueOf(prop.getProperty("ngz_speed_rate")));
+    	
+    	// Record every sensor sample and the tacho counts if a record file is configured
+    	String recordFile = prop.getProperty("record_file", "");
+    	if (!recordFile.isEmpty()) {
+    		try {
+    			startRecording(new File(recordFile), Integer.valueOf(prop.getProperty("tacho_record_rate")));
+    		} catch (IOException e) {
+    			e.printStackTrace();
+    		}
+    	}
+    }
+    
+    /**
+     * Starts appending every sensor sample, and the motor tacho counts at the given rate, to a sensor log.
+     * 
+     * @param file - log file to create
+     * @param tachoRate - rate in Hz tacho counts are recorded at
+     */
+    public void startRecording(File file, int tachoRate) throws IOException {
+    	final SensorRecorder log = new SensorRecorder(file);
+    	recorder = log;
+    	touchSensor.setRecorder(log);
+    	colourSensor.setRecorder(log);
+    	gyroSensor.setRecorder(log);
+    	ultrasonicSensor.setRecorder(log);
+    	
+    	final float[] tacho = new float[2];
+    	scheduler.register("tacho", new PolledSensor() {
+    		public void poll() {
+    			tacho[0] = lmotor.getTachoCount();
+    			tacho[1] = rmotor.getTachoCount();
+    			log.record(SensorChannel.tacho, System.nanoTime(), tacho, 0, 2);
+    		}
+    	}, tachoRate);
     }
     
     public void startSensors() {
     	// Start polling for sensor data.
-    	touchSensor.setDaemon(true);
-    	colourSensor.setDaemon(true);
-    	gyroSensor.setDaemon(true);
-    	ultrasonicSensor.setDaemon(true);
+    	scheduler.setDaemon(true);
     	updater.setDaemon(true);
+    	lcdRenderer.setDaemon(true);
 
-    	
-    	touchSensor.start();
-    	colourSensor.start();
-    	gyroSensor.start();
-    	ultrasonicSensor.start();
+    	scheduler.start();
     	updater.start();
+    	lcdRenderer.start();
     }
     
     public void startCommunication() {
@@ -160,10 +341,21 @@ public class Rover {
      * 
      * @param speed: Speed in degree of rotation per minute
      */
-    public void setSpeed(int speed) {
-    	movePilot.setLinearSpeed(speed);
+    public synchronized void setSpeed(int speed) {
+    	cruiseSpeed = speed;
+    	movePilot.setLinearSpeed(speed * speedLimit);
     	movePilot.setAngularSpeed(speed);
     }
+    
+    /*
+     * Hold the rover's linear speed to a share of the speed last set, e.g. while it heads towards a NGZ
+     * 
+     * @param fraction: share of the set speed to drive at, from 0 to 1
+     */
+    public synchronized void limitSpeed(double fraction) {
+    	speedLimit = fraction;
+    	movePilot.setLinearSpeed(cruiseSpeed * fraction);
+    }
 
     /* 
      * Continuously turn rover left
@@ -258,6 +450,13 @@ public class Rover {
      * the EV3 brick complain about unclosed ports.
      */
     public void closePorts() {
+    	if (recorder != null) {
+    		touchSensor.setRecorder(null);
+    		colourSensor.setRecorder(null);
+    		gyroSensor.setRecorder(null);
+    		ultrasonicSensor.setRecorder(null);
+    		recorder.close();
+    	}
     	lmotor.close();
     	rmotor.close();
     	touchSensor.close();
@@ -276,12 +475,21 @@ public class Rover {
     /*
      * Query distance from obstacle
      * 
-     * @return distance in mm from obstacle
+     * @return filtered distance in mm from obstacle
      */ 
     public int getObstacleDistance() {
     	return ultrasonicSensor.getDistance();
     }
     
+    /*
+     * Query unfiltered distance from obstacle
+     * 
+     * @return latest raw distance in mm from obstacle
+     */ 
+    public int getRawObstacleDistance() {
+    	return ultrasonicSensor.getRawDistance();
+    }
+    
     /*
      * Query colour detected by color sensor
      * 
@@ -300,6 +508,13 @@ public class Rover {
     	return colourSensor.getRGB();
     }
     
+    /*
+     * Copies the level of red, green and blue light detected by colour sensor into dest, without allocating
+     */ 
+    public void getColourSensorRGB(float[] dest){
+    	colourSensor.getRGB(dest);
+    }
+    
     /*
      * Sets the colour mode of the colour sensor to RGB or ID
      */
@@ -307,6 +522,68 @@ public class Rover {
     	colourSensor.setColourMode(mode);
     }
     
+    /*
+     * Records RGB samples of the colour currently under the colour sensor for calibration.
+     * Blocks until the configured number of samples has been taken, or gives up once the
+     * calibration timeout passes so a sensor that isn't being polled can't hold up the
+     * commands queued behind this one.
+     * 
+     * @param colourId: colour id the sensor is over
+     * @return true if all the samples were taken, false if calibration timed out
+     */
+    public boolean calibrateColour(int colourId) {
+    	long deadline = System.currentTimeMillis() + calibrationTimeout;
+    	ColourMode previousMode = colourSensor.getColourMode();
+    	colourSensor.setColourMode(ColourMode.RGB);
+    	// Poll the colour sensor at the calibration rate, not the idle rate of a parked rover
+    	samplingPolicy.setCalibrating(true);
+    	try {
+	    	// Let a poll already under way in the old mode finish and the sensor settle in RGB mode,
+	    	// so no colour id sample is taken as an RGB one
+	    	Delay.msDelay((long)(1000 / Math.max(1, scheduler.getTargetRate("colour"))) + colourModeSwitchTime);
+	    	
+	    	SampleRing history = colourSensor.getHistory();
+	    	long[] times = new long[history.getDepth()];
+	    	float[] values = new float[history.getDepth() * history.getWidth()];
+	    	long since = System.nanoTime();
+	    	int recorded = 0;
+	    	while (recorded < calibrationSamples) {
+	    		if (System.currentTimeMillis() > deadline) {
+	    			System.out.println("CALIBRATION TIMED OUT: " + recorded + "/" + calibrationSamples + " samples");
+	    			return false;
+	    		}
+	    		Delay.msDelay(20);
+	    		int count = history.since(since, times, values);
+	    		for (int i = 0; i < count; i++) {
+	    			// values are [colour id, red, green, blue]
+	    			colourCalibration.addSample(colourId, values[i*4+1], values[i*4+2], values[i*4+3]);
+	    		}
+	    		if (count > 0) {
+	    			since = times[count - 1];
+	    			recorded += count;
+	    		}
+	    	}
+	    	return true;
+    	} finally {
+    		colourSensor.setColourMode(previousMode);
+    		samplingPolicy.setCalibrating(false);
+    	}
+    }
+    
+    /*
+     * Builds a colour lookup table from the calibration samples, saves it and starts classifying RGB readings with it.
+     */
+    public void saveColourCalibration() {
+    	ColourClassifier classifier = colourCalibration.build();
+    	try {
+    		classifier.save(colourClassifierFile);
+    	} catch (IOException e) {
+    		e.printStackTrace();
+    	}
+    	colourSensor.setClassifier(classifier);
+    	colourSensor.setColourMode(ColourMode.RGB);
+    }
+    
     /*
      * Query orientation of gyro sensor
      * 
@@ -331,7 +608,106 @@ public class Rover {
      * @return moving status
      */
     public boolean isMoving() {
-    	return isMoving;
+    	return movePilot.isMoving();
+    }
+    
+    /*
+     * Marks whether the rover is travelling along a sweep lane, where the colour sensor matters most
+     */
+    public void setLaneTravel(boolean laneTravel) {
+    	this.laneTravel = laneTravel;
+    }
+    
+    /*
+     * @return true while the rover is travelling along a sweep lane
+     */
+    public boolean isLaneTravel() {
+    	return laneTravel;
+    }
+    
+    /*
+     * @return the sampling profile currently applied to the sensor rates
+     */
+    public SamplingProfile getSamplingProfile() {
+    	return samplingPolicy.getProfile();
+    }
+    
+    /*
+     * @return timestamped history of bumper samples (1 pressed, 0 released)
+     */
+    public SampleRing getTouchHistory() {
+    	return touchSensor.getHistory();
+    }
+    
+    /*
+     * @return timestamped history of colour samples [colour id, red, green, blue]
+     */
+    public SampleRing getColourHistory() {
+    	return colourSensor.getHistory();
+    }
+    
+    /*
+     * @return timestamped history of gyro samples [angle, rate]
+     */
+    public SampleRing getGyroHistory() {
+    	return gyroSensor.getHistory();
+    }
+    
+    /*
+     * @return timestamped history of obstacle distances in mm [raw, filtered]
+     */
+    public SampleRing getUltrasonicHistory() {
+    	return ultrasonicSensor.getHistory();
+    }
+    
+    /*
+     * @return the bus firing sensor transition events
+     */
+    public SensorEventBus getEventBus() {
+    	return eventBus;
+    }
+    
+    /*
+     * Gets the sequence number to wait for sensor events from. Read it before checking
+     * the sensor reading being waited on, so an event fired after the check isn't missed.
+     * 
+     * @return sequence number to pass to awaitEvent
+     */
+    public long getEventSequence() {
+    	return eventBus.getSequence();
+    }
+    
+    /*
+     * Blocks until a matching sensor event is fired or the timeout passes.
+     * 
+     * @param predicate: event to wait for
+     * @param fromSequence: sequence number read with getEventSequence() before checking the reading
+     * @param timeout: longest time to wait in ms
+     * @return true if the event was fired, false on timeout
+     */
+    public boolean awaitEvent(SensorEventPredicate predicate, long fromSequence, long timeout) {
+    	return eventBus.awaitEvent(predicate, fromSequence, timeout);
+    }
+    
+    /*
+     * @return the scheduler polling the sensors, for reporting achieved rates and jitter
+     */
+    public SensorScheduler getSensorScheduler() {
+    	return scheduler;
+    }
+    
+    /*
+     * @return the commands control clients can send
+     */
+    public CommandTable getCommandTable() {
+    	return communicator.getCommands();
+    }
+    
+    /*
+     * @return the executor commands are run on, for reporting command latency
+     */
+    public CommandExecutor getCommandExecutor() {
+    	return communicator.getExecutor();
     }
     
     /*
@@ -391,7 +767,7 @@ public class Rover {
 	 */
 	public synchronized double getXPos() {
 		double x = pose.getPose().getX();
-		x = x+33.0*Math.cos(Math.toRadians(getOrientation()));
+		x = x+colourSensorOffset*Math.cos(Math.toRadians(getOrientation()));
 		return x;
 	}
 	
@@ -405,7 +781,7 @@ public class Rover {
 	 */
 	public synchronized double getYPos() {
 		double y = pose.getPose().getY();
-		y = y+33.0*Math.sin(Math.toRadians(getOrientation()));
+		y = y+colourSensorOffset*Math.sin(Math.toRadians(getOrientation()));
 		return y;
 	}	
 	
@@ -421,6 +797,15 @@ public class Rover {
 		return pose.getPose().getHeading();
 	}
 	
+	/**
+	 * Checks whether the heading is corrected by the gyro, in which case it can be trusted
+	 * for longer without re-squaring against the boundary.
+	 * @return true if heading fusion is enabled.
+	 */
+	public boolean isHeadingFused() {
+		return pose.getHeadingFusion() != HeadingFusion.odometry;
+	}
+	
 	public synchronized void setOrientation(float degrees) {
 		pose.setPose(new Pose((float)getUnadjustedXPos(), (float)getUnadjustedYPos(), degrees));
 	}
@@ -446,6 +831,69 @@ public class Rover {
 		return ngzGrid.inNGZ(getXPos(),getYPos());
 	}
 	
+	/*
+	 * Check whether a position is in a NGZ
+	 */
+	public boolean inNGZ(double x, double y) {
+		return ngzGrid.inNGZ(x, y);
+	}
+	
+	/*
+	 * Get the distance the rover can drive along a heading before its side comes within the
+	 * margin of a NGZ, treating the edge of the nearest NGZ as a wall facing the rover
+	 * 
+	 * @param x, y: position of the centre of the rover
+	 * @param heading: heading in degrees
+	 * @param away: array of at least 2 to work in, kept by the caller so nothing is allocated
+	 * @return distance in mm, 0 if the rover is already inside the margin and heading in, or
+	 *         infinity if it is heading away or there are no NGZs
+	 */
+	public double ngzDistanceAhead(double x, double y, double heading, double[] away) {
+		double clearance = ngzGrid.clearance(x, y);
+		if (clearance == 0) {
+			return 0;
+		}
+		ngzGrid.clearanceGradient(x, y, away);
+		double approach = -(away[0] * Math.cos(Math.toRadians(heading)) + away[1] * Math.sin(Math.toRadians(heading)));
+		if (approach <= 0) {
+			return Double.POSITIVE_INFINITY;
+		}
+		return Math.max(0, clearance - trackWidth / 2 - ngzMargin) / approach;
+	}
+	
+	/*
+	 * Check whether the rover can drive straight to a position without its body crossing a NGZ
+	 */
+	public boolean pathClear(double x, double y) {
+		return ngzGrid.corridorClear(getXPos(), getYPos(), x, y, trackWidth);
+	}
+	
+	/**
+	 * Takes a single pose and the latest sensor readings and publishes them together as the current snapshot.
+	 */
+	public void publishSnapshot() {
+		Pose current;
+		synchronized (this) {
+			current = pose.getPose();
+		}
+		double heading = current.getHeading();
+		double headingRad = Math.toRadians(heading);
+		snapshot = new SensorSnapshot(System.nanoTime(),
+				current.getX() + colourSensorOffset*Math.cos(headingRad),
+				current.getY() + colourSensorOffset*Math.sin(headingRad),
+				current.getX(), current.getY(), heading,
+				colourSensor.getColourID(), ultrasonicSensor.getDistance(), touchSensor.bumperPressed(),
+				gyroSensor.getAngle(), gyroSensor.getRate(), inRadiation);
+	}
+	
+	/**
+	 * Gets the latest snapshot of pose and sensor readings, all taken at the same instant.
+	 * @return latest published snapshot.
+	 */
+	public SensorSnapshot getSnapshot() {
+		return snapshot;
+	}
+	
 	/*
 	 * Sends NGZ coordinates.
 	 */
@@ -478,8 +926,40 @@ public class Rover {
 		if(!navi.waitForStop()) navi.goTo(x,y);
 	}
 	
-	public List<Float> getWaypoints() {
-		return ngzGrid.getWaypoints(getXPos(), getYPos(),getOrientation());
+	/*
+	 * Plan a path around the NGZ ahead, to the first clear point beyond it along the current heading
+	 * 
+	 * @return x, y pairs of the waypoints to drive to, or null if there is no way past
+	 */
+	public float[] getWaypoints() {
+		return planner.detour(getXPos(), getYPos(), getOrientation());
+	}
+	
+	/*
+	 * Plan again from the current position to the end of the last detour, repairing the route
+	 * for any NGZs changed since
+	 * 
+	 * @return x, y pairs of the waypoints to drive to, or null if there is no way through
+	 */
+	public float[] replanWaypoints() {
+		return planner.replan(getXPos(), getYPos());
+	}
+	
+	/*
+	 * Drive to a waypoint of the current route, stopping early if a NGZ changes near the route
+	 * 
+	 * @return true if the waypoint was reached, false if the route needs planning again
+	 */
+	public boolean followTo(float x, float y) {
+		navi.goTo(x, y);
+		while (navi.isMoving()) {
+			if (planner.routeChanged()) {
+				navi.stop();
+				return false;
+			}
+			Delay.msDelay(ROUTE_CHECK_INTERVAL);
+		}
+		return true;
 	}
 			
 }
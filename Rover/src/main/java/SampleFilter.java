@@ -0,0 +1,22 @@
+/*
+ * SampleFilter.java
+ *
+ * Interface for a streaming filter stage that is fed one sensor sample at a time.
+ *
+ * Authors: SEP UG02
+ */
+public interface SampleFilter {
+
+	/**
+	 * Feeds the next raw sample through the filter.
+	 *
+	 * @param sample - next sample
+	 * @return filtered value
+	 */
+	float filter(float sample);
+
+	/**
+	 * Forgets all previous samples.
+	 */
+	void reset();
+}
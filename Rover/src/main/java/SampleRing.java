@@ -0,0 +1,212 @@
+/*
+ * SampleRing.java
+ *
+ * A fixed depth history of timestamped sensor samples. One thread (the SensorScheduler)
+ * publishes samples while any number of threads read them, without locking.
+ *
+ * Authors: SEP UG02
+ */
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class SampleRing {
+
+	// Returned by latestTime() when nothing has been published yet.
+	public static final long NO_SAMPLE = Long.MIN_VALUE;
+
+	// Marks a slot the producer is part way through writing.
+	private static final long WRITING = -1;
+
+	private final int depth;
+	private final int width;
+	private final int stride;
+
+	// Each slot holds [sequence, time, value0 ... valueN] with floats stored as raw int bits.
+	// Every access is volatile, so a reader that sees the same sequence before and after
+	// copying a slot knows the copy wasn't torn by the producer.
+	private final AtomicLongArray slots;
+
+	// Number of samples ever published. Only written by the producer.
+	private volatile long count;
+
+	/**
+	 * Constructor
+	 *
+	 * @param depth - number of samples kept before the oldest is overwritten
+	 * @param width - number of values in each sample
+	 */
+	public SampleRing(int depth, int width) {
+		if (depth < 1 || width < 1)
+			throw new IllegalArgumentException("depth and width must be positive");
+		this.depth = depth;
+		this.width = width;
+		this.stride = width + 2;
+		this.slots = new AtomicLongArray(depth * stride);
+		for (int i = 0; i < depth; i++) {
+			slots.set(i * stride, WRITING);
+		}
+	}
+
+	/**
+	 * @return number of samples kept
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * @return number of values in each sample
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * @return number of samples published since the ring was created
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Publishes a single valued sample. Must only be called by the producing thread.
+	 *
+	 * @param time - System.nanoTime() the sample was taken at
+	 * @param value - sample value
+	 */
+	public void publish(long time, float value) {
+		long seq = count;
+		int base = slotBase(seq);
+		slots.set(base, WRITING);
+		slots.set(base + 1, time);
+		slots.set(base + 2, Float.floatToRawIntBits(value));
+		slots.set(base, seq);
+		count = seq + 1;
+	}
+
+	/**
+	 * Publishes a sample. Must only be called by the producing thread.
+	 *
+	 * @param time - System.nanoTime() the sample was taken at
+	 * @param values - array holding at least width values
+	 * @param offset - index of the first value in values
+	 */
+	public void publish(long time, float[] values, int offset) {
+		long seq = count;
+		int base = slotBase(seq);
+		slots.set(base, WRITING);
+		slots.set(base + 1, time);
+		for (int i = 0; i < width; i++) {
+			slots.set(base + 2 + i, Float.floatToRawIntBits(values[offset + i]));
+		}
+		slots.set(base, seq);
+		count = seq + 1;
+	}
+
+	/**
+	 * @return time of the latest sample, or NO_SAMPLE if nothing has been published
+	 */
+	public long latestTime() {
+		while (true) {
+			long seq = count - 1;
+			if (seq < 0) {
+				return NO_SAMPLE;
+			}
+			long time = readTime(seq);
+			if (time != NO_SAMPLE) {
+				return time;
+			}
+		}
+	}
+
+	/**
+	 * Copies the latest sample.
+	 *
+	 * @param times - receives the sample time at index 0
+	 * @param values - receives the sample values from index 0
+	 * @return 1 if a sample was copied, 0 if nothing has been published
+	 */
+	public int latest(long[] times, float[] values) {
+		return window(1, times, values);
+	}
+
+	/**
+	 * Copies the last n samples, oldest first. Fewer are copied if fewer are held,
+	 * or if the producer overwrites the oldest ones while they are being read.
+	 *
+	 * @param n - number of samples wanted, at most the depth and the length of times
+	 * @param times - receives the sample times
+	 * @param values - receives width values per sample
+	 * @return number of samples copied
+	 */
+	public int window(int n, long[] times, float[] values) {
+		n = Math.min(n, Math.min(depth, times.length));
+		long end = count;
+		return copyRange(Math.max(0, end - n), end, times, values);
+	}
+
+	/**
+	 * Copies every held sample taken after the given time, oldest first, up to the length of times.
+	 *
+	 * @param time - System.nanoTime() to copy samples after
+	 * @param times - receives the sample times
+	 * @param values - receives width values per sample
+	 * @return number of samples copied
+	 */
+	public int since(long time, long[] times, float[] values) {
+		long end = count;
+		long limit = Math.max(0, end - Math.min(depth, times.length));
+		long seq = end;
+		while (seq > limit) {
+			long sampleTime = readTime(seq - 1);
+			if (sampleTime == NO_SAMPLE || sampleTime - time <= 0) {
+				break;
+			}
+			seq--;
+		}
+		// Copy exactly the samples found, even if more have been published since
+		return copyRange(seq, end, times, values);
+	}
+
+	/*
+	 * Copies the samples with sequence numbers from start up to end, oldest first.
+	 */
+	private int copyRange(long start, long end, long[] times, float[] values) {
+		int copied = 0;
+		for (long seq = start; seq < end; seq++) {
+			if (readEntry(seq, times, values, copied)) {
+				copied++;
+			} else {
+				// Overwritten while reading; only keep what is newer than the gap.
+				copied = 0;
+			}
+		}
+		return copied;
+	}
+
+	private int slotBase(long seq) {
+		return (int)(seq % depth) * stride;
+	}
+
+	private long readTime(long seq) {
+		int base = slotBase(seq);
+		if (slots.get(base) != seq) {
+			return NO_SAMPLE;
+		}
+		long time = slots.get(base + 1);
+		return (slots.get(base) == seq) ? time : NO_SAMPLE;
+	}
+
+	private boolean readEntry(long seq, long[] times, float[] values, int index) {
+		int base = slotBase(seq);
+		if (slots.get(base) != seq) {
+			return false;
+		}
+		times[index] = slots.get(base + 1);
+		int valueIndex = index * width;
+		for (int i = 0; i < width; i++) {
+			values[valueIndex + i] = Float.intBitsToFloat((int)slots.get(base + 2 + i));
+		}
+		return slots.get(base) == seq;
+	}
+}
@@ -0,0 +1,86 @@
+/*
+ * SamplingPolicy.java
+ *
+ * Raises and lowers each sensor's polling rate depending on what the rover is doing,
+ * e.g. the colour sensor runs flat out along a sweep lane but slowly while parked.
+ * Rates are read from config.properties as <sensor>_sensor_rate.<profile>, falling
+ * back to <sensor>_sensor_rate when a profile doesn't set one.
+ *
+ * Authors: SEP UG02
+ */
+
+import java.util.Properties;
+
+public class SamplingPolicy implements PolledSensor {
+
+	// Names the sensors are registered with in the SensorScheduler
+	private static final String[] sensors = {"touch", "colour", "gyro", "ultrasonic"};
+
+	private Rover rover;
+	private SensorScheduler scheduler;
+
+	// rates[profile][sensor] in Hz
+	private int[][] rates;
+	private volatile SamplingProfile profile = null;
+	private volatile boolean calibrating = false;
+
+	/**
+	 * Constructor
+	 *
+	 * @param rover - rover whose mode and motion select the profile
+	 * @param scheduler - scheduler whose rates are changed
+	 * @param prop - configuration holding the rates
+	 */
+	SamplingPolicy(Rover rover, SensorScheduler scheduler, Properties prop) {
+		this.rover = rover;
+		this.scheduler = scheduler;
+
+		SamplingProfile[] profiles = SamplingProfile.values();
+		rates = new int[profiles.length][sensors.length];
+		for (int p = 0; p < profiles.length; p++) {
+			for (int s = 0; s < sensors.length; s++) {
+				String fallback = prop.getProperty(sensors[s] + "_sensor_rate");
+				rates[p][s] = Integer.valueOf(prop.getProperty(sensors[s] + "_sensor_rate." + profiles[p], fallback));
+			}
+		}
+	}
+
+	/**
+	 * Selects the calibration profile while colour samples are being recorded, applying it
+	 * straight away rather than at the next poll.
+	 *
+	 * @param calibrating - whether calibration is under way
+	 */
+	public void setCalibrating(boolean calibrating) {
+		this.calibrating = calibrating;
+		poll();
+	}
+
+	/**
+	 * Works out which profile applies and applies its rates if it has changed.
+	 */
+	public synchronized void poll() {
+		SamplingProfile current;
+		if (calibrating) {
+			current = SamplingProfile.calibration;
+		} else if (rover.getMode() == MODE.automatic) {
+			current = rover.isLaneTravel() ? SamplingProfile.lane : SamplingProfile.automatic;
+		} else {
+			current = rover.isMoving() ? SamplingProfile.manual : SamplingProfile.idle;
+		}
+
+		if (current != profile) {
+			for (int s = 0; s < sensors.length; s++) {
+				scheduler.setRate(sensors[s], rates[current.ordinal()][s]);
+			}
+			profile = current;
+		}
+	}
+
+	/**
+	 * @return profile whose rates are currently applied, or null before the first poll
+	 */
+	public SamplingProfile getProfile() {
+		return profile;
+	}
+}
@@ -0,0 +1,15 @@
+/*
+* SamplingProfile.java
+*
+* A SamplingProfile enum that contains the situations the SamplingPolicy picks sensor rates for:
+* idle - manual mode, not moving
+* manual - manual mode, moving
+* automatic - automatic mode, not travelling along a sweep lane
+* lane - automatic mode, travelling along a sweep lane
+* calibration - recording colour samples for calibration, in any mode
+*
+* Authors: SEP UG02
+*/
+public enum SamplingProfile {
+	idle, manual, automatic, lane, calibration
+}
@@ -0,0 +1,16 @@
+/*
+* SensorChannel.java
+*
+* A SensorChannel enum that contains the kinds of record in a sensor log:
+* touch - [pressed (1 or 0)]
+* colourId - [colour id]
+* colourRgb - [red, green, blue]
+* gyro - [angle, rate]
+* ultrasonic - [distance in m, as returned by the sensor]
+* tacho - [left tacho count, right tacho count]
+*
+* Authors: SEP UG02
+*/
+public enum SensorChannel {
+	touch, colourId, colourRgb, gyro, ultrasonic, tacho
+}
@@ -0,0 +1,289 @@
+/*
+ * SensorEventBus.java
+ *
+ * Turns the stream of sensor samples into edge triggered events (colour entered/left,
+ * distance crossing a threshold, bumper pressed/released) that threads can block on,
+ * instead of spinning on a getter until it changes.
+ *
+ * Authors: SEP UG02
+ */
+public class SensorEventBus {
+
+	// Number of recent events kept for waiting threads to check
+	private static final int capacity = 64;
+
+	private static final SensorEventType[] types = SensorEventType.values();
+
+	// Recent events as a circular buffer, indexed by event number % capacity
+	private final int[] eventTypes = new int[capacity];
+	private final int[] eventValues = new int[capacity];
+	private final long[] eventTimes = new long[capacity];
+	private long published = 0;
+
+	// Last sample state, only touched by the sampling thread
+	private int lastColour = Integer.MIN_VALUE;
+	private boolean lastPressed = false;
+
+	// Distance thresholds and which side of each the last distance was on, replaced as a whole
+	// when a threshold is added so the sampling thread always sees a matching pair
+	private volatile DistanceState distanceState = new DistanceState(new int[0], new boolean[0]);
+	private volatile int lastDistance = Integer.MIN_VALUE;
+
+	// Time from the sample that triggered an event to the waiting thread waking, in ns
+	private long wakeups = 0;
+	private long totalLatency = 0;
+	private long maxLatency = 0;
+
+	private static class DistanceState {
+		final int[] thresholds;
+		final boolean[] below;
+
+		DistanceState(int[] thresholds, boolean[] below) {
+			this.thresholds = thresholds;
+			this.below = below;
+		}
+	}
+
+	/**
+	 * Predicate for the obstacle distance crossing a threshold, which the threshold is read back from.
+	 */
+	private static class DistancePredicate implements SensorEventPredicate {
+		final SensorEventType type;
+		final int distance;
+
+		DistancePredicate(SensorEventType type, int distance) {
+			this.type = type;
+			this.distance = distance;
+		}
+
+		public boolean matches(SensorEventType type, int value) {
+			return type == this.type && value == distance;
+		}
+	}
+
+	/**
+	 * Adds an obstacle distance at which distanceBelow and distanceAbove events are fired, if
+	 * it isn't one already. Safe to call while sampling.
+	 *
+	 * @param distance - threshold in mm
+	 */
+	public synchronized void addDistanceThreshold(int distance) {
+		DistanceState current = distanceState;
+		for (int threshold : current.thresholds) {
+			if (threshold == distance) {
+				return;
+			}
+		}
+		int count = current.thresholds.length;
+		int[] thresholds = new int[count + 1];
+		boolean[] below = new boolean[count + 1];
+		System.arraycopy(current.thresholds, 0, thresholds, 0, count);
+		System.arraycopy(current.below, 0, below, 0, count);
+		thresholds[count] = distance;
+		// Start from the last distance, so the first crossing after this fires
+		int last = lastDistance;
+		below[count] = last != Integer.MIN_VALUE && last < distance;
+		distanceState = new DistanceState(thresholds, below);
+	}
+
+	/**
+	 * Feeds the latest colour reading. Called at colour sensor rate.
+	 */
+	public void colourSample(int colourId, long time) {
+		if (colourId != lastColour) {
+			synchronized (this) {
+				if (lastColour != Integer.MIN_VALUE) {
+					fire(SensorEventType.colourLeft, lastColour, time);
+				}
+				fire(SensorEventType.colourEntered, colourId, time);
+				notifyAll();
+			}
+			lastColour = colourId;
+		}
+	}
+
+	/**
+	 * Feeds the latest obstacle distance. Called at ultrasonic sensor rate.
+	 */
+	public void distanceSample(int distance, long time) {
+		DistanceState current = distanceState;
+		boolean hasDistance = lastDistance != Integer.MIN_VALUE;
+		boolean changed = false;
+		for (int i = 0; i < current.thresholds.length; i++) {
+			boolean isBelow = distance < current.thresholds[i];
+			if (hasDistance && isBelow != current.below[i]) {
+				synchronized (this) {
+					fire(isBelow ? SensorEventType.distanceBelow : SensorEventType.distanceAbove,
+							current.thresholds[i], time);
+				}
+				changed = true;
+			}
+			current.below[i] = isBelow;
+		}
+		lastDistance = distance;
+		if (changed) {
+			synchronized (this) {
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Feeds the latest bumper state. Called at touch sensor rate.
+	 */
+	public void bumperSample(boolean pressed, long time) {
+		if (pressed != lastPressed) {
+			synchronized (this) {
+				fire(pressed ? SensorEventType.bumperPressed : SensorEventType.bumperReleased, 0, time);
+				notifyAll();
+			}
+			lastPressed = pressed;
+		}
+	}
+
+	/**
+	 * @return sequence number of the next event to be fired, to pass to awaitEvent()
+	 */
+	public synchronized long getSequence() {
+		return published;
+	}
+
+	/**
+	 * Blocks until an event matching the predicate is fired, or the timeout passes.
+	 * Events from the given sequence number on are considered, so callers should read
+	 * the sequence before checking the current state, and then wait from it, e.g.
+	 * for (long seq = bus.getSequence(); colour() != Color.BLUE; seq = bus.getSequence())
+	 *     bus.awaitEvent(enteredBlue, seq, 50);
+	 * An event fired between the check and the wait is then still seen.
+	 *
+	 * @param predicate - the event to wait for
+	 * @param fromSequence - sequence number read with getSequence() before checking the state
+	 * @param timeout - longest time to wait in ms
+	 * @return true if a matching event was fired, false if the wait timed out
+	 * @throws IllegalArgumentException if the predicate is for a distance that isn't a threshold
+	 */
+	public synchronized boolean awaitEvent(SensorEventPredicate predicate, long fromSequence, long timeout) {
+		if (predicate instanceof DistancePredicate) {
+			checkThreshold(((DistancePredicate)predicate).distance);
+		}
+		long deadline = System.currentTimeMillis() + timeout;
+		long next = fromSequence;
+		while (true) {
+			// Check events fired since we last looked, skipping any that have been overwritten
+			next = Math.max(next, published - capacity);
+			for (; next < published; next++) {
+				int i = (int)(next % capacity);
+				if (predicate.matches(types[eventTypes[i]], eventValues[i])) {
+					recordLatency(System.nanoTime() - eventTimes[i]);
+					return true;
+				}
+			}
+
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0) {
+				return false;
+			}
+			try {
+				wait(remaining);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * @return number of events fired since start
+	 */
+	public synchronized long getEventCount() {
+		return published;
+	}
+
+	/**
+	 * @return average time from the triggering sample to a waiting thread waking, in microseconds
+	 */
+	public synchronized double getAverageLatency() {
+		return (wakeups == 0) ? 0 : totalLatency / (wakeups * 1000.0);
+	}
+
+	/**
+	 * @return longest time from the triggering sample to a waiting thread waking, in microseconds
+	 */
+	public synchronized double getMaxLatency() {
+		return maxLatency / 1000.0;
+	}
+
+	/**
+	 * Predicate for the colour sensor starting to see a colour.
+	 */
+	public static SensorEventPredicate colourEntered(final int colourId) {
+		return new SensorEventPredicate() {
+			public boolean matches(SensorEventType type, int value) {
+				return type == SensorEventType.colourEntered && value == colourId;
+			}
+		};
+	}
+
+	/**
+	 * Predicate for the colour sensor no longer seeing a colour.
+	 */
+	public static SensorEventPredicate colourLeft(final int colourId) {
+		return new SensorEventPredicate() {
+			public boolean matches(SensorEventType type, int value) {
+				return type == SensorEventType.colourLeft && value == colourId;
+			}
+		};
+	}
+
+	/**
+	 * Predicate for the obstacle distance dropping below a threshold, which is added to the
+	 * thresholds events are fired at.
+	 */
+	public SensorEventPredicate distanceBelow(int distance) {
+		addDistanceThreshold(distance);
+		return new DistancePredicate(SensorEventType.distanceBelow, distance);
+	}
+
+	/**
+	 * Predicate for the obstacle distance rising to or above a threshold, which is added to the
+	 * thresholds events are fired at.
+	 */
+	public SensorEventPredicate distanceAbove(int distance) {
+		addDistanceThreshold(distance);
+		return new DistancePredicate(SensorEventType.distanceAbove, distance);
+	}
+
+	private void checkThreshold(int distance) {
+		for (int threshold : distanceState.thresholds) {
+			if (threshold == distance) {
+				return;
+			}
+		}
+		throw new IllegalArgumentException("No distance events are fired at " + distance + "mm");
+	}
+
+	/**
+	 * Predicate for the bumper being pressed.
+	 */
+	public static SensorEventPredicate bumperPressed() {
+		return new SensorEventPredicate() {
+			public boolean matches(SensorEventType type, int value) {
+				return type == SensorEventType.bumperPressed;
+			}
+		};
+	}
+
+	private void fire(SensorEventType type, int value, long time) {
+		int i = (int)(published % capacity);
+		eventTypes[i] = type.ordinal();
+		eventValues[i] = value;
+		eventTimes[i] = time;
+		published++;
+	}
+
+	private void recordLatency(long latency) {
+		wakeups++;
+		totalLatency += latency;
+		maxLatency = Math.max(maxLatency, latency);
+	}
+}
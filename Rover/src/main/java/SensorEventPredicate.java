@@ -0,0 +1,16 @@
+/*
+ * SensorEventPredicate.java
+ *
+ * Interface for choosing which sensor events a caller of SensorEventBus.awaitEvent() is waiting for.
+ *
+ * Authors: SEP UG02
+ */
+public interface SensorEventPredicate {
+
+	/**
+	 * @param type - type of the event
+	 * @param value - colour id for colour events, threshold in mm for distance events, 0 for bumper events
+	 * @return true if this is the event being waited for
+	 */
+	boolean matches(SensorEventType type, int value);
+}
@@ -0,0 +1,13 @@
+/*
+* SensorEventType.java
+*
+* A SensorEventType enum that contains the sensor transitions the SensorEventBus reports:
+* colourEntered / colourLeft - the colour sensor started / stopped seeing a colour (value is the colour id)
+* distanceBelow / distanceAbove - the obstacle distance crossed a threshold (value is the threshold in mm)
+* bumperPressed / bumperReleased - the bumper changed state
+*
+* Authors: SEP UG02
+*/
+public enum SensorEventType {
+	colourEntered, colourLeft, distanceBelow, distanceAbove, bumperPressed, bumperReleased
+}
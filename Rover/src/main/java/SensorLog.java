@@ -0,0 +1,85 @@
+/*
+ * SensorLog.java
+ *
+ * Read-only view of a log written by SensorRecorder, memory mapped so records can be
+ * read by index without copying the file.
+ *
+ * Authors: SEP UG02
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+public class SensorLog {
+
+	private static final SensorChannel[] channels = SensorChannel.values();
+
+	private MappedByteBuffer buffer;
+	private int records;
+
+	// Time replay started at, shared so every sensor replays against the same clock
+	private long replayStart = 0;
+
+	/**
+	 * Constructor
+	 *
+	 * @param path - log file written by SensorRecorder
+	 */
+	public SensorLog(File path) throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(path, "r")) {
+			buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+		}
+		if (buffer.getInt(0) != SensorRecorder.fileMagic || buffer.getInt(4) != SensorRecorder.fileVersion)
+			throw new IOException("not a sensor log: " + path);
+		long count = buffer.getLong(8);
+		long available = (buffer.capacity() - SensorRecorder.headerSize) / SensorRecorder.recordSize;
+		records = (int)Math.min(count, available);
+	}
+
+	/**
+	 * @return number of records in the log
+	 */
+	public int size() {
+		return records;
+	}
+
+	/**
+	 * @return System.nanoTime() the record was taken at
+	 */
+	public long getTime(int record) {
+		return buffer.getLong(offset(record));
+	}
+
+	/**
+	 * @return which sensor the record came from
+	 */
+	public SensorChannel getChannel(int record) {
+		return channels[buffer.getInt(offset(record) + 8)];
+	}
+
+	/**
+	 * @return value of a record, index from 0 to SensorRecorder.valuesPerRecord - 1
+	 */
+	public float getValue(int record, int index) {
+		return buffer.getFloat(offset(record) + 12 + 4 * index);
+	}
+
+	/**
+	 * Nanoseconds of log time that have passed in a real time replay. The replay clock
+	 * starts the first time any sensor asks for it.
+	 */
+	public synchronized long replayElapsed() {
+		long now = System.nanoTime();
+		if (replayStart == 0) {
+			replayStart = now;
+		}
+		return now - replayStart;
+	}
+
+	private int offset(int record) {
+		return SensorRecorder.headerSize + record * SensorRecorder.recordSize;
+	}
+}
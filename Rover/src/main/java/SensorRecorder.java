@@ -0,0 +1,113 @@
+/*
+ * SensorRecorder.java
+ *
+ * Appends sensor samples and motor tacho counts to a memory-mapped log file as fixed-size
+ * records, so field runs can be replayed on a desk with ReplaySampleProvider.
+ *
+ * File layout: a 16 byte header [magic, version, record count] followed by records of
+ * [time (long), channel (int), value0, value1, value2 (floats)].
+ *
+ * Authors: SEP UG02
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+public class SensorRecorder {
+
+	public static final int fileMagic = 0x534c4f47; // "SLOG"
+	public static final int fileVersion = 1;
+	public static final int headerSize = 16;
+	public static final int recordSize = 24;
+	public static final int valuesPerRecord = 3;
+
+	// Records mapped at a time; the next chunk is mapped when this one fills
+	private static final int chunkRecords = 1 << 16;
+
+	private RandomAccessFile file;
+	private FileChannel channel;
+	private MappedByteBuffer header;
+	private MappedByteBuffer chunk;
+	private long records = 0;
+
+	/**
+	 * Constructor. Creates or overwrites the log file.
+	 *
+	 * @param path - log file to write
+	 */
+	public SensorRecorder(File path) throws IOException {
+		file = new RandomAccessFile(path, "rw");
+		file.setLength(0);
+		channel = file.getChannel();
+		header = channel.map(FileChannel.MapMode.READ_WRITE, 0, headerSize);
+		header.putInt(0, fileMagic);
+		header.putInt(4, fileVersion);
+		header.putLong(8, 0);
+		mapChunk();
+	}
+
+	/**
+	 * Appends a record. Missing values are written as 0.
+	 *
+	 * @param source - which sensor the values came from
+	 * @param time - System.nanoTime() of the sample
+	 * @param values - sample values
+	 * @param offset - index of the first value in values
+	 * @param count - number of values, at most valuesPerRecord
+	 */
+	public synchronized void record(SensorChannel source, long time, float[] values, int offset, int count) {
+		if (chunk == null) {
+			return;
+		}
+		if (!chunk.hasRemaining()) {
+			try {
+				mapChunk();
+			} catch (IOException e) {
+				e.printStackTrace();
+				chunk = null;
+				return;
+			}
+		}
+		chunk.putLong(time);
+		chunk.putInt(source.ordinal());
+		for (int i = 0; i < valuesPerRecord; i++) {
+			chunk.putFloat((i < count) ? values[offset + i] : 0f);
+		}
+		records++;
+		header.putLong(8, records);
+	}
+
+	/**
+	 * @return number of records written
+	 */
+	public synchronized long getRecordCount() {
+		return records;
+	}
+
+	/**
+	 * Flushes the log to disk and closes the file.
+	 */
+	public synchronized void close() {
+		try {
+			if (chunk != null) {
+				chunk.force();
+			}
+			header.force();
+			chunk = null;
+			file.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void mapChunk() throws IOException {
+		if (chunk != null) {
+			chunk.force();
+		}
+		long position = headerSize + records * recordSize;
+		chunk = channel.map(FileChannel.MapMode.READ_WRITE, position, (long)chunkRecords * recordSize);
+	}
+}
@@ -0,0 +1,198 @@
+/*
+ * SensorScheduler.java
+ *
+ * A single thread that polls every registered sensor at its own fixed rate,
+ * instead of each sensor spinning in its own thread.
+ *
+ * Authors: SEP UG02
+ */
+
+public class SensorScheduler extends Thread {
+
+	private static final long NANOS_PER_SECOND = 1000000000L;
+	private static final long NANOS_PER_MILLI = 1000000L;
+
+	// Weight given to the newest interval when averaging rate and jitter.
+	private static final double STATS_WEIGHT = 0.05;
+
+	// Copied on write so the polling loop never needs a lock.
+	private volatile Task[] tasks = new Task[0];
+
+	/**
+	 * A sensor registered with the scheduler, its period and its timing statistics.
+	 */
+	private static class Task {
+		final String name;
+		final PolledSensor sensor;
+		volatile long period;
+		long nextDue;
+		long lastPoll;
+		volatile double averageInterval;
+		volatile double averageJitter;
+
+		Task(String name, PolledSensor sensor, long period) {
+			this.name = name;
+			this.sensor = sensor;
+			this.period = period;
+		}
+
+		/**
+		 * Updates the achieved rate and jitter with a poll that started at time now.
+		 */
+		void record(long now) {
+			if (lastPoll != 0) {
+				long interval = now - lastPoll;
+				if (averageInterval == 0) {
+					averageInterval = interval;
+				}
+				averageInterval += STATS_WEIGHT * (interval - averageInterval);
+				averageJitter += STATS_WEIGHT * (Math.abs(interval - period) - averageJitter);
+			}
+			lastPoll = now;
+		}
+	}
+
+	/**
+	 * Constructor
+	 */
+	SensorScheduler() {
+		setName("SensorScheduler");
+	}
+
+	/**
+	 * Registers a sensor to be polled at the given rate.
+	 *
+	 * @param name - name used to look the sensor up when reporting or changing its rate
+	 * @param sensor - sensor to poll
+	 * @param rate - polling rate in Hz
+	 */
+	public synchronized void register(String name, PolledSensor sensor, int rate) {
+		Task task = new Task(name, sensor, toPeriod(rate));
+		task.nextDue = System.nanoTime();
+
+		Task[] updated = new Task[tasks.length + 1];
+		System.arraycopy(tasks, 0, updated, 0, tasks.length);
+		updated[tasks.length] = task;
+		tasks = updated;
+		notifyAll();
+	}
+
+	/**
+	 * Changes the polling rate of a registered sensor.
+	 *
+	 * @param name - name the sensor was registered with
+	 * @param rate - new polling rate in Hz
+	 */
+	public void setRate(String name, int rate) {
+		Task task = find(name);
+		if (task != null) {
+			task.period = toPeriod(rate);
+		}
+	}
+
+	/**
+	 * @return names of all registered sensors, in registration order
+	 */
+	public String[] getNames() {
+		Task[] current = tasks;
+		String[] names = new String[current.length];
+		for (int i = 0; i < current.length; i++) {
+			names[i] = current[i].name;
+		}
+		return names;
+	}
+
+	/**
+	 * @return the configured polling rate of a sensor in Hz, or 0 if it is not registered
+	 */
+	public double getTargetRate(String name) {
+		Task task = find(name);
+		return (task == null) ? 0 : (double)NANOS_PER_SECOND / task.period;
+	}
+
+	/**
+	 * @return the rate a sensor has actually been polled at in Hz, or 0 if it has not been polled yet
+	 */
+	public double getAchievedRate(String name) {
+		Task task = find(name);
+		if (task == null || task.averageInterval == 0) {
+			return 0;
+		}
+		return NANOS_PER_SECOND / task.averageInterval;
+	}
+
+	/**
+	 * @return average deviation of the time between polls from the configured period, in microseconds
+	 */
+	public double getJitter(String name) {
+		Task task = find(name);
+		return (task == null) ? 0 : task.averageJitter / 1000.0;
+	}
+
+	/**
+	 * Polls each sensor when it is due, sleeping until the next one is.
+	 */
+	public void run() {
+		while (true) {
+			Task next;
+			try {
+				next = waitForTasks();
+			} catch (InterruptedException e) {
+				return;
+			}
+
+			// Find the sensor that is due soonest.
+			Task[] current = tasks;
+			for (int i = 0; i < current.length; i++) {
+				if (current[i].nextDue - next.nextDue < 0) {
+					next = current[i];
+				}
+			}
+
+			long wait = next.nextDue - System.nanoTime();
+			if (wait > 0) {
+				try {
+					Thread.sleep(wait / NANOS_PER_MILLI, (int)(wait % NANOS_PER_MILLI));
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+
+			long now = System.nanoTime();
+			next.sensor.poll();
+			next.record(now);
+
+			// Keep to the fixed rate, but don't try to catch up on polls we have missed.
+			next.nextDue += next.period;
+			if (next.nextDue - now < 0) {
+				next.nextDue = now + next.period;
+			}
+		}
+	}
+
+	/**
+	 * Blocks until at least one sensor has been registered.
+	 *
+	 * @return the first registered task
+	 */
+	private synchronized Task waitForTasks() throws InterruptedException {
+		while (tasks.length == 0) {
+			wait();
+		}
+		return tasks[0];
+	}
+
+	private Task find(String name) {
+		Task[] current = tasks;
+		for (int i = 0; i < current.length; i++) {
+			if (current[i].name.equals(name)) {
+				return current[i];
+			}
+		}
+		return null;
+	}
+
+	private static long toPeriod(int rate) {
+		return NANOS_PER_SECOND / Math.max(1, rate);
+	}
+}
@@ -0,0 +1,104 @@
+/*
+ * SensorSnapshot.java
+ *
+ * An immutable set of pose and sensor readings all taken at the same instant, so that
+ * behaviours and telemetry see one consistent view of the rover.
+ *
+ * Authors: SEP UG02
+ */
+public final class SensorSnapshot {
+
+	private final long time;
+	private final double x;
+	private final double y;
+	private final double unadjustedX;
+	private final double unadjustedY;
+	private final double orientation;
+	private final int colourId;
+	private final int obstacleDistance;
+	private final boolean bumperPressed;
+	private final int rotationAngle;
+	private final int rotationRate;
+	private final boolean inRadiation;
+
+	/**
+	 * Constructor
+	 *
+	 * @param time - System.nanoTime() the snapshot was taken at
+	 * @param x - x position of the colour sensor in mm
+	 * @param y - y position of the colour sensor in mm
+	 * @param unadjustedX - x position of the centre of rotation in mm
+	 * @param unadjustedY - y position of the centre of rotation in mm
+	 * @param orientation - heading in degrees
+	 * @param colourId - colour id detected by the colour sensor
+	 * @param obstacleDistance - distance to the nearest obstacle in mm
+	 * @param bumperPressed - whether the bumper is pressed
+	 * @param rotationAngle - gyro angle in degrees
+	 * @param rotationRate - gyro rate in degrees/sec
+	 * @param inRadiation - whether the rover is sweeping a radiation zone
+	 */
+	public SensorSnapshot(long time, double x, double y, double unadjustedX, double unadjustedY,
+			double orientation, int colourId, int obstacleDistance, boolean bumperPressed,
+			int rotationAngle, int rotationRate, boolean inRadiation) {
+		this.time = time;
+		this.x = x;
+		this.y = y;
+		this.unadjustedX = unadjustedX;
+		this.unadjustedY = unadjustedY;
+		this.orientation = orientation;
+		this.colourId = colourId;
+		this.obstacleDistance = obstacleDistance;
+		this.bumperPressed = bumperPressed;
+		this.rotationAngle = rotationAngle;
+		this.rotationRate = rotationRate;
+		this.inRadiation = inRadiation;
+	}
+
+	public long getTime() {
+		return time;
+	}
+
+	public double getXPos() {
+		return x;
+	}
+
+	public double getYPos() {
+		return y;
+	}
+
+	public double getUnadjustedXPos() {
+		return unadjustedX;
+	}
+
+	public double getUnadjustedYPos() {
+		return unadjustedY;
+	}
+
+	public double getOrientation() {
+		return orientation;
+	}
+
+	public int getColourID() {
+		return colourId;
+	}
+
+	public int getObstacleDistance() {
+		return obstacleDistance;
+	}
+
+	public boolean bumperPressed() {
+		return bumperPressed;
+	}
+
+	public int getRotationAngle() {
+		return rotationAngle;
+	}
+
+	public int getRotationRate() {
+		return rotationRate;
+	}
+
+	public boolean getRadiation() {
+		return inRadiation;
+	}
+}
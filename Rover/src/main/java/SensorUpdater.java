@@ -1,125 +1,179 @@
 /*
  * SensorUpdater.java
  * 
- * Class for displaying sensor data to EV3 LCD screen
+ * Class for sending sensor data to the UI
  * 
  * Authors: SEP UG02
  */
-import lejos.hardware.lcd.LCD;
-import lejos.hardware.lcd.TextLCD;
-
-import java.io.BufferedWriter;
-import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.net.Socket;
-import java.net.UnknownHostException;
-
-import lejos.hardware.ev3.LocalEV3;
+import java.util.Properties;
 
 public class SensorUpdater extends Thread {
 	
+	// How often the achieved sensor rates are sent to the UI, in ms
+	private static final long ratesInterval = 1000;
+	
 	private Rover rover;
-	private Socket socket;
-	private BufferedWriter pw;
+	private long lastRatesTime = 0;
+	
+	// Limits the frame rate and skips frames that have not changed enough to be worth sending
+	private final TelemetryPolicy policy;
+	private long nextFrameTime;
+	
+	// Frames are handed to a separate sender so a stalled UI connection can't hold up the LCD
+	private final TelemetryQueue queue;
+	private final TelemetrySender sender;
 	
 	/**
 	 * Constructor
 	 */
 	SensorUpdater(Rover rover) {
         this.rover = rover;
+        
+        Properties prop = Helpers.loadProperties();
+        policy = new TelemetryPolicy(prop);
+        queue = new TelemetryQueue(Integer.valueOf(prop.getProperty("telemetry_queue_capacity")),
+        		TelemetryDropPolicy.valueOf(prop.getProperty("telemetry_drop_policy")));
+        sender = new TelemetrySender(rover, queue, prop);
+        sender.setDaemon(true);
     }
 	
 	/**
-	 * Continuously polls for sensor readings
+	 * Sends sensor readings to the UI at the telemetry rate
 	 */
 	public void run() {
-		TextLCD t = LocalEV3.get().getTextLCD();
-		LCD.setAutoRefresh(false);
+		sender.start();
 		
-		// Draw initial sensor text values and titles.
-		t.drawString("Sensors", 5, 0);		
-		t.drawString("Colour: "+ Integer.toString(rover.getColourSensorColourID()), 0, 2);
-		t.drawString("Gyro: "+ Double.toString(rover.getOrientation())+
-				   " "+ Integer.toString(rover.getRotationRate()),  0, 3);
-		t.drawString("Ultrasonic: "+ Integer.toString(rover.getObstacleDistance()), 0, 4);
-		t.drawString("Bumper: "+ Boolean.toString(rover.bumperPressed()), 0, 5);
-		t.drawString("X: "+ Double.toString(rover.getXPos()), 0, 6);
-		t.drawString("Y: "+ Double.toString(rover.getXPos()), 0, 7);
-		
-		
-		// Clear old sensor readings and draw
-		while(true) {			
-			t.clear(8,2,5);
-			t.drawString(Integer.toString(rover.getColourSensorColourID()), 8, 2);
-			t.clear(6,3,10);
-			t.drawString(Double.toString(rover.getOrientation()), 6, 3);
-			t.drawString(Integer.toString(rover.getRotationRate()), 10, 3);
-			t.clear(12,4,6);
-			t.drawString(Integer.toString(rover.getObstacleDistance()), 12, 4);
-			t.clear(8,5,5);
-			t.drawString(Boolean.toString(rover.bumperPressed()), 8, 5);
-			t.clear(3,6,10);
-			t.drawString(Double.toString(rover.getXPos()), 3, 6);
-			t.clear(3,7,10);
-			t.drawString(Double.toString(rover.getYPos()), 3, 7);
-			LCD.refresh();
+		nextFrameTime = System.nanoTime();
+		boolean wasConnected = false;
+		while(true) {
+			if (!waitForNextFrame()) {
+				return;
+			}
+			
+			// Read every value from a single snapshot so the frame is consistent
+			SensorSnapshot snapshot = rover.getSnapshot();
 			
 			// Send to UI.
-			// If the host address is defined and the rover is not connected, connect the rover.
-			if (rover.getHostAddress() != null && !rover.isConnected()) {
-				createSocket();
-				rover.setConnected(true);
+			// The sender connects once the host address is defined; start each connection with a keyframe.
+			boolean connected = rover.isConnected();
+			if (connected && !wasConnected) {
+				policy.reset();
 			}
+			wasConnected = connected;
 			
-			// If the rover is connected, send the sensor data as a single message to the server.
-			if (rover.isConnected()) {
-				// Order of messages sent are in one line as follows:
-				// SENSORS x y colorid rotationangle obstacledistance
-				StringBuilder sb = new StringBuilder();
-				sb.append("SENSORS ");
-				sb.append(Double.toString(rover.getXPos()) + " ");
-				sb.append(Double.toString(rover.getYPos()) + " ");
-				sb.append(Integer.toString(rover.getColourSensorColourID()) + " ");
-				sb.append(Double.toString(rover.getOrientation()) + " ");
-				sb.append(Integer.toString(rover.getObstacleDistance()) + " ");
-				sb.append(Boolean.toString(rover.getRadiation()) + " ");
-				sendCommand(sb.toString());
+			// If the rover is connected, queue the sensor data as a single message to the server.
+			if (connected) {
+				// Only send the snapshot if it has changed enough, or a keyframe is due
+				if (policy.shouldSend(snapshot)) {
+					queue.offer(snapshot);
+				}
+				
+				if (System.currentTimeMillis() - lastRatesTime >= ratesInterval) {
+					sendCommand(ratesMessage());
+					sendCommand(statsMessage());
+					sendCommand(commandStatsMessage());
+					lastRatesTime = System.currentTimeMillis();
+				}
 			}
 		}
 	
 	}
 	
 	/**
-	 * Sends a given message over the communication socket to the rover to be interpreted as a command.
+	 * Sleeps until the next frame is due at the maximum telemetry rate,
+	 * without trying to catch up on frames that were missed.
 	 * 
-	 * @param command - message to send to the rover.
+	 * @return false if the thread was interrupted
 	 */
-	public void sendCommand(String command) {
-		if (pw == null)
-		       throw new IllegalArgumentException("writer is null");
-		if (command == null)
-		       throw new IllegalArgumentException("stats is null");
-		try {
-			pw.write(command+"\n");
-			pw.flush();
-		} catch (IOException e1) {
-			e1.printStackTrace();
+	private boolean waitForNextFrame() {
+		long wait = nextFrameTime - System.nanoTime();
+		if (wait > 0) {
+			try {
+				Thread.sleep(wait / 1000000L, (int)(wait % 1000000L));
+			} catch (InterruptedException e) {
+				return false;
+			}
 		}
+		long now = System.nanoTime();
+		nextFrameTime += policy.getPeriod();
+		if (nextFrameTime - now < 0) {
+			nextFrameTime = now + policy.getPeriod();
+		}
+		return true;
 	}
 	
 	/**
-	 * Opens a socket to the GUI via the address in rover.getHostAddress()
+	 * Builds the text protocol message for a snapshot.
+	 * Order of messages sent are in one line as follows:
+	 * SENSORS x y colorid rotationangle obstacledistance radiation
 	 */
-	public void createSocket() {
-		try {
-			this.socket = new Socket(rover.getHostAddress().getAddress().getHostAddress(), 19234);
-			pw = new BufferedWriter(new OutputStreamWriter(this.socket.getOutputStream()));
-			
-		} catch (UnknownHostException e) {
-			e.printStackTrace();
-		} catch (IOException e) {
-			e.printStackTrace();
+	static String textMessage(SensorSnapshot snapshot) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("SENSORS ");
+		sb.append(Double.toString(snapshot.getXPos()) + " ");
+		sb.append(Double.toString(snapshot.getYPos()) + " ");
+		sb.append(Integer.toString(snapshot.getColourID()) + " ");
+		sb.append(Double.toString(snapshot.getOrientation()) + " ");
+		sb.append(Integer.toString(snapshot.getObstacleDistance()) + " ");
+		sb.append(Boolean.toString(snapshot.getRadiation()) + " ");
+		return sb.toString();
+	}
+	
+	/**
+	 * Builds a message reporting the sampling profile and the rate each sensor is actually polled at.
+	 * RATES profile name rate name rate ...
+	 */
+	private String ratesMessage() {
+		SensorScheduler scheduler = rover.getSensorScheduler();
+		StringBuilder sb = new StringBuilder();
+		sb.append("RATES ");
+		sb.append(rover.getSamplingProfile());
+		for (String name : scheduler.getNames()) {
+			sb.append(" " + name + " " + Math.round(scheduler.getAchievedRate(name)));
 		}
+		return sb.toString();
+	}
+	
+	/**
+	 * Builds a message reporting how many frames were sent, suppressed, queued and dropped, and how long
+	 * they waited to be sent in microseconds.
+	 * TXSTATS name count name count ...
+	 */
+	private String statsMessage() {
+		return "TXSTATS sent " + policy.getSentCount() + " suppressed " + policy.getSuppressedCount()
+				+ " queued " + queue.getDepth() + " dropped " + queue.getDroppedCount()
+				+ " coalesced " + queue.getCoalescedCount()
+				+ " latency " + sender.getAverageLatency() + " max " + sender.getMaxLatency();
+	}
+	
+	/**
+	 * Builds a message reporting, for each command that has been run, the average and longest time
+	 * it waited to run in microseconds, and how many motion commands were cancelled or dropped.
+	 * CMDSTATS preempted count rejected count name average max name average max ...
+	 */
+	private String commandStatsMessage() {
+		CommandTable commands = rover.getCommandTable();
+		CommandExecutor executor = rover.getCommandExecutor();
+		StringBuilder sb = new StringBuilder();
+		sb.append("CMDSTATS preempted " + executor.getPreemptedCount() + " rejected " + executor.getRejectedCount());
+		for (int opcode = 0; opcode < commands.getCommandCount(); opcode++) {
+			if (executor.getExecutedCount(opcode) > 0) {
+				sb.append(" " + commands.getName(opcode) + " " + executor.getAverageLatency(opcode)
+						+ " " + executor.getMaxLatency(opcode));
+			}
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * Queues a given message to be sent to the UI.
+	 * 
+	 * @param command - message to send to the UI.
+	 */
+	public void sendCommand(String command) {
+		if (command == null)
+		       throw new IllegalArgumentException("stats is null");
+		queue.offer(command);
 	}
 	
 }
@@ -10,12 +10,20 @@ public class SweepingMovement implements Behavior {
     private static final int colourSensorWidth = 20; //Width of colour sensor units = mm
     private static final int searchDistance = 6; //This * colorsensorWidth = distance between sweeps
     private static final int sweepSpeed = 25; //Speed rover will sweep at
+    private static final long eventTimeout = 50; //ms, how often suppression is checked while waiting for a colour
+    
+    private static final SensorEventPredicate enteredBoundary = SensorEventBus.colourEntered(Color.BLUE);
+    private static final SensorEventPredicate leftBoundary = SensorEventBus.colourLeft(Color.BLUE);
     
 	private static boolean turnRight = true;
 	private boolean _suppressed = false;
 	
 	private Rover rover;
 	
+	// With a gyro fused heading, number of lanes swept between re-squaring against the boundary
+	private int realignInterval;
+	private int lanesSinceAligned = 0;
+	
 	private List<Float> upperYPositions;
 	private List<Float> lowerYPositions;
 	
@@ -23,6 +31,7 @@ public class SweepingMovement implements Behavior {
 		this.rover = r;
 		upperYPositions = new ArrayList<Float>();
 		lowerYPositions = new ArrayList<Float>();
+		realignInterval = Integer.valueOf(Helpers.loadProperties().getProperty("realign_interval"));
 	}
 	
 	
@@ -43,29 +52,49 @@ public class SweepingMovement implements Behavior {
     	//Move forward so that when we rotate sensor we will be aligned
     	rover.forward(colourSensorOffset);
     	rover.waitComplete();
+    	
+    	//A fused heading can be trusted for a few lanes, so only square up against the boundary occasionally
+    	boolean squareUp = !rover.isHeadingFused() || lanesSinceAligned >= realignInterval;
+    	lanesSinceAligned = squareUp ? 0 : lanesSinceAligned + 1;
     	if (turnRight) {
-    		//Turn right until we align with the boundary
-    		rover.turnR();
-			while (rover.getColourSensorColourID() != Color.BLUE 
-					&& !_suppressed) { }
-			rover.stop();
+    		if (squareUp) {
+	    		//Turn right until we align with the boundary
+	    		rover.turnR();
+				for (long seq = rover.getEventSequence();
+						rover.getColourSensorColourID() != Color.BLUE && !_suppressed;
+						seq = rover.getEventSequence()) {
+					rover.awaitEvent(enteredBoundary, seq, eventTimeout);
+				}
+				rover.stop();
+				rover.setOrientation(0f);
+    		}
+    		else {
+    			rover.rotateTo(0f);
+    		}
 			
 			//Move forward and then turn right to sweep new area
-			rover.setOrientation(0f);
 			rover.forward(colourSensorWidth*searchDistance);
 			rover.waitComplete();
 			rover.turnR(90f);
 			rover.waitComplete();
 		}
 		else {
-			//Turn left until we align with boundary
-			rover.turnL();
-			while (rover.getColourSensorColourID() != Color.BLUE
-					&& !_suppressed) { }
-			rover.stop();
+			if (squareUp) {
+				//Turn left until we align with boundary
+				rover.turnL();
+				for (long seq = rover.getEventSequence();
+						rover.getColourSensorColourID() != Color.BLUE && !_suppressed;
+						seq = rover.getEventSequence()) {
+					rover.awaitEvent(enteredBoundary, seq, eventTimeout);
+				}
+				rover.stop();
+				rover.setOrientation(0f);
+			}
+			else {
+				rover.rotateTo(0f);
+			}
 			
 			//Move forward and then turn left to sweep new area
-			rover.setOrientation(0f);
 			rover.forward(colourSensorWidth*searchDistance);
 			rover.waitComplete();
 			rover.turnL(90f);
@@ -104,10 +133,15 @@ public class SweepingMovement implements Behavior {
         	rover.setSpeed(sweepSpeed);
         	
         	//Move foward until we hit other side of boundary
+        	rover.setLaneTravel(true);
         	rover.forward();
-        	while (rover.getColourSensorColourID() != Color.BLUE
-        			&& !_suppressed) { }
+        	for (long seq = rover.getEventSequence();
+        			rover.getColourSensorColourID() != Color.BLUE && !_suppressed;
+        			seq = rover.getEventSequence()) {
+        		rover.awaitEvent(enteredBoundary, seq, eventTimeout);
+        	}
         	rover.stop();
+        	rover.setLaneTravel(false);
         	
         	if (!_suppressed) {
         		alignYPosition();
@@ -119,8 +153,11 @@ public class SweepingMovement implements Behavior {
         		//Move slowly until we edge off boundary then align with it
             	
             	rover.forward();
-            	while (rover.getColourSensorColourID() == Color.BLUE
-            			&& !_suppressed) { }
+            	for (long seq = rover.getEventSequence();
+            			rover.getColourSensorColourID() == Color.BLUE && !_suppressed;
+            			seq = rover.getEventSequence()) {
+            		rover.awaitEvent(leftBoundary, seq, eventTimeout);
+            	}
             	rover.stop();
             	
             	alignWithBoundary();
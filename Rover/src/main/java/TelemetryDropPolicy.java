@@ -0,0 +1,12 @@
+/*
+* TelemetryDropPolicy.java
+*
+* A TelemetryDropPolicy enum that contains what the TelemetryQueue does when the UI can't keep up:
+* dropOldest - queue every snapshot, dropping the oldest queued message when full
+* coalesce - keep only the latest unsent snapshot, replacing any older one
+*
+* Authors: SEP UG02
+*/
+public enum TelemetryDropPolicy {
+	dropOldest, coalesce
+}
@@ -0,0 +1,108 @@
+/*
+ * TelemetryPolicy.java
+ *
+ * Decides which snapshots are worth sending to the UI. A snapshot is only sent once the rover
+ * has moved, turned or seen something different by more than a deadband, or when no frame has
+ * been sent for a keyframe interval, so the UI is never left with stale data for long.
+ *
+ * Authors: SEP UG02
+ */
+
+import java.util.Properties;
+
+public class TelemetryPolicy {
+
+	private static final long NANOS_PER_MILLI = 1000000L;
+
+	// Time between telemetry frames at the maximum rate, in ns
+	private final long period;
+	// Longest time between sent frames, in ns
+	private final long keyframeInterval;
+
+	// Smallest changes that are worth sending
+	private final double positionDeadband;
+	private final double headingDeadband;
+	private final int distanceDeadband;
+
+	// Last snapshot sent, or null if a keyframe is due
+	private SensorSnapshot lastSent;
+
+	private volatile long sentCount = 0;
+	private volatile long suppressedCount = 0;
+
+	/**
+	 * Constructor
+	 *
+	 * @param prop - configuration holding the telemetry_* properties
+	 */
+	public TelemetryPolicy(Properties prop) {
+		period = 1000000000L / Math.max(1, Integer.valueOf(prop.getProperty("telemetry_max_rate")));
+		keyframeInterval = Long.valueOf(prop.getProperty("telemetry_keyframe_interval")) * NANOS_PER_MILLI;
+		positionDeadband = Double.valueOf(prop.getProperty("telemetry_position_deadband"));
+		headingDeadband = Double.valueOf(prop.getProperty("telemetry_heading_deadband"));
+		distanceDeadband = Integer.valueOf(prop.getProperty("telemetry_distance_deadband"));
+	}
+
+	/**
+	 * @return time between frames at the maximum rate, in ns
+	 */
+	public long getPeriod() {
+		return period;
+	}
+
+	/**
+	 * Makes the next snapshot a keyframe, e.g. after the UI reconnects.
+	 */
+	public void reset() {
+		lastSent = null;
+	}
+
+	/**
+	 * Decides whether a snapshot should be sent and counts it as sent or suppressed.
+	 *
+	 * @param snapshot - latest snapshot
+	 * @return true if the snapshot should be sent
+	 */
+	public boolean shouldSend(SensorSnapshot snapshot) {
+		if (lastSent == null || snapshot.getTime() - lastSent.getTime() >= keyframeInterval
+				|| changed(lastSent, snapshot)) {
+			lastSent = snapshot;
+			sentCount++;
+			return true;
+		}
+		suppressedCount++;
+		return false;
+	}
+
+	/**
+	 * @return number of snapshots sent
+	 */
+	public long getSentCount() {
+		return sentCount;
+	}
+
+	/**
+	 * @return number of snapshots not sent because nothing had changed enough
+	 */
+	public long getSuppressedCount() {
+		return suppressedCount;
+	}
+
+	private boolean changed(SensorSnapshot from, SensorSnapshot to) {
+		if (from.getColourID() != to.getColourID()
+				|| from.bumperPressed() != to.bumperPressed()
+				|| from.getRadiation() != to.getRadiation()) {
+			return true;
+		}
+		double dx = to.getXPos() - from.getXPos();
+		double dy = to.getYPos() - from.getYPos();
+		if (dx * dx + dy * dy > positionDeadband * positionDeadband) {
+			return true;
+		}
+		double turned = Math.abs(to.getOrientation() - from.getOrientation()) % 360.0;
+		if (Math.min(turned, 360.0 - turned) > headingDeadband) {
+			return true;
+		}
+		return Math.abs(to.getObstacleDistance() - from.getObstacleDistance()) > distanceDeadband;
+	}
+}
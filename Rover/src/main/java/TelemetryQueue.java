@@ -0,0 +1,191 @@
+/*
+ * TelemetryQueue.java
+ *
+ * A bounded, lock-free queue of telemetry messages between the SensorUpdater, which produces
+ * snapshots and text messages, and the TelemetrySender, which writes them to the UI.
+ * The producer never blocks: when the sender falls behind, messages are dropped or
+ * coalesced according to the TelemetryDropPolicy.
+ *
+ * Authors: SEP UG02
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+public class TelemetryQueue {
+
+	private final int capacity;
+	private final TelemetryDropPolicy policy;
+
+	// Ring of queued messages and the System.nanoTime() each was queued at.
+	// Only the producer writes slots and advances tail. Both ends advance head with a
+	// compare and set, the consumer to take a message and the producer to drop one, so a
+	// consumer that loses the race knows the slot it read has been overwritten.
+	private final AtomicReferenceArray<Object> slots;
+	private final AtomicLongArray queuedAt;
+	private final AtomicLong head = new AtomicLong();
+	private final AtomicLong tail = new AtomicLong();
+
+	// Latest snapshot waiting to be sent when coalescing, and when it was queued
+	private final AtomicReference<SensorSnapshot> pending = new AtomicReference<SensorSnapshot>();
+	private volatile long pendingAt;
+
+	// Thread to wake when a message is queued
+	private volatile Thread consumer;
+
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong coalesced = new AtomicLong();
+
+	// Time of the message last taken, so the consumer can work out its latency
+	private long lastQueuedAt;
+
+	/**
+	 * Constructor
+	 *
+	 * @param capacity - number of messages held before the oldest is dropped
+	 * @param policy - what to do with snapshots the sender hasn't caught up with
+	 */
+	public TelemetryQueue(int capacity, TelemetryDropPolicy policy) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("capacity must be positive");
+		this.capacity = capacity;
+		this.policy = policy;
+		this.slots = new AtomicReferenceArray<Object>(capacity);
+		this.queuedAt = new AtomicLongArray(capacity);
+	}
+
+	/**
+	 * Sets the thread woken when a message is queued.
+	 */
+	public void setConsumer(Thread consumer) {
+		this.consumer = consumer;
+	}
+
+	/**
+	 * Queues a snapshot. Must only be called by the producing thread.
+	 */
+	public void offer(SensorSnapshot snapshot) {
+		if (policy == TelemetryDropPolicy.coalesce) {
+			pendingAt = System.nanoTime();
+			if (pending.getAndSet(snapshot) != null) {
+				coalesced.incrementAndGet();
+			}
+			wake();
+		}
+		else {
+			enqueue(snapshot);
+		}
+	}
+
+	/**
+	 * Queues a text message. Must only be called by the producing thread.
+	 */
+	public void offer(String message) {
+		enqueue(message);
+	}
+
+	/**
+	 * Takes the next message, text messages before a coalesced snapshot.
+	 * Must only be called by the consuming thread.
+	 *
+	 * @return a SensorSnapshot, a String, or null if nothing is queued
+	 */
+	public Object poll() {
+		while (true) {
+			long h = head.get();
+			if (h == tail.get()) {
+				break;
+			}
+			int slot = (int)(h % capacity);
+			Object message = slots.get(slot);
+			long time = queuedAt.get(slot);
+			if (head.compareAndSet(h, h + 1)) {
+				lastQueuedAt = time;
+				return message;
+			}
+		}
+		// Read the time first; if a newer snapshot replaces this one in between the latency is
+		// slightly underestimated, which is fine for statistics.
+		long time = pendingAt;
+		SensorSnapshot snapshot = pending.getAndSet(null);
+		if (snapshot != null) {
+			lastQueuedAt = time;
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Waits for a message to be queued.
+	 *
+	 * @param timeout - longest time to wait in ns
+	 */
+	public void await(long timeout) {
+		if (isEmpty()) {
+			LockSupport.parkNanos(this, timeout);
+		}
+	}
+
+	/**
+	 * Drops every queued message, e.g. when the connection they were meant for is lost.
+	 */
+	public void clear() {
+		while (poll() != null) {
+		}
+	}
+
+	/**
+	 * @return System.nanoTime() the message last taken by poll() was queued at
+	 */
+	public long getLastQueuedAt() {
+		return lastQueuedAt;
+	}
+
+	/**
+	 * @return number of messages waiting to be sent
+	 */
+	public int getDepth() {
+		return (int)(tail.get() - head.get()) + (pending.get() != null ? 1 : 0);
+	}
+
+	/**
+	 * @return number of messages dropped because the queue was full
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	/**
+	 * @return number of snapshots replaced by a newer one before they were sent
+	 */
+	public long getCoalescedCount() {
+		return coalesced.get();
+	}
+
+	private boolean isEmpty() {
+		return head.get() == tail.get() && pending.get() == null;
+	}
+
+	private void enqueue(Object message) {
+		long t = tail.get();
+		long h = head.get();
+		if (t - h >= capacity && head.compareAndSet(h, h + 1)) {
+			// Full, so drop the oldest. If the consumer took it first there is room anyway.
+			dropped.incrementAndGet();
+		}
+		int slot = (int)(t % capacity);
+		queuedAt.set(slot, System.nanoTime());
+		slots.set(slot, message);
+		tail.set(t + 1);
+		wake();
+	}
+
+	private void wake() {
+		Thread waiting = consumer;
+		if (waiting != null) {
+			LockSupport.unpark(waiting);
+		}
+	}
+}
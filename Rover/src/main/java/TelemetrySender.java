@@ -0,0 +1,326 @@
+/*
+ * TelemetrySender.java
+ *
+ * Thread that connects to the UI and writes the snapshots and messages queued by the
+ * SensorUpdater, so a slow or stalled UI connection never holds up the LCD or the sensors.
+ *
+ * Authors: SEP UG02
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Properties;
+
+public class TelemetrySender extends Thread {
+
+	private static final long NANOS_PER_MILLI = 1000000L;
+
+	// Weight given to the newest message when averaging the send latency
+	private static final double STATS_WEIGHT = 0.05;
+
+	// Longest time to wait for a message before checking the connection again, in ns
+	private static final long IDLE_WAIT = 100 * NANOS_PER_MILLI;
+
+	private final Rover rover;
+	private final TelemetryQueue queue;
+
+	// Read by the write watchdog, which closes it if a write stalls
+	private volatile Socket socket;
+	private OutputStream out;
+	// Address of the UI the current connection is to
+	private InetSocketAddress connectedTo;
+
+	// Binary format to offer the UI (null to keep to text), and how long to wait for it to accept, in ms
+	private final String offer;
+	private final int handshakeTimeout;
+	// Number of delta compressed frames between keyframes
+	private final int deltaKeyframeInterval;
+	// Time to wait between attempts to connect to the UI, in ms
+	private final long reconnectInterval;
+	// Longest a write to the UI may block before the connection is dropped, in ns (0 to wait forever)
+	private final long writeTimeout;
+
+	// Time the write in progress started, or 0 if none is
+	private volatile long writeStartedAt = 0;
+
+	// Whether the UI accepted binary frames on the current connection, and if they are delta compressed
+	// or sent as UDP datagrams
+	private boolean binary;
+	private boolean delta;
+	private boolean udp;
+	private DatagramSocket datagramSocket;
+	private DatagramPacket datagram;
+	private final TelemetryFrame frame = new TelemetryFrame();
+	private int sequence = 0;
+
+	// Time from a message being queued to it being written and flushed, in ns
+	private volatile double averageLatency;
+	private volatile long maxLatency;
+
+	/**
+	 * Constructor
+	 *
+	 * @param rover - rover whose host address the UI is found at
+	 * @param queue - queue of messages to send
+	 * @param prop - configuration holding the telemetry_* properties
+	 */
+	TelemetrySender(Rover rover, TelemetryQueue queue, Properties prop) {
+		setName("TelemetrySender");
+		this.rover = rover;
+		this.queue = queue;
+		switch (prop.getProperty("telemetry_format")) {
+			case "binary":
+				offer = TelemetryFrame.HELLO;
+				break;
+			case "delta":
+				offer = TelemetryFrame.DELTA_HELLO;
+				break;
+			case "udp":
+				offer = TelemetryFrame.UDP_HELLO;
+				break;
+			default:
+				offer = null;
+		}
+		deltaKeyframeInterval = Integer.valueOf(prop.getProperty("telemetry_delta_keyframe_frames"));
+		handshakeTimeout = Integer.valueOf(prop.getProperty("telemetry_handshake_timeout"));
+		reconnectInterval = Long.valueOf(prop.getProperty("telemetry_reconnect_interval"));
+		writeTimeout = Long.valueOf(prop.getProperty("telemetry_write_timeout")) * NANOS_PER_MILLI;
+	}
+
+	/**
+	 * Connects once the UI's address is known, then sends queued messages as they arrive.
+	 * If the connection fails the queue is emptied and the sender reconnects.
+	 */
+	public void run() {
+		queue.setConsumer(this);
+		if (writeTimeout > 0) {
+			startWatchdog();
+		}
+		while (true) {
+			// Follow the UI if a control client connects from somewhere else
+			if (rover.isConnected() && !sameHost(rover.getHostAddress(), connectedTo)) {
+				disconnect();
+			}
+			if (!rover.isConnected()) {
+				if (rover.getHostAddress() != null && createSocket()) {
+					rover.setConnected(true);
+				}
+				else {
+					try {
+						Thread.sleep(reconnectInterval);
+					} catch (InterruptedException e) {
+						return;
+					}
+					continue;
+				}
+			}
+
+			Object message = queue.poll();
+			if (message == null) {
+				queue.await(IDLE_WAIT);
+				continue;
+			}
+			writeStartedAt = System.nanoTime();
+			try {
+				if (message instanceof SensorSnapshot) {
+					sendSnapshot((SensorSnapshot)message);
+				}
+				else {
+					sendText((String)message);
+				}
+				out.flush();
+				recordLatency(System.nanoTime() - queue.getLastQueuedAt());
+			} catch (IOException e) {
+				e.printStackTrace();
+				disconnect();
+			} finally {
+				writeStartedAt = 0;
+			}
+		}
+	}
+
+	/**
+	 * Starts a thread that closes the socket if a write blocks for longer than the write
+	 * timeout. A TCP write can't time out by itself, so a UI that stops reading would
+	 * otherwise hold the sender forever; once the socket is closed the write fails and the
+	 * sender reconnects.
+	 */
+	private void startWatchdog() {
+		Thread watchdog = new Thread("TelemetryWatchdog") {
+			public void run() {
+				while (true) {
+					try {
+						Thread.sleep(Math.max(1, writeTimeout / NANOS_PER_MILLI / 2));
+					} catch (InterruptedException e) {
+						return;
+					}
+					long started = writeStartedAt;
+					Socket stalled = socket;
+					if (started != 0 && stalled != null && System.nanoTime() - started > writeTimeout) {
+						System.out.println("Telemetry write stalled, dropping the connection");
+						try {
+							stalled.close();
+						} catch (IOException e) {
+							e.printStackTrace();
+						}
+					}
+				}
+			}
+		};
+		watchdog.setDaemon(true);
+		watchdog.start();
+	}
+
+	private static boolean sameHost(InetSocketAddress a, InetSocketAddress b) {
+		return a != null && b != null && a.getAddress().equals(b.getAddress());
+	}
+
+	/**
+	 * @return average time from a message being queued to it being sent, in microseconds
+	 */
+	public long getAverageLatency() {
+		return Math.round(averageLatency / 1000.0);
+	}
+
+	/**
+	 * @return longest time from a message being queued to it being sent, in microseconds
+	 */
+	public long getMaxLatency() {
+		return maxLatency / 1000;
+	}
+
+	private void recordLatency(long latency) {
+		if (averageLatency == 0) {
+			averageLatency = latency;
+		}
+		averageLatency += STATS_WEIGHT * (latency - averageLatency);
+		if (latency > maxLatency) {
+			maxLatency = latency;
+		}
+	}
+
+	/**
+	 * Sends a snapshot as a SENSORS line or a binary TelemetryFrame, delta compressed or
+	 * as a datagram if that was agreed.
+	 */
+	private void sendSnapshot(SensorSnapshot snapshot) throws IOException {
+		if (udp) {
+			// The datagram wraps the frame's buffer, so encoding fills it in place
+			frame.encode(sequence++, snapshot.getTime(), snapshot.getXPos(), snapshot.getYPos(),
+					snapshot.getOrientation(), snapshot.getColourID(), snapshot.getObstacleDistance(),
+					snapshot.getRotationRate(), snapshot.bumperPressed(), snapshot.getRadiation());
+			datagramSocket.send(datagram);
+		}
+		else if (delta) {
+			frame.writeDelta(out, deltaKeyframeInterval, sequence++, snapshot.getTime(), snapshot.getXPos(),
+					snapshot.getYPos(), snapshot.getOrientation(), snapshot.getColourID(),
+					snapshot.getObstacleDistance(), snapshot.getRotationRate(), snapshot.bumperPressed(),
+					snapshot.getRadiation());
+		}
+		else if (binary) {
+			frame.write(out, sequence++, snapshot.getTime(), snapshot.getXPos(), snapshot.getYPos(),
+					snapshot.getOrientation(), snapshot.getColourID(), snapshot.getObstacleDistance(),
+					snapshot.getRotationRate(), snapshot.bumperPressed(), snapshot.getRadiation());
+		}
+		else {
+			sendText(SensorUpdater.textMessage(snapshot));
+		}
+	}
+
+	/**
+	 * Sends a text message, wrapped in a text frame if binary frames were agreed.
+	 */
+	private void sendText(String message) throws IOException {
+		if (binary) {
+			frame.writeText(out, message);
+		}
+		else {
+			out.write((message+"\n").getBytes());
+		}
+	}
+
+	/**
+	 * Opens a socket to the GUI via the address in rover.getHostAddress()
+	 *
+	 * @return true if connected
+	 */
+	private boolean createSocket() {
+		try {
+			connectedTo = rover.getHostAddress();
+			this.socket = new Socket(connectedTo.getAddress().getHostAddress(), 19234);
+			out = new BufferedOutputStream(this.socket.getOutputStream());
+			binary = (offer != null) && negotiate(offer);
+			delta = binary && offer.equals(TelemetryFrame.DELTA_HELLO);
+			udp = binary && offer.equals(TelemetryFrame.UDP_HELLO);
+			frame.resetDelta();
+			if (udp) {
+				datagramSocket = new DatagramSocket();
+				datagram = new DatagramPacket(frame.encode(0, 0, 0, 0, 0, 0, 0, 0, false, false), TelemetryFrame.SIZE,
+						new InetSocketAddress(connectedTo.getAddress(), TelemetryFrame.UDP_PORT));
+			}
+			return true;
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	/**
+	 * Closes a failed connection and drops whatever was queued for it.
+	 */
+	private void disconnect() {
+		rover.setConnected(false);
+		if (socket != null) {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			socket = null;
+		}
+		if (datagramSocket != null) {
+			datagramSocket.close();
+			datagramSocket = null;
+		}
+		queue.clear();
+	}
+
+	/**
+	 * Offers the UI a binary format. A UI that accepts echoes the offer back; anything else,
+	 * including no reply from a UI that only knows the text protocol, keeps to text.
+	 *
+	 * @param hello - offer line for the format
+	 * @return whether the format was accepted
+	 */
+	private boolean negotiate(String hello) throws IOException {
+		out.write((hello+"\n").getBytes());
+		out.flush();
+		socket.setSoTimeout(handshakeTimeout);
+		try {
+			return hello.equals(readLine(socket.getInputStream()));
+		} catch (SocketTimeoutException e) {
+			return false;
+		} finally {
+			socket.setSoTimeout(0);
+		}
+	}
+
+	/**
+	 * Reads a single line a byte at a time, so nothing after it is buffered away.
+	 */
+	private static String readLine(InputStream in) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		int c;
+		while ((c = in.read()) != -1 && c != '\n') {
+			sb.append((char)c);
+		}
+		return sb.toString().trim();
+	}
+}
@@ -10,23 +10,49 @@ import lejos.hardware.port.Port;
 import lejos.hardware.sensor.EV3TouchSensor;
 import lejos.robotics.SampleProvider;
 
-public class TouchSensor extends Thread {
+public class TouchSensor implements PolledSensor {
 
 	private EV3TouchSensor touchSensor;
 	
-	private boolean pressed;
+	private volatile boolean pressed;
 	
 	private SampleProvider sampler;
 	
+	// Reused for every sample so polling doesn't allocate
+	private float[] state;
+	
+	// Timestamped history of samples: 1 when pressed, 0 otherwise
+	private SampleRing history;
+	
+	// Log every sample is appended to, null when not recording
+	private volatile SensorRecorder recorder;
+	
 	/**
 	 * Constructor
 	 * 
 	 * @param port - port to which the TouchSensor is connected
+	 * @param historyDepth - number of samples kept in the history
 	 */
-	TouchSensor(Port port) {
+	TouchSensor(Port port, int historyDepth) {
 		touchSensor = new EV3TouchSensor(port);
 		// Retrieve TouchMode
-		sampler = touchSensor.getTouchMode();
+		init(touchSensor.getTouchMode(), historyDepth);
+	}
+	
+	/**
+	 * Constructor for a touch sensor without hardware, e.g. replaying a sensor log
+	 * 
+	 * @param sampler - provides touch samples (1 pressed, 0 released)
+	 * @param historyDepth - number of samples kept in the history
+	 */
+	TouchSensor(SampleProvider sampler, int historyDepth) {
+		init(sampler, historyDepth);
+	}
+	
+	private void init(SampleProvider sampler, int historyDepth) {
+		this.sampler = sampler;
+		state = new float[sampler.sampleSize()];
+		history = new SampleRing(historyDepth, 1);
 	}
 
 	/**
@@ -37,24 +63,46 @@ public class TouchSensor extends Thread {
 	}
 
 	/**
-	 * Continuously polls for the bumpers being pressed.
+	 * Polls for the bumpers being pressed.
 	 */
-	public void run() {
-		while (true) {
-			// Fill touch state variable with TouchMode result
-			float[] state = new float[sampler.sampleSize()];
-			sampler.fetchSample(state, 0);
-
-			// return boolean equivalent of touch state
-			pressed = (state[0] == 1);
+	public void poll() {
+		// Fill touch state variable with TouchMode result
+		sampler.fetchSample(state, 0);
+
+		// return boolean equivalent of touch state
+		pressed = (state[0] == 1);
+		long now = System.nanoTime();
+		history.publish(now, state[0]);
+		
+		SensorRecorder log = recorder;
+		if (log != null) {
+			log.record(SensorChannel.touch, now, state, 0, 1);
 		}
 	}
+
+	/**
+	 * Starts or stops appending every sample to a sensor log
+	 * 
+	 * @param recorder - log to append to, or null to stop recording
+	 */
+	public void setRecorder(SensorRecorder recorder) {
+		this.recorder = recorder;
+	}
+
+	/**
+	 * @return timestamped history of bumper presses (1 pressed, 0 released)
+	 */
+	public SampleRing getHistory() {
+		return history;
+	}
 	
 	/**
      * Closes the touch sensor port.
      * Call this when the Rover has finished operation and is going to disconnect everything.
      */
     public void close() {
-    	touchSensor.close();
+    	if (touchSensor != null) {
+    		touchSensor.close();
+    	}
     }
 }
@@ -10,55 +10,135 @@ import lejos.hardware.port.Port;
 import lejos.hardware.sensor.EV3UltrasonicSensor;
 import lejos.robotics.SampleProvider;
 
-public class UltrasonicSensor extends Thread {
+public class UltrasonicSensor implements PolledSensor {
+	
+	// Furthest distance the sensor reports, in mm. Out of range readings are clamped to this before filtering.
+	private static final float maxRange = 2550f;
 	
 	private EV3UltrasonicSensor ultrasonicSensor;
 	
-	private int distance; //Unit: mm
+	private volatile int rawDistance; //Unit: mm
+	private volatile int distance; //Unit: mm, filtered
+	
+	// Filter stages applied to each raw reading
+	private SampleFilter filter;
 	
 	private SampleProvider sampler;
 	
+	// Reused for every sample so polling doesn't allocate
+	private float[] state;
+	
+	// Timestamped history of distances in mm: [raw, filtered]
+	private SampleRing history;
+	private float[] sample;
+	
+	// Log every sample is appended to, null when not recording
+	private volatile SensorRecorder recorder;
+	
 	/**
 	 * Constructor
 	 * 
 	 * @param port - port to which the UltrasonicSensor is connected
+	 * @param historyDepth - number of samples kept in the history
+	 * @param filter - filter stages applied to each raw reading
 	 */
-	UltrasonicSensor(Port port) {
+	UltrasonicSensor(Port port, int historyDepth, SampleFilter filter) {
 		while(ultrasonicSensor == null) {
 			try {
 				ultrasonicSensor = new EV3UltrasonicSensor(port);
 			} catch(Exception e) {
 			}
 		}
-		sampler = ultrasonicSensor.getDistanceMode();
+		init(ultrasonicSensor.getDistanceMode(), historyDepth, filter);
+	}
+	
+	/**
+	 * Constructor for an ultrasonic sensor without hardware, e.g. replaying a sensor log
+	 * 
+	 * @param sampler - provides distance samples in m
+	 * @param historyDepth - number of samples kept in the history
+	 * @param filter - filter stages applied to each raw reading
+	 */
+	UltrasonicSensor(SampleProvider sampler, int historyDepth, SampleFilter filter) {
+		init(sampler, historyDepth, filter);
+	}
+	
+	private void init(SampleProvider sampler, int historyDepth, SampleFilter filter) {
+		this.sampler = sampler;
+		state = new float[sampler.sampleSize()];
+		history = new SampleRing(historyDepth, 2);
+		sample = new float[2];
+		this.filter = filter;
 	}
 	
 	
 	/**
-	 * Queries the sensor for the current distance
+	 * Queries the sensor for the current filtered distance
 	 */
 	public int getDistance()
 	{
 		return distance;
 	}
 	
+	/**
+	 * Queries the sensor for the current unfiltered distance
+	 */
+	public int getRawDistance()
+	{
+		return rawDistance;
+	}
+	
 	
-	public void run() {
-		while (true) {
-			//Retrieve sampler values and store in state
-			float[] state = new float[sampler.sampleSize()];
-			sampler.fetchSample(state, 0);
-			
-			// Convert to mm
-			distance = (int)(state[0] * 1000f);
+	/**
+	 * Polls the sensor for the current distance
+	 */
+	public void poll() {
+		//Retrieve sampler values and store in state
+		sampler.fetchSample(state, 0);
+		
+		// Convert to mm
+		rawDistance = (int)(state[0] * 1000f);
+		
+		// Filter the reading, keeping out of range readings, and NaN for no reading, finite so
+		// they can be averaged
+		float reading = state[0] * 1000f;
+		float filtered = filter.filter(reading < maxRange ? reading : maxRange);
+		distance = (int)filtered;
+		
+		sample[0] = rawDistance;
+		sample[1] = filtered;
+		long now = System.nanoTime();
+		history.publish(now, sample, 0);
+		
+		SensorRecorder log = recorder;
+		if (log != null) {
+			log.record(SensorChannel.ultrasonic, now, state, 0, 1);
 		}
 	}
+
+	/**
+	 * Starts or stops appending every sample to a sensor log
+	 * 
+	 * @param recorder - log to append to, or null to stop recording
+	 */
+	public void setRecorder(SensorRecorder recorder) {
+		this.recorder = recorder;
+	}
+
+	/**
+	 * @return timestamped history of distances in mm (sample[0] raw, sample[1] filtered)
+	 */
+	public SampleRing getHistory() {
+		return history;
+	}
 	
 	/**
      * Closes the ultrasonic sensor port.
      * Call this when the Rover has finished operation and is going to disconnect everything.
      */
     public void close() {
-    	ultrasonicSensor.close();
+    	if (ultrasonicSensor != null) {
+    		ultrasonicSensor.close();
+    	}
     }
 }
@@ -17,11 +17,34 @@ import lejos.robotics.navigation.Pose;
 public class myOdometryPoseProvider implements PoseProvider, MoveListener, SampleProvider
 {
 
+  // Largest disagreement between gyro and odometry before the odometry angle is treated as a glitch
+  private static final float maxAngleDisagreement = 15;
+  // How strongly the integrated gyro rate is pulled towards the gyro angle on each sample
+  private static final float gyroAngleGain = 0.1f;
+  // Kalman variances: gyro drift per sample (deg^2), and odometry error per degree turned and mm travelled
+  private static final float gyroVariancePerSample = 0.0004f;
+  private static final float odometryVariancePerDegree = 0.05f;
+  private static final float odometryVariancePerMm = 0.002f;
+
   private float x = 0, y = 0, heading = 0;
   private float angle0, distance0;
   MoveProvider mp;
   boolean current = true;
 
+  private HeadingFusion fusion = HeadingFusion.odometry;
+  private float fusionGain;
+
+  // Gyro heading integrated from rate and corrected by angle, and its value at the last pose update
+  private float gyroHeading, gyroHeading0;
+  private long gyroTime;
+  private boolean hasGyro = false;
+  // Variance of the gyro heading change since the last pose update
+  private float gyroVariance;
+
+  // Wheel distances at the last wheelSample(), in mm
+  private float left0, right0;
+  private boolean hasWheels = false;
+
   /**
    *Allocates a new OdometryPoseProivder and registers it  with the  MovePovider as a listener.
    */
@@ -56,6 +79,95 @@ public class myOdometryPoseProvider implements PoseProvider, MoveListener, Sampl
     distance0 = 0;
     current = false;
     this.mp = mp;
+    resetGyroBaseline();
+  }
+
+  /**
+   * Selects how the heading is worked out from the gyro and wheel odometry.
+   * @param fusion - fusion mode
+   * @param gain - share of each heading change taken from the gyro in complementary mode (0 to 1)
+   */
+  public synchronized void setHeadingFusion(HeadingFusion fusion, float gain)
+  {
+    this.fusion = fusion;
+    this.fusionGain = gain;
+  }
+
+  /**
+   * @return the current heading fusion mode
+   */
+  public synchronized HeadingFusion getHeadingFusion()
+  {
+    return fusion;
+  }
+
+  /**
+   * Called at gyro sample rate with the latest gyro reading. The rate is integrated for
+   * resolution finer than the whole degrees the angle is reported in, and pulled towards
+   * the angle so the integration doesn't drift. While moving with heading fusion on, the
+   * pose is updated here so the heading is fused at sensor rate rather than only when the
+   * pose is asked for.
+   * @param angle - gyro angle in degrees, counter clockwise positive
+   * @param rate - gyro rate in degrees/sec, counter clockwise positive
+   * @param time - System.nanoTime() of the reading
+   */
+  public synchronized void gyroSample(float angle, float rate, long time)
+  {
+    if (!hasGyro)
+    {
+      gyroHeading = angle;
+      gyroHeading0 = angle;
+      hasGyro = true;
+    }
+    else
+    {
+      float dt = (time - gyroTime) / 1e9f;
+      gyroHeading += rate * dt;
+      gyroHeading += gyroAngleGain * (angle - gyroHeading);
+      gyroVariance += gyroVariancePerSample;
+    }
+    gyroTime = time;
+    if (fusion != HeadingFusion.odometry && mp != null && !current)
+    {
+      updatePose(mp.getMovement());
+    }
+  }
+
+  /*
+   * Starts measuring gyro heading change from the current gyro heading
+   */
+  private void resetGyroBaseline()
+  {
+    gyroHeading0 = gyroHeading;
+    gyroVariance = 0;
+  }
+
+  /*
+   * Combines the heading change measured by odometry with the one measured by the gyro
+   * over the same interval, according to the fusion mode.
+   */
+  private float fuseAngle(float odometryAngle, float distance)
+  {
+    float gyroAngleTurned = gyroHeading - gyroHeading0;
+    if (Math.abs(odometryAngle - gyroAngleTurned) > maxAngleDisagreement)
+    {
+      // Odometry glitch, the gyro knows better
+      return gyroAngleTurned;
+    }
+    if (fusion == HeadingFusion.complementary)
+    {
+      return fusionGain * gyroAngleTurned + (1 - fusionGain) * odometryAngle;
+    }
+    // Kalman: odometry is the prediction, the gyro the measurement, weighted by their variances
+    float odometryVariance = odometryVariancePerDegree * Math.abs(odometryAngle)
+        + odometryVariancePerMm * Math.abs(distance);
+    float total = odometryVariance + gyroVariance;
+    if (total <= 0)
+    {
+      return odometryAngle;
+    }
+    float k = odometryVariance / total;
+    return odometryAngle + k * (gyroAngleTurned - odometryAngle);
   }
   
   public synchronized void   setPose(Pose aPose )
@@ -82,26 +194,22 @@ public class myOdometryPoseProvider implements PoseProvider, MoveListener, Sampl
   {
     float angle = event.getAngleTurned() - angle0;
     float distance = event.getDistanceTraveled() - distance0;
-    if (Math.abs(angle) < 15 && Math.abs(distance) < 20) 
+    boolean fused = fusion != HeadingFusion.odometry && hasGyro;
+    // Fused updates can span a slow gyro rate's worth of motion, and a glitch in their angle
+    // is caught against the gyro, so only plain odometry drops large steps
+    if (fused || (Math.abs(angle) < 15 && Math.abs(distance) < 20)) 
     {
-
-	    double dx = 0, dy = 0;
-	    double headingRad = (Math.toRadians(heading));
-	    if (event.getMoveType() == Move.MoveType.TRAVEL   || Math.abs(angle)<0.2f)
+	    float odometryAngle = angle;
+	    if (fused)
 	    {
-	      dx = (distance) * (float) Math.cos(headingRad);
-	      dy = (distance) * (float) Math.sin(headingRad);
+	      if (!current)
+	      {
+	        angle = fuseAngle(odometryAngle, distance);
+	      }
+	      resetGyroBaseline();
 	    }
-	    else if(event.getMoveType() == Move.MoveType.ARC)
-	    {
-	      double turnRad = Math.toRadians(angle);
-	      double radius = distance / turnRad;
-	      dy = radius * (Math.cos(headingRad) - Math.cos(headingRad + turnRad));
-	      dx = radius * (Math.sin(headingRad + turnRad) - Math.sin(headingRad));
-	    }
-	    x += dx;
-	    y += dy;
-	    heading = normalize(heading + angle); // keep angle between -180 and 180
+
+	    advance(distance, angle, event.getMoveType());
 	    angle0 = event.getAngleTurned();
 	    distance0 = event.getDistanceTraveled();
 	    current = !event.isMoving();
@@ -112,6 +220,50 @@ public class myOdometryPoseProvider implements PoseProvider, MoveListener, Sampl
     }
   }
 
+  /**
+   * Moves the pose by the distance each wheel has travelled since the last call, e.g. from
+   * tacho counts replayed from a sensor log. The first call only sets where counting starts.
+   * @param left - total distance travelled by the left wheel in mm
+   * @param right - total distance travelled by the right wheel in mm
+   * @param trackWidth - distance between the wheels in mm
+   */
+  public synchronized void wheelSample(float left, float right, float trackWidth)
+  {
+    if (hasWheels)
+    {
+      float dl = left - left0;
+      float dr = right - right0;
+      advance((dl + dr) / 2, (float)Math.toDegrees((dr - dl) / trackWidth), Move.MoveType.ARC);
+    }
+    left0 = left;
+    right0 = right;
+    hasWheels = true;
+  }
+
+  /*
+   * Moves the pose along a straight line or an arc, or turns it on the spot
+   */
+  private void advance(float distance, float angle, Move.MoveType type)
+  {
+    double dx = 0, dy = 0;
+    double headingRad = (Math.toRadians(heading));
+    if (type == Move.MoveType.TRAVEL   || Math.abs(angle)<0.2f)
+    {
+      dx = (distance) * (float) Math.cos(headingRad);
+      dy = (distance) * (float) Math.sin(headingRad);
+    }
+    else if(type == Move.MoveType.ARC)
+    {
+      double turnRad = Math.toRadians(angle);
+      double radius = distance / turnRad;
+      dy = radius * (Math.cos(headingRad) - Math.cos(headingRad + turnRad));
+      dx = radius * (Math.sin(headingRad + turnRad) - Math.sin(headingRad));
+    }
+    x += dx;
+    y += dy;
+    heading = normalize(heading + angle); // keep angle between -180 and 180
+  }
+
   /*
    * returns equivalent angle between -180 and +180
    */
@@ -135,6 +287,7 @@ public class myOdometryPoseProvider implements PoseProvider, MoveListener, Sampl
   {
     this.heading = heading;    
     current = true;
+    resetGyroBaseline();
   }
 
 	@Override
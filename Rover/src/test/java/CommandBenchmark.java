@@ -0,0 +1,137 @@
+/*
+ * CommandBenchmark.java
+ *
+ * Compares parsing commands with split, a string switch and Double.valueOf against the
+ * CommandTable, in commands handled per second.
+ * Run on the brick or a desktop from the test classes with: java CommandBenchmark [commands]
+ *
+ * Authors: SEP UG02
+ */
+
+import java.nio.ByteBuffer;
+
+public class CommandBenchmark {
+
+	// A mix of manual control key presses and NGZ edits, as the UI sends them
+	private static final String[] COMMANDS = {
+		"UP-PRESS", "UP-RELEASE", "LEFT-PRESS", "LEFT-RELEASE", "RIGHT-PRESS", "RIGHT-RELEASE",
+		"DOWN-PRESS", "DOWN-RELEASE", "ADDNGZ 120.000000 -340.500000 180.000000 -300.250000",
+		"REMOVENGZ 120.000000 -340.500000 180.000000 -300.250000", "CALIBRATE 5",
+	};
+
+	// Sum of every argument handled, so the work isn't optimised away
+	private static double sink;
+
+	public static void main(String[] args) {
+		int count = (args.length > 0) ? Integer.valueOf(args[0]) : 2000000;
+
+		// Lay the commands out in a buffer as they would arrive from a client
+		StringBuilder sb = new StringBuilder();
+		for (String command : COMMANDS) {
+			sb.append(command).append('\n');
+		}
+		byte[] bytes = sb.toString().getBytes();
+		ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+		buffer.put(bytes);
+		int[] starts = new int[COMMANDS.length];
+		int[] ends = new int[COMMANDS.length];
+		for (int i = 0, line = 0, start = 0; i < bytes.length; i++) {
+			if (bytes[i] == '\n') {
+				starts[line] = start;
+				ends[line++] = i;
+				start = i + 1;
+			}
+		}
+
+		CommandTable table = createTable();
+
+		// Warm up both paths before timing them
+		runSwitch(buffer, starts, ends, count / 10);
+		runTable(table, buffer, starts, ends, count / 10);
+
+		long start = System.nanoTime();
+		runSwitch(buffer, starts, ends, count);
+		long switchTime = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		runTable(table, buffer, starts, ends, count);
+		long tableTime = System.nanoTime() - start;
+
+		report("switch", count, switchTime);
+		report("table", count, tableTime);
+	}
+
+	/**
+	 * Handles commands the way Communication used to: decode a String, split it and switch on the name.
+	 */
+	private static void runSwitch(ByteBuffer buffer, int[] starts, int[] ends, int count) {
+		for (int n = 0; n < count; n++) {
+			int c = n % COMMANDS.length;
+			byte[] bytes = new byte[ends[c] - starts[c]];
+			for (int i = 0; i < bytes.length; i++) {
+				bytes[i] = buffer.get(starts[c] + i);
+			}
+			String[] command = new String(bytes).trim().split(" ");
+			switch (command[0]) {
+			case "ADDNGZ":
+			case "REMOVENGZ":
+				sink += Double.valueOf(command[1]) + Double.valueOf(command[2])
+						+ Double.valueOf(command[3]) + Double.valueOf(command[4]);
+				break;
+			case "CALIBRATE":
+				sink += Integer.valueOf(command[1]);
+				break;
+			case "UP-PRESS":
+			case "UP-RELEASE":
+			case "DOWN-PRESS":
+			case "DOWN-RELEASE":
+			case "LEFT-PRESS":
+			case "LEFT-RELEASE":
+			case "RIGHT-PRESS":
+			case "RIGHT-RELEASE":
+				sink += 1;
+				break;
+			default:
+				break;
+			}
+		}
+	}
+
+	private static void runTable(CommandTable table, ByteBuffer buffer, int[] starts, int[] ends, int count) {
+		for (int n = 0; n < count; n++) {
+			int c = n % COMMANDS.length;
+			table.dispatch(buffer, starts[c], ends[c]);
+		}
+	}
+
+	/**
+	 * Registers handlers with the same names and arguments as Communication, that only add up their arguments.
+	 */
+	private static CommandTable createTable() {
+		CommandHandler key = new CommandHandler() {
+			public void handle(Command command) {
+				sink += 1;
+			}
+		};
+		CommandHandler sum = new CommandHandler() {
+			public void handle(Command command) {
+				for (int i = 0; i < command.getArgCount(); i++) {
+					sink += command.getDouble(i);
+				}
+			}
+		};
+		CommandTable table = new CommandTable();
+		for (String name : new String[] {"UP-PRESS", "UP-RELEASE", "DOWN-PRESS", "DOWN-RELEASE",
+				"LEFT-PRESS", "LEFT-RELEASE", "RIGHT-PRESS", "RIGHT-RELEASE"}) {
+			table.register(name, 0, key);
+		}
+		table.register("ADDNGZ", 4, sum);
+		table.register("REMOVENGZ", 4, sum);
+		table.register("CALIBRATE", 1, sum);
+		return table;
+	}
+
+	private static void report(String name, int count, long nanos) {
+		System.out.println(String.format("%-6s %10.0f commands/s", name, count * 1e9 / nanos));
+	}
+}
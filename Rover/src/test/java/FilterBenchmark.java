@@ -0,0 +1,63 @@
+/*
+ * FilterBenchmark.java
+ *
+ * Times each ultrasonic filter stage, and the chain config.properties applies by default, in
+ * ns per sample, fed with noisy distance readings that include out of range spikes.
+ * Run on the brick or a desktop from the test classes with: java FilterBenchmark [samples]
+ *
+ * Authors: SEP UG02
+ */
+
+import java.util.Random;
+
+public class FilterBenchmark {
+
+	// Filters timed, in the ultrasonic_filter syntax; the last is the default chain
+	private static final String[] SPECS = {
+		"median:5", "median:9", "outlier:300:3", "ema:0.3", "median:5,outlier:300:3",
+	};
+
+	// Readings fed through the filters, repeated until enough samples have been timed
+	private static final int READINGS = 4096;
+
+	// Sum of every filtered value, so the work isn't optimised away
+	private static float sink;
+
+	public static void main(String[] args) {
+		int count = (args.length > 0) ? Integer.valueOf(args[0]) : 10000000;
+
+		// A rover closing on a wall from 2m, with sensor noise and the odd out of range reading
+		Random random = new Random(1);
+		float[] readings = new float[READINGS];
+		for (int i = 0; i < READINGS; i++) {
+			readings[i] = 2000f - i * 0.4f + (float)random.nextGaussian() * 15f;
+			if (random.nextInt(50) == 0) {
+				readings[i] = 2550f;
+			}
+		}
+
+		for (String spec : SPECS) {
+			SampleFilter filter = FilterChain.parse(spec);
+
+			// Warm up before timing
+			run(filter, readings, count / 10);
+
+			long start = System.nanoTime();
+			run(filter, readings, count);
+			long time = System.nanoTime() - start;
+
+			System.out.println(String.format("%-24s %8.1f ns/sample", spec, (double)time / count));
+		}
+		if (sink == 0) {
+			System.out.println();
+		}
+	}
+
+	private static void run(SampleFilter filter, float[] readings, int count) {
+		float sum = 0;
+		for (int i = 0; i < count; i++) {
+			sum += filter.filter(readings[i & (READINGS - 1)]);
+		}
+		sink += sum;
+	}
+}
@@ -0,0 +1,197 @@
+/*
+ * IncrementalPlannerBenchmark.java
+ *
+ * Compares repairing a route with the D* Lite IncrementalPlanner against planning it from
+ * scratch with PathPlanner, as an operator drops NGZs onto the route the rover is following
+ * and later removes some of them. Each update is planned both ways from the same start, and
+ * the two must agree on whether the goal can be reached and on how long the route is.
+ * Detours are then checked the same way: the rover looks along a leg of the route, a NGZ is
+ * dropped ahead of it, and both planners must agree on whether there is a way past.
+ * Run on a desktop from the test classes with: java IncrementalPlannerBenchmark [updates]
+ *
+ * Authors: SEP UG02
+ */
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class IncrementalPlannerBenchmark {
+
+	// Grid sizes planned across, in cells of 20mm
+	private static final int[] SIZES = {500, 2000};
+	private static final double SCALE = 20;
+
+	// Width of the rover, as the Rover plans with it
+	private static final double TRACK_WIDTH = 120;
+
+	// Fraction of the grid's area given to NGZs, as rectangles up to this many cells a side
+	private static final double COVERAGE = 0.15;
+	private static final int MAX_NGZ = 40;
+
+	// NGZs dropped on the route, up to this many cells a side
+	private static final int MAX_UPDATE = 8;
+
+	// Largest relative difference in route length put down to smoothing
+	private static final double LENGTH_TOLERANCE = 0.05;
+
+	// Detours planned after dropping a NGZ ahead of the rover
+	private static final int DETOURS = 20;
+
+	public static void main(String[] args) {
+		int updates = (args.length > 0) ? Integer.valueOf(args[0]) : 100;
+		for (int size : SIZES) {
+			run(size, updates);
+		}
+	}
+
+	private static void run(int size, int updates) {
+		Random random = new Random(size);
+		NGZGrid grid = new NGZGrid(size, size, SCALE);
+		double half = size / 2 * SCALE;
+		double area = 0;
+		while (area < COVERAGE * size * size) {
+			double x = (random.nextDouble() * 2 - 1) * half;
+			double y = (random.nextDouble() * 2 - 1) * half;
+			double w = (1 + random.nextInt(MAX_NGZ)) * SCALE;
+			double h = (1 + random.nextInt(MAX_NGZ)) * SCALE;
+			grid.addNGZ(x, y, x + w, y + h);
+			area += (w / SCALE) * (h / SCALE);
+		}
+		double corner = half - 10 * SCALE;
+		grid.removeNGZ(-half, -half, -corner + 10 * SCALE, -corner + 10 * SCALE);
+		grid.removeNGZ(corner - 10 * SCALE, corner - 10 * SCALE, half, half);
+
+		IncrementalPlanner incremental = new IncrementalPlanner(grid, TRACK_WIDTH);
+		grid.addListener(incremental);
+		PathPlanner scratch = new PathPlanner(grid, TRACK_WIDTH);
+
+		// Warm up both planners, ending on another goal so the first plan starts from scratch
+		for (int i = 0; i < 5; i++) {
+			scratch.plan(-corner, -corner, corner, corner);
+			incremental.plan(-corner, -corner, corner + SCALE * (1 + i % 2), corner);
+		}
+		float[] path = incremental.plan(-corner, -corner, corner, corner);
+		long firstTime = incremental.getPlanTime();
+		int firstExpanded = incremental.getExpandedCount();
+
+		long[] repairTimes = new long[updates];
+		long[] scratchTimes = new long[updates];
+		long repairTime = 0, scratchTime = 0;
+		long repairExpanded = 0, scratchExpanded = 0, changed = 0;
+		int planned = 0, mismatches = 0, flagged = 0;
+		double[] added = new double[updates * 4];
+		int addedCount = 0;
+		for (int n = 0; n < updates && path != null; n++) {
+			if (addedCount > 0 && random.nextInt(4) == 0) {
+				// Take back one of the NGZs dropped earlier
+				int i = random.nextInt(addedCount / 4) * 4;
+				grid.removeNGZ(added[i], added[i + 1], added[i + 2], added[i + 3]);
+			}
+			else {
+				// Drop a NGZ on a point along the route, away from the start and goal
+				int leg = random.nextInt(path.length / 2) * 2;
+				double from_x = (leg == 0) ? -corner : path[leg - 2];
+				double from_y = (leg == 0) ? -corner : path[leg - 1];
+				double t = random.nextDouble();
+				double x = from_x + (path[leg] - from_x) * t;
+				double y = from_y + (path[leg + 1] - from_y) * t;
+				double w = (1 + random.nextInt(MAX_UPDATE)) * SCALE;
+				double h = (1 + random.nextInt(MAX_UPDATE)) * SCALE;
+				if (Math.min(Math.hypot(x + corner, y + corner), Math.hypot(x - corner, y - corner)) < 20 * SCALE) {
+					continue;
+				}
+				added[addedCount++] = x - w / 2;
+				added[addedCount++] = y - h / 2;
+				added[addedCount++] = x + w / 2;
+				added[addedCount++] = y + h / 2;
+				grid.addNGZ(x - w / 2, y - h / 2, x + w / 2, y + h / 2);
+			}
+			if (incremental.routeChanged()) {
+				flagged++;
+			}
+
+			long start = System.nanoTime();
+			float[] repaired = incremental.replan(-corner, -corner);
+			repairTimes[planned] = System.nanoTime() - start;
+			repairTime += repairTimes[planned];
+			repairExpanded += incremental.getExpandedCount();
+			changed += incremental.getChangedCellCount();
+
+			start = System.nanoTime();
+			float[] planned_path = scratch.plan(-corner, -corner, corner, corner);
+			scratchTimes[planned] = System.nanoTime() - start;
+			scratchTime += scratchTimes[planned];
+			scratchExpanded += scratch.getExpandedCount();
+
+			planned++;
+			if ((repaired == null) != (planned_path == null)) {
+				mismatches++;
+			}
+			else if (repaired != null) {
+				double a = length(repaired, -corner, -corner);
+				double b = length(planned_path, -corner, -corner);
+				if (Math.abs(a - b) > LENGTH_TOLERANCE * b) {
+					mismatches++;
+				}
+				path = repaired;
+			}
+		}
+
+		// Detour around a NGZ dropped on a leg the rover has already looked along
+		int detours = 0, detourMismatches = 0;
+		for (int n = 0; path != null && n < path.length / 2 && detours < DETOURS; n++) {
+			double from_x = (n == 0) ? -corner : path[n * 2 - 2];
+			double from_y = (n == 0) ? -corner : path[n * 2 - 1];
+			double dx = path[n * 2] - from_x;
+			double dy = path[n * 2 + 1] - from_y;
+			if (Math.hypot(dx, dy) < 20 * SCALE) {
+				continue;
+			}
+			double heading = Math.toDegrees(Math.atan2(dy, dx));
+			incremental.detour(from_x, from_y, heading);
+			double x = from_x + dx / 2;
+			double y = from_y + dy / 2;
+			double w = (1 + random.nextInt(MAX_UPDATE)) * SCALE;
+			grid.addNGZ(x - w / 2, y - w / 2, x + w / 2, y + w / 2);
+			float[] repaired = incremental.detour(from_x, from_y, heading);
+			float[] planned_path = scratch.detour(from_x, from_y, heading);
+			if ((repaired == null) != (planned_path == null)) {
+				detourMismatches++;
+			}
+			detours++;
+		}
+
+		System.out.println(String.format("%4dx%-4d first plan %8.2f ms %8d cells expanded", size, size,
+				firstTime / 1e6, firstExpanded));
+		if (planned == 0) {
+			System.out.println("          no route to update");
+			return;
+		}
+		// Repairs vary widely with how close to the goal the change is, so give the median too
+		System.out.println(String.format("          repair     %8.2f ms mean %8.2f ms median %8d cells expanded %6d cells changed per update",
+				repairTime / 1e6 / planned, median(repairTimes, planned) / 1e6, repairExpanded / planned,
+				changed / planned));
+		System.out.println(String.format("          scratch    %8.2f ms mean %8.2f ms median %8d cells expanded",
+				scratchTime / 1e6 / planned, median(scratchTimes, planned) / 1e6, scratchExpanded / planned));
+		System.out.println(String.format("          %d updates, %d flagged the route, %d mismatches", planned, flagged,
+				mismatches));
+		System.out.println(String.format("          %d detours after a NGZ was dropped ahead, %d mismatches", detours,
+				detourMismatches));
+	}
+
+	private static long median(long[] times, int count) {
+		long[] sorted = Arrays.copyOf(times, count);
+		Arrays.sort(sorted);
+		return sorted[count / 2];
+	}
+
+	private static double length(float[] path, double x, double y) {
+		double length = 0;
+		for (int i = 0; i < path.length; i += 2) {
+			length += Math.hypot(path[i] - x, path[i + 1] - y);
+			x = path[i];
+			y = path[i + 1];
+		}
+		return length;
+	}
+}
@@ -0,0 +1,58 @@
+/*
+ * MedianFilterTest.java
+ *
+ * Checks the median filter's sorted window stays consistent, including when it is fed
+ * readings that aren't finite.
+ *
+ * Authors: SEP UG02
+ */
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class MedianFilterTest extends TestCase {
+
+	private static final int SIZE = 5;
+
+	public void testMatchesSortedWindow() {
+		MedianFilter filter = new MedianFilter(SIZE);
+		Random random = new Random(1);
+		float[] recent = new float[SIZE];
+		for (int i = 0; i < 1000; i++) {
+			float sample = random.nextInt(50);
+			recent[i % SIZE] = sample;
+			float median = filter.filter(sample);
+			if (i >= SIZE - 1) {
+				assertEquals("median after sample " + i, median(recent), median, 0f);
+			}
+		}
+	}
+
+	public void testNonFiniteSamplesRepeatTheNewest() {
+		MedianFilter filter = new MedianFilter(SIZE);
+		assertTrue("NaN before any sample passes through", Float.isNaN(filter.filter(Float.NaN)));
+		for (float sample : new float[] {10, 20, 30, 40, 50}) {
+			filter.filter(sample);
+		}
+		// Taken as 50, 50, 50: window 40, 50, 50, 50, 50
+		filter.filter(Float.NaN);
+		filter.filter(Float.POSITIVE_INFINITY);
+		assertEquals("median with repeated newest samples", 50f, filter.filter(Float.NaN), 0f);
+
+		// The window must still be sorted and complete as the repeats age out
+		float[] recent = {60, 70, 80, 90, 100};
+		float median = 0;
+		for (float sample : recent) {
+			median = filter.filter(sample);
+		}
+		assertEquals("median once the repeats have aged out", median(recent), median, 0f);
+	}
+
+	private static float median(float[] values) {
+		float[] sorted = values.clone();
+		Arrays.sort(sorted);
+		return sorted[sorted.length / 2];
+	}
+}
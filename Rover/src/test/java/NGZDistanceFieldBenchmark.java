@@ -0,0 +1,139 @@
+/*
+ * NGZDistanceFieldBenchmark.java
+ *
+ * Times the NGZ grid's distance field: what adding or removing a NGZ costs now the field is
+ * kept up to date, and how long a clearance lookup takes against stepping outward from a
+ * position one ring of cells at a time until a NGZ is hit. After the changes, the nearest NGZ
+ * cell of random cells is checked against a search of every NGZ cell.
+ * Run on a desktop from the test classes with: java NGZDistanceFieldBenchmark [changes]
+ *
+ * Authors: SEP UG02
+ */
+
+import java.util.Random;
+
+public class NGZDistanceFieldBenchmark {
+
+	// Grid sizes, in cells of 20mm
+	private static final int[] SIZES = {500, 2000};
+	private static final double SCALE = 20;
+
+	// Fraction of the grid's area given to NGZs, as rectangles up to this many cells a side
+	private static final double COVERAGE = 0.15;
+	private static final int MAX_NGZ = 40;
+
+	// Lookups timed, and cells checked against every NGZ cell
+	private static final int LOOKUPS = 200000;
+	private static final int CHECKS = 200;
+
+	public static void main(String[] args) {
+		int changes = (args.length > 0) ? Integer.valueOf(args[0]) : 200;
+		for (int size : SIZES) {
+			run(size, changes);
+		}
+	}
+
+	private static void run(int size, int changes) {
+		Random random = new Random(size);
+		NGZGrid grid = new NGZGrid(size, size, SCALE);
+		double half = size / 2 * SCALE;
+		double area = 0;
+		while (area < COVERAGE * size * size) {
+			double x = (random.nextDouble() * 2 - 1) * half;
+			double y = (random.nextDouble() * 2 - 1) * half;
+			double w = (1 + random.nextInt(MAX_NGZ)) * SCALE;
+			double h = (1 + random.nextInt(MAX_NGZ)) * SCALE;
+			grid.addNGZ(x, y, x + w, y + h);
+			area += (w / SCALE) * (h / SCALE);
+		}
+
+		// Add NGZs and take some back, as an operator would, timing the second half once warm
+		long changeTime = 0;
+		double[] added = new double[changes * 4];
+		int addedCount = 0;
+		for (int n = 0; n < changes; n++) {
+			if (n == changes / 2) {
+				changeTime = 0;
+			}
+			long start = System.nanoTime();
+			if (addedCount > 0 && random.nextInt(4) == 0) {
+				int i = random.nextInt(addedCount / 4) * 4;
+				grid.removeNGZ(added[i], added[i + 1], added[i + 2], added[i + 3]);
+			}
+			else {
+				double x = (random.nextDouble() * 2 - 1) * half;
+				double y = (random.nextDouble() * 2 - 1) * half;
+				double w = (1 + random.nextInt(MAX_NGZ)) * SCALE;
+				double h = (1 + random.nextInt(MAX_NGZ)) * SCALE;
+				added[addedCount++] = x;
+				added[addedCount++] = y;
+				added[addedCount++] = x + w;
+				added[addedCount++] = y + h;
+				grid.addNGZ(x, y, x + w, y + h);
+			}
+			changeTime += System.nanoTime() - start;
+		}
+
+		// Lookups at random positions, both ways, with a checksum so neither is optimised away
+		double[] points = new double[LOOKUPS * 2];
+		for (int i = 0; i < points.length; i++) {
+			points[i] = (random.nextDouble() * 2 - 1) * half;
+		}
+		double sum = 0;
+		for (int i = 0; i < points.length / 4; i += 2) {
+			sum += Math.min(grid.clearance(points[i], points[i + 1]), half) + stepOut(grid, points[i], points[i + 1], size);
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < points.length; i += 2) {
+			sum += Math.min(grid.clearance(points[i], points[i + 1]), half);
+		}
+		long fieldTime = System.nanoTime() - start;
+		start = System.nanoTime();
+		for (int i = 0; i < points.length; i += 2) {
+			sum += stepOut(grid, points[i], points[i + 1], size);
+		}
+		long stepTime = System.nanoTime() - start;
+
+		int wrong = 0;
+		for (int i = 0; i < CHECKS; i++) {
+			int x = random.nextInt(grid.getWidth());
+			int y = random.nextInt(grid.getHeight());
+			if (grid.cellClearanceSquared(x, y) != nearestSquared(grid, x, y)) {
+				wrong++;
+			}
+		}
+
+		System.out.println(String.format("%4dx%-4d change %8.3f ms  lookup %8.1f ns  stepping out %10.1f ns  %d/%d wrong (%d)",
+				size, size, changeTime / 1e6 / (changes - changes / 2), (double)fieldTime / LOOKUPS, (double)stepTime / LOOKUPS,
+				wrong, CHECKS, (int)sum % 10));
+	}
+
+	/**
+	 * Finds the nearest NGZ the old way, checking each ring of cells around a position in turn.
+	 *
+	 * @return rings stepped out before a NGZ cell was found, or the limit if none was
+	 */
+	private static int stepOut(NGZGrid grid, double x, double y, int limit) {
+		for (int r = 0; r < limit; r++) {
+			for (int i = -r; i <= r; i++) {
+				if (grid.inNGZ(x + i * SCALE, y - r * SCALE) || grid.inNGZ(x + i * SCALE, y + r * SCALE)
+						|| grid.inNGZ(x - r * SCALE, y + i * SCALE) || grid.inNGZ(x + r * SCALE, y + i * SCALE)) {
+					return r;
+				}
+			}
+		}
+		return limit;
+	}
+
+	private static int nearestSquared(NGZGrid grid, int x, int y) {
+		int best = Integer.MAX_VALUE;
+		for (int cy = 0; cy < grid.getHeight(); cy++) {
+			for (int cx = 0; cx < grid.getWidth(); cx++) {
+				if (grid.isSet(cx, cy)) {
+					best = Math.min(best, (cx - x) * (cx - x) + (cy - y) * (cy - y));
+				}
+			}
+		}
+		return best;
+	}
+}
@@ -0,0 +1,160 @@
+/*
+ * NGZGridBenchmark.java
+ *
+ * Compares the bit packed NGZGrid with the byte[][] grid it replaced: how many NGZ rectangles a
+ * second each can add and remove, and how many inNGZ queries a second each can answer.
+ * Run on the brick or a desktop from the test classes with: java NGZGridBenchmark [rounds]
+ *
+ * Authors: SEP UG02
+ */
+
+import java.util.Random;
+
+public class NGZGridBenchmark {
+
+	// Grid the rover uses: 500x500 cells of 20mm
+	private static final int SIZE = 500;
+	private static final double SCALE = 20;
+
+	// NGZs of up to 1m square, anywhere on the grid, and positions to query
+	private static final int RECTANGLES = 256;
+	private static final int QUERIES = 4096;
+	private static final double MAX_NGZ = 1000;
+
+	/**
+	 * The byte[][] grid NGZGrid used to be, with rectangles filled cell by cell.
+	 */
+	private static class ByteGrid {
+		private final byte[][] grid = new byte[SIZE][SIZE];
+		private final double offset = SIZE / 2;
+
+		boolean inNGZ(double x, double y) {
+			int scaled_x = (int)Math.round((x/SCALE)+offset);
+			int scaled_y = (int)Math.round((y/SCALE)+offset);
+			if(scaled_x < 0 || scaled_x >= SIZE || scaled_y < 0 || scaled_y >= SIZE) return false;
+			return (grid[scaled_x][scaled_y] == 1);
+		}
+
+		void fill(double start_x, double start_y, double end_x, double end_y, byte value) {
+			int scaled_start_x = (int)Math.round((start_x/SCALE)+offset);
+			int scaled_start_y = (int)Math.round((start_y/SCALE)+offset);
+			int scaled_end_x = (int)Math.round((end_x/SCALE)+offset);
+			int scaled_end_y = (int)Math.round((end_y/SCALE)+offset);
+			for(int x = scaled_start_x; x <= scaled_end_x; x++) {
+				for(int y = scaled_start_y; y <= scaled_end_y; y++) {
+					grid[x][y] = value;
+				}
+			}
+		}
+	}
+
+	// Number of queries that hit a NGZ, so the work isn't optimised away
+	private static volatile long sink;
+
+	public static void main(String[] args) {
+		int rounds = (args.length > 0) ? Integer.valueOf(args[0]) : 2000;
+
+		// Rectangles kept inside the old grid, which can't grow or clip
+		Random random = new Random(42);
+		double half = SIZE / 2 * SCALE - MAX_NGZ - SCALE;
+		double[][] rectangles = new double[RECTANGLES][4];
+		for (double[] r : rectangles) {
+			r[0] = (random.nextDouble() * 2 - 1) * half;
+			r[1] = (random.nextDouble() * 2 - 1) * half;
+			r[2] = r[0] + random.nextDouble() * MAX_NGZ;
+			r[3] = r[1] + random.nextDouble() * MAX_NGZ;
+		}
+		double[] queries = new double[QUERIES * 2];
+		for (int i = 0; i < queries.length; i++) {
+			queries[i] = (random.nextDouble() * 2 - 1) * SIZE / 2 * SCALE;
+		}
+
+		ByteGrid byteGrid = new ByteGrid();
+		NGZGrid bitGrid = new NGZGrid(SIZE, SIZE, SCALE);
+
+		// Both grids must agree before either is timed
+		for (double[] r : rectangles) {
+			byteGrid.fill(r[0], r[1], r[2], r[3], (byte)1);
+			bitGrid.addNGZ(r[0], r[1], r[2], r[3]);
+		}
+		for (int i = 0; i < queries.length; i += 2) {
+			if (byteGrid.inNGZ(queries[i], queries[i + 1]) != bitGrid.inNGZ(queries[i], queries[i + 1])) {
+				throw new IllegalStateException("grids disagree at " + queries[i] + ", " + queries[i + 1]);
+			}
+		}
+
+		// Warm up every path before timing them
+		fillBytes(byteGrid, rectangles, rounds / 10);
+		fillBits(bitGrid, rectangles, rounds / 10);
+		queryBytes(byteGrid, queries, rounds / 10);
+		queryBits(bitGrid, queries, rounds / 10);
+
+		long start = System.nanoTime();
+		fillBytes(byteGrid, rectangles, rounds);
+		long byteFill = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		fillBits(bitGrid, rectangles, rounds);
+		long bitFill = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		queryBytes(byteGrid, queries, rounds);
+		long byteQuery = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		queryBits(bitGrid, queries, rounds);
+		long bitQuery = System.nanoTime() - start;
+
+		long fills = 2L * RECTANGLES * rounds;
+		long lookups = (long)QUERIES * rounds;
+		report("byte[][]", fills, byteFill, lookups, byteQuery);
+		report("long[]", fills, bitFill, lookups, bitQuery);
+	}
+
+	private static void fillBytes(ByteGrid grid, double[][] rectangles, int rounds) {
+		for (int n = 0; n < rounds; n++) {
+			for (double[] r : rectangles) {
+				grid.fill(r[0], r[1], r[2], r[3], (byte)0);
+			}
+			for (double[] r : rectangles) {
+				grid.fill(r[0], r[1], r[2], r[3], (byte)1);
+			}
+		}
+	}
+
+	private static void fillBits(NGZGrid grid, double[][] rectangles, int rounds) {
+		for (int n = 0; n < rounds; n++) {
+			for (double[] r : rectangles) {
+				grid.removeNGZ(r[0], r[1], r[2], r[3]);
+			}
+			for (double[] r : rectangles) {
+				grid.addNGZ(r[0], r[1], r[2], r[3]);
+			}
+		}
+	}
+
+	private static void queryBytes(ByteGrid grid, double[] queries, int rounds) {
+		long hits = 0;
+		for (int n = 0; n < rounds; n++) {
+			for (int i = 0; i < queries.length; i += 2) {
+				hits += grid.inNGZ(queries[i], queries[i + 1]) ? 1 : 0;
+			}
+		}
+		sink += hits;
+	}
+
+	private static void queryBits(NGZGrid grid, double[] queries, int rounds) {
+		long hits = 0;
+		for (int n = 0; n < rounds; n++) {
+			for (int i = 0; i < queries.length; i += 2) {
+				hits += grid.inNGZ(queries[i], queries[i + 1]) ? 1 : 0;
+			}
+		}
+		sink += hits;
+	}
+
+	private static void report(String name, long fills, long fillNanos, long queries, long queryNanos) {
+		System.out.println(String.format("%-8s %10.0f rectangles/s %12.0f queries/s", name,
+				fills * 1e9 / fillNanos, queries * 1e9 / queryNanos));
+	}
+}
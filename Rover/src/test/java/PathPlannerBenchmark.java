@@ -0,0 +1,82 @@
+/*
+ * PathPlannerBenchmark.java
+ *
+ * Times the A* PathPlanner across grids scattered with random NGZs, from near one corner to
+ * near the opposite one, and checks every smoothed path keeps the rover clear of the NGZs.
+ * Run on a desktop from the test classes with: java PathPlannerBenchmark [plans]
+ *
+ * Authors: SEP UG02
+ */
+
+import java.util.Random;
+
+public class PathPlannerBenchmark {
+
+	// Grid sizes planned across, in cells of 20mm
+	private static final int[] SIZES = {500, 2000};
+	private static final double SCALE = 20;
+
+	// Width of the rover, as the Rover plans with it
+	private static final double TRACK_WIDTH = 120;
+
+	// Fraction of the grid's area given to NGZs, as rectangles up to this many cells a side
+	private static final double COVERAGE = 0.15;
+	private static final int MAX_NGZ = 40;
+
+	public static void main(String[] args) {
+		int plans = (args.length > 0) ? Integer.valueOf(args[0]) : 20;
+		for (int size : SIZES) {
+			run(size, plans);
+		}
+	}
+
+	private static void run(int size, int plans) {
+		Random random = new Random(size);
+		NGZGrid grid = new NGZGrid(size, size, SCALE);
+		double half = size / 2 * SCALE;
+		double area = 0;
+		while (area < COVERAGE * size * size) {
+			double x = (random.nextDouble() * 2 - 1) * half;
+			double y = (random.nextDouble() * 2 - 1) * half;
+			double w = (1 + random.nextInt(MAX_NGZ)) * SCALE;
+			double h = (1 + random.nextInt(MAX_NGZ)) * SCALE;
+			grid.addNGZ(x, y, x + w, y + h);
+			area += (w / SCALE) * (h / SCALE);
+		}
+
+		// Keep the corners the rover plans between clear
+		double corner = half - 10 * SCALE;
+		grid.removeNGZ(-half, -half, -corner + 10 * SCALE, -corner + 10 * SCALE);
+		grid.removeNGZ(corner - 10 * SCALE, corner - 10 * SCALE, half, half);
+
+		PathPlanner planner = new PathPlanner(grid, TRACK_WIDTH);
+		float[] path = null;
+		for (int i = 0; i < Math.max(1, plans / 4); i++) {
+			path = planner.plan(-corner, -corner, corner, corner);
+		}
+
+		long start = System.nanoTime();
+		for (int i = 0; i < plans; i++) {
+			path = planner.plan(-corner, -corner, corner, corner);
+		}
+		long time = System.nanoTime() - start;
+
+		if (path == null) {
+			System.out.println(String.format("%4dx%-4d no path", size, size));
+			return;
+		}
+		double length = 0;
+		double x = -corner, y = -corner;
+		int blocked = 0;
+		for (int i = 0; i < path.length; i += 2) {
+			length += Math.hypot(path[i] - x, path[i + 1] - y);
+			if (!grid.corridorClear(x, y, path[i], path[i + 1], SCALE)) {
+				blocked++;
+			}
+			x = path[i];
+			y = path[i + 1];
+		}
+		System.out.println(String.format("%4dx%-4d %8.2f ms/plan %8d cells expanded %4d waypoints %7.1f m, %d blocked",
+				size, size, time / 1e6 / plans, planner.getExpandedCount(), path.length / 2, length / 1000, blocked));
+	}
+}
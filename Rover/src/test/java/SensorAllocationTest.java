@@ -0,0 +1,78 @@
+/*
+ * SensorAllocationTest.java
+ *
+ * Checks that polling the sensors allocates nothing once warmed up, using the JVM's count of
+ * bytes allocated by the polling thread. The sensors are fed by constant sample providers
+ * instead of hardware, so this runs on a desktop JVM.
+ *
+ * Authors: SEP UG02
+ */
+
+import java.lang.management.ManagementFactory;
+
+import junit.framework.TestCase;
+import lejos.robotics.SampleProvider;
+
+public class SensorAllocationTest extends TestCase {
+
+	// Polls of every sensor before measuring, so the JIT has compiled the poll paths
+	private static final int WARMUP_POLLS = 20000;
+
+	// Polls of every sensor measured
+	private static final int POLLS = 20000;
+
+	private static final int HISTORY_DEPTH = 64;
+
+	public void testPollingDoesNotAllocate() {
+		com.sun.management.ThreadMXBean threads =
+				(com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+		assertTrue("JVM can't count allocated bytes", threads.isThreadAllocatedMemorySupported());
+		threads.setThreadAllocatedMemoryEnabled(true);
+
+		TouchSensor touch = new TouchSensor(constant(1), HISTORY_DEPTH);
+		UltrasonicSensor ultrasonic = new UltrasonicSensor(constant(1), HISTORY_DEPTH,
+				FilterChain.parse("median:5,outlier:300:3"));
+		GyroSensor gyro = new GyroSensor(constant(2), HISTORY_DEPTH);
+		ColourSensor colour = new ColourSensor(constant(1), constant(3), HISTORY_DEPTH);
+		float[] rgb = new float[3];
+
+		long thread = Thread.currentThread().getId();
+		for (ColourMode mode : ColourMode.values()) {
+			colour.setColourMode(mode);
+			pollAll(touch, ultrasonic, gyro, colour, rgb, WARMUP_POLLS);
+
+			long before = threads.getThreadAllocatedBytes(thread);
+			pollAll(touch, ultrasonic, gyro, colour, rgb, POLLS);
+			long allocated = threads.getThreadAllocatedBytes(thread) - before;
+			assertEquals("bytes allocated polling with the colour sensor in " + mode + " mode", 0, allocated);
+		}
+	}
+
+	private static void pollAll(TouchSensor touch, UltrasonicSensor ultrasonic, GyroSensor gyro,
+			ColourSensor colour, float[] rgb, int polls) {
+		for (int i = 0; i < polls; i++) {
+			touch.poll();
+			ultrasonic.poll();
+			gyro.poll();
+			colour.poll();
+			colour.getRGB(rgb);
+		}
+	}
+
+	/**
+	 * @return provider of samples of the given size, with every value set to 0.5
+	 */
+	private static SampleProvider constant(final int size) {
+		return new SampleProvider() {
+			public int sampleSize() {
+				return size;
+			}
+
+			public void fetchSample(float[] sample, int offset) {
+				for (int i = 0; i < size; i++) {
+					sample[offset + i] = 0.5f;
+				}
+			}
+		};
+	}
+}
@@ -0,0 +1,235 @@
+/*
+ * SensorEventBenchmark.java
+ *
+ * Measures what the SensorEventBus saves over spinning on a sensor getter, and how long it
+ * takes to wake a behaviour after a sensor sample: the SensorScheduler polls a simulated
+ * colour sensor that steps between colours and an UltrasonicSensor fed a simulated rover
+ * driving up to a wall and backing off, at the rover's default rates, while one thread waits
+ * for each reading to change. The waits are done first with awaitEvent, then by spinning on
+ * the reading as the behaviours used to. For each, the CPU time the waiting threads used is
+ * reported, and each wake-up is timed from the sample that caused it.
+ * Run on the brick or a desktop from the test classes with: java SensorEventBenchmark [seconds]
+ *
+ * Authors: SEP UG02
+ */
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import lejos.robotics.Color;
+import lejos.robotics.SampleProvider;
+
+public class SensorEventBenchmark {
+
+	// Rates the sensors are polled at, as in config.properties
+	private static final int COLOUR_RATE = 100;
+	private static final int ULTRASONIC_RATE = 25;
+
+	// Polls the colour sensor stays on each colour for
+	private static final int COLOUR_POLLS = 5;
+
+	// Distance the wall is driven up to and backed off from, in mm, crossing the threshold
+	private static final int THRESHOLD = 150;
+	private static final float NEAR = 0.05f;
+	private static final float FAR = 0.30f;
+	private static final float STEP = 0.02f;
+
+	// Timeout the behaviours wait on events with, in ms
+	private static final long EVENT_TIMEOUT = 50;
+
+	// Latest readings, and the time of the sample that last changed each, in ns
+	private static volatile int colour;
+	private static volatile int distance = Integer.MAX_VALUE;
+	private static volatile long colourTime;
+	private static volatile long distanceTime;
+
+	public static void main(String[] args) throws InterruptedException {
+		int seconds = (args.length > 0) ? Integer.valueOf(args[0]) : 10;
+
+		final SensorEventBus bus = new SensorEventBus();
+		final UltrasonicSensor ultrasonic = new UltrasonicSensor(new SampleProvider() {
+			private float distance = FAR;
+			private float step = -STEP;
+
+			public int sampleSize() {
+				return 1;
+			}
+
+			public void fetchSample(float[] sample, int offset) {
+				distance += step;
+				if (distance <= NEAR || distance >= FAR) {
+					step = -step;
+				}
+				sample[offset] = distance;
+			}
+		}, 8, new FilterChain());
+
+		SensorScheduler scheduler = new SensorScheduler();
+		scheduler.setDaemon(true);
+		scheduler.register("colour", new PolledSensor() {
+			private int polls = 0;
+
+			public void poll() {
+				int id = ((polls++ / COLOUR_POLLS) % 2 == 0) ? Color.BLUE : Color.WHITE;
+				long now = System.nanoTime();
+				if (id != colour) {
+					colourTime = now;
+					colour = id;
+				}
+				bus.colourSample(id, now);
+			}
+		}, COLOUR_RATE);
+		scheduler.register("ultrasonic", new PolledSensor() {
+			public void poll() {
+				ultrasonic.poll();
+				long now = System.nanoTime();
+				int reading = ultrasonic.getDistance();
+				if ((reading < THRESHOLD) != (distance < THRESHOLD)) {
+					distanceTime = now;
+				}
+				distance = reading;
+				bus.distanceSample(reading, now);
+			}
+		}, ULTRASONIC_RATE);
+
+		Waiter[] waiters = {
+			new Waiter("colour entered", bus, SensorEventBus.colourEntered(Color.BLUE),
+					SensorEventBus.colourLeft(Color.BLUE)) {
+				boolean reached() {
+					return colour == Color.BLUE;
+				}
+
+				long changedAt() {
+					return colourTime;
+				}
+			},
+			new Waiter("distance below", bus, bus.distanceBelow(THRESHOLD), bus.distanceAbove(THRESHOLD)) {
+				boolean reached() {
+					return distance < THRESHOLD;
+				}
+
+				long changedAt() {
+					return distanceTime;
+				}
+			},
+		};
+		scheduler.start();
+
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		for (boolean spinning : new boolean[] {false, true}) {
+			System.out.println(spinning ? "spinning on the readings:" : "waiting on events:");
+			Waiter[] running = new Waiter[waiters.length];
+			for (int i = 0; i < waiters.length; i++) {
+				running[i] = waiters[i].copy(spinning);
+				running[i].start();
+			}
+			Thread.sleep(seconds * 1000L / 2);
+			for (Waiter waiter : running) {
+				waiter.interrupt();
+				waiter.join();
+				waiter.report(seconds / 2.0);
+			}
+		}
+		System.out.println(String.format("bus counters: %d events, %.1f us average, %.1f us max",
+				bus.getEventCount(), bus.getAverageLatency(), bus.getMaxLatency()));
+		if (!threads.isThreadCpuTimeSupported()) {
+			System.out.println("(this JVM can't measure thread CPU time)");
+		}
+	}
+
+	/**
+	 * Waits for a reading to reach a state and then leave it again, in a loop, timing each
+	 * wake-up from the sample that changed the reading and adding up the CPU time used.
+	 */
+	private static abstract class Waiter extends Thread {
+		private final String name;
+		private final SensorEventBus bus;
+		private final SensorEventPredicate entered;
+		private final SensorEventPredicate left;
+		private boolean spinning;
+		private long[] latencies = new long[1024];
+		private int count = 0;
+		private long cpuTime = -1;
+
+		Waiter(String name, SensorEventBus bus, SensorEventPredicate entered, SensorEventPredicate left) {
+			this.name = name;
+			this.bus = bus;
+			this.entered = entered;
+			this.left = left;
+			setDaemon(true);
+		}
+
+		/**
+		 * @return whether the reading is in the state waited for
+		 */
+		abstract boolean reached();
+
+		/**
+		 * @return time of the sample that last changed the state, in ns
+		 */
+		abstract long changedAt();
+
+		/**
+		 * @return a new waiter for the same reading, that waits on events or spins
+		 */
+		Waiter copy(boolean spinning) {
+			final Waiter original = this;
+			Waiter copy = new Waiter(name, bus, entered, left) {
+				boolean reached() {
+					return original.reached();
+				}
+
+				long changedAt() {
+					return original.changedAt();
+				}
+			};
+			copy.spinning = spinning;
+			return copy;
+		}
+
+		public void run() {
+			// Start on a fresh change, not one from before the thread started
+			waitFor(false);
+			while (!isInterrupted()) {
+				waitFor(true);
+				if (reached()) {
+					long latency = System.nanoTime() - changedAt();
+					if (count == latencies.length) {
+						latencies = Arrays.copyOf(latencies, count * 2);
+					}
+					latencies[count++] = latency;
+				}
+				waitFor(false);
+			}
+			ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+			if (threads.isThreadCpuTimeSupported()) {
+				cpuTime = threads.getCurrentThreadCpuTime();
+			}
+		}
+
+		/**
+		 * Waits until the reading is or isn't in the state, the way a behaviour would.
+		 */
+		private void waitFor(boolean state) {
+			if (spinning) {
+				while (reached() != state && !isInterrupted()) { }
+				return;
+			}
+			for (long seq = bus.getSequence(); reached() != state && !isInterrupted(); seq = bus.getSequence()) {
+				bus.awaitEvent(state ? entered : left, seq, EVENT_TIMEOUT);
+			}
+		}
+
+		void report(double seconds) {
+			String cpu = (cpuTime < 0) ? "" : String.format("  CPU %6.1f ms/s", cpuTime / 1e6 / seconds);
+			if (count == 0) {
+				System.out.println(String.format("  %-15s no events%s", name, cpu));
+				return;
+			}
+			long[] sorted = Arrays.copyOf(latencies, count);
+			Arrays.sort(sorted);
+			System.out.println(String.format("  %-15s %5d events  median %8.1f us  p99 %8.1f us  max %8.1f us%s",
+					name, count, sorted[count / 2] / 1e3, sorted[count * 99 / 100] / 1e3, sorted[count - 1] / 1e3, cpu));
+		}
+	}
+}
@@ -0,0 +1,136 @@
+/*
+ * SensorReplayTest.java
+ *
+ * Records a short run of sensor samples and tacho counts to a sensor log, then replays the
+ * log through fresh sensors, filters and pose provider, checking the replay reproduces what
+ * the recorded run saw.
+ *
+ * Authors: SEP UG02
+ */
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+import lejos.robotics.SampleProvider;
+import lejos.robotics.navigation.Move;
+import lejos.robotics.navigation.MoveListener;
+import lejos.robotics.navigation.MoveProvider;
+
+public class SensorReplayTest extends TestCase {
+
+	private static final int HISTORY_DEPTH = 16;
+	private static final String FILTER = "median:5,outlier:300:3";
+
+	// Distances in m as the sensor returns them, including a spike and an out of range reading
+	private static final float[] DISTANCES = {
+		0.50f, 0.49f, 0.48f, 1.20f, 0.46f, 0.45f, Float.POSITIVE_INFINITY, 0.43f, 0.42f, 0.41f, 0.40f, 0.39f,
+	};
+	private static final float[] COLOURS = {7, 7, 2, 2, 2, 6, 6, 6, 0, 0, 2, 2};
+
+	private static final float TRACK_WIDTH = 120;
+	private static final float WHEEL_DIAMETER = 56;
+
+	private File file;
+
+	protected void setUp() throws IOException {
+		file = File.createTempFile("sensor", ".slog");
+	}
+
+	protected void tearDown() {
+		file.delete();
+	}
+
+	public void testReplayReproducesRecordedReadings() throws IOException {
+		// Run the sensors from the arrays, recording every sample
+		UltrasonicSensor ultrasonic = new UltrasonicSensor(sequence(DISTANCES), HISTORY_DEPTH, FilterChain.parse(FILTER));
+		ColourSensor colour = new ColourSensor(sequence(COLOURS), sequence(new float[3]), HISTORY_DEPTH);
+		SensorRecorder recorder = new SensorRecorder(file);
+		ultrasonic.setRecorder(recorder);
+		colour.setRecorder(recorder);
+		int[] distances = new int[DISTANCES.length];
+		int[] colours = new int[COLOURS.length];
+		for (int i = 0; i < DISTANCES.length; i++) {
+			ultrasonic.poll();
+			colour.poll();
+			distances[i] = ultrasonic.getDistance();
+			colours[i] = colour.getColourID();
+		}
+		recorder.close();
+
+		SensorLog log = new SensorLog(file);
+		assertEquals("records in the log", DISTANCES.length + COLOURS.length, log.size());
+
+		// Replay through fresh sensors and filters, one record per poll
+		UltrasonicSensor replayUltrasonic = new UltrasonicSensor(
+				new ReplaySampleProvider(log, SensorChannel.ultrasonic, 1, false), HISTORY_DEPTH, FilterChain.parse(FILTER));
+		ColourSensor replayColour = new ColourSensor(new ReplaySampleProvider(log, SensorChannel.colourId, 1, false),
+				new ReplaySampleProvider(log, SensorChannel.colourRgb, 3, false), HISTORY_DEPTH);
+		for (int i = 0; i < DISTANCES.length; i++) {
+			replayUltrasonic.poll();
+			replayColour.poll();
+			assertEquals("filtered distance of sample " + i, distances[i], replayUltrasonic.getDistance());
+			assertEquals("colour of sample " + i, colours[i], replayColour.getColourID());
+		}
+	}
+
+	public void testReplayedTachoCountsMoveThePose() throws IOException {
+		// Both wheels forward one turn, then the right wheel alone half a turn
+		float[][] counts = {{0, 0}, {180, 180}, {360, 360}, {360, 540}};
+		SensorRecorder recorder = new SensorRecorder(file);
+		for (int i = 0; i < counts.length; i++) {
+			recorder.record(SensorChannel.tacho, i, counts[i], 0, 2);
+		}
+		recorder.close();
+
+		ReplaySampleProvider tachos = new ReplaySampleProvider(new SensorLog(file), SensorChannel.tacho, 2, false);
+		myOdometryPoseProvider pose = new myOdometryPoseProvider(new StillMoveProvider());
+		float mmPerDegree = (float)(Math.PI * WHEEL_DIAMETER / 360);
+		float[] tacho = new float[2];
+		float[] position = new float[3];
+		for (int i = 0; i < 3; i++) {
+			tachos.fetchSample(tacho, 0);
+			pose.wheelSample(tacho[0] * mmPerDegree, tacho[1] * mmPerDegree, TRACK_WIDTH);
+		}
+		pose.fetchSample(position, 0);
+		assertEquals("x after driving one wheel turn", Math.PI * WHEEL_DIAMETER, position[0], 0.01);
+		assertEquals("y after driving straight", 0, position[1], 0.01);
+		assertEquals("heading after driving straight", 0, position[2], 0.01);
+
+		tachos.fetchSample(tacho, 0);
+		pose.wheelSample(tacho[0] * mmPerDegree, tacho[1] * mmPerDegree, TRACK_WIDTH);
+		pose.fetchSample(position, 0);
+		assertEquals("heading after turning on the right wheel",
+				Math.toDegrees(180 * mmPerDegree / TRACK_WIDTH), position[2], 0.01);
+		assertTrue("turning left moves the rover left", position[1] > 0);
+	}
+
+	/**
+	 * @return provider returning each value in turn, one per fetch, then repeating the last
+	 */
+	private static SampleProvider sequence(final float[] values) {
+		return new SampleProvider() {
+			private int next = 0;
+
+			public int sampleSize() {
+				return 1;
+			}
+
+			public void fetchSample(float[] sample, int offset) {
+				sample[offset] = values[Math.min(next++, values.length - 1)];
+			}
+		};
+	}
+
+	/**
+	 * Move provider for a rover whose motors never move, as when replaying on a desk.
+	 */
+	private static class StillMoveProvider implements MoveProvider {
+		public Move getMovement() {
+			return null;
+		}
+
+		public void addMoveListener(MoveListener listener) {
+		}
+	}
+}
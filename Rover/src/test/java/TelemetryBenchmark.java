@@ -0,0 +1,244 @@
+/*
+ * TelemetryBenchmark.java
+ *
+ * Compares the SENSORS text protocol with binary and delta compressed TelemetryFrames: how many
+ * frames a second each can encode and decode, and how many bytes each frame takes on the wire.
+ * Given a sensor log recorded by SensorRecorder, it also replays the mission at 50Hz and 200Hz
+ * telemetry and reports the bandwidth each format would have used.
+ * Run on the brick or a desktop from the test classes with: java TelemetryBenchmark [frames] [sensor log]
+ *
+ * Authors: SEP UG02
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Properties;
+
+public class TelemetryBenchmark {
+
+	// Number of distinct snapshots cycled through, so values change from frame to frame
+	private static final int SNAPSHOTS = 1024;
+
+	// Frames between delta keyframes
+	private static final int KEYFRAME_INTERVAL = 50;
+
+	// Telemetry rates missions are replayed at, in Hz
+	private static final int[] MISSION_RATES = {50, 200};
+
+	public static void main(String[] args) throws IOException {
+		int frames = (args.length > 0) ? Integer.valueOf(args[0]) : 200000;
+
+		// Snapshots of a rover driving slowly along a lane, as consecutive telemetry frames would see it
+		SensorSnapshot[] snapshots = new SensorSnapshot[SNAPSHOTS];
+		for (int i = 0; i < SNAPSHOTS; i++) {
+			double x = 3.25 * i;
+			double y = 1000.0 - 1.5 * i;
+			snapshots[i] = new SensorSnapshot(System.nanoTime(), x, y, x, y, 90.0 + (i * 0.35) % 10.0,
+					(i / 64) % 8, 50 + i % 200, false, i % 360, i % 90, (i & 64) != 0);
+		}
+
+		// Warm up every path before timing them
+		runText(snapshots, frames / 10);
+		runBinary(snapshots, frames / 10);
+		runDelta(snapshots, frames / 10);
+
+		long start = System.nanoTime();
+		long textBytes = runText(snapshots, frames);
+		long textTime = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		long binaryBytes = runBinary(snapshots, frames);
+		long binaryTime = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		long deltaBytes = runDelta(snapshots, frames);
+		long deltaTime = System.nanoTime() - start;
+
+		report("text", frames, textBytes, textTime);
+		report("binary", frames, binaryBytes, binaryTime);
+		report("delta", frames, deltaBytes, deltaTime);
+
+		if (args.length > 1) {
+			SensorLog log = new SensorLog(new File(args[1]));
+			Properties prop = Helpers.loadProperties();
+			double wheelDiameter = Double.valueOf(prop.getProperty("wheel_diameter"));
+			for (int rate : MISSION_RATES) {
+				replayMission(log, rate, wheelDiameter);
+			}
+		}
+	}
+
+	/**
+	 * Encodes and decodes frames the way the text protocol does.
+	 *
+	 * @return total bytes sent
+	 */
+	private static long runText(SensorSnapshot[] snapshots, int frames) {
+		long bytes = 0;
+		double check = 0;
+		for (int i = 0; i < frames; i++) {
+			byte[] line = (SensorUpdater.textMessage(snapshots[i % SNAPSHOTS]) + "\n").getBytes();
+			bytes += line.length;
+
+			String[] data = new String(line).trim().split("\\s+");
+			check += Double.valueOf(data[1]) + Double.valueOf(data[2]) + Integer.valueOf(data[3])
+					+ Double.valueOf(data[4]) + Integer.valueOf(data[5]) + (Boolean.valueOf(data[6]) ? 1 : 0);
+		}
+		consume(check);
+		return bytes;
+	}
+
+	/**
+	 * Encodes and decodes binary frames.
+	 *
+	 * @return total bytes sent
+	 */
+	private static long runBinary(SensorSnapshot[] snapshots, int frames) throws IOException {
+		TelemetryFrame encoder = new TelemetryFrame();
+		TelemetryFrame decoder = new TelemetryFrame();
+		long bytes = 0;
+		double check = 0;
+		for (int i = 0; i < frames; i++) {
+			SensorSnapshot s = snapshots[i % SNAPSHOTS];
+			byte[] frame = encoder.encode(i, s.getTime(), s.getXPos(), s.getYPos(), s.getOrientation(),
+					s.getColourID(), s.getObstacleDistance(), s.getRotationRate(), s.bumperPressed(), s.getRadiation());
+			bytes += TelemetryFrame.SIZE;
+
+			decoder.decode(frame, 0);
+			check += decoder.getXPos() + decoder.getYPos() + decoder.getColourID() + decoder.getOrientation()
+					+ decoder.getObstacleDistance() + (decoder.getRadiation() ? 1 : 0);
+		}
+		consume(check);
+		return bytes;
+	}
+
+	/**
+	 * Encodes and decodes delta compressed frames.
+	 *
+	 * @return total bytes sent
+	 */
+	private static long runDelta(SensorSnapshot[] snapshots, int frames) throws IOException {
+		TelemetryFrame encoder = new TelemetryFrame();
+		TelemetryFrame decoder = new TelemetryFrame();
+		ByteArrayInputStream wire = new ByteArrayInputStream(encoder.getDeltaBuffer());
+		DataInputStream in = new DataInputStream(wire);
+		long bytes = 0;
+		double check = 0;
+		for (int i = 0; i < frames; i++) {
+			SensorSnapshot s = snapshots[i % SNAPSHOTS];
+			bytes += encoder.encodeDelta(KEYFRAME_INTERVAL, i, s.getTime(), s.getXPos(), s.getYPos(),
+					s.getOrientation(), s.getColourID(), s.getObstacleDistance(), s.getRotationRate(),
+					s.bumperPressed(), s.getRadiation());
+
+			wire.reset();
+			decoder.read(in);
+			check += decoder.getXPos() + decoder.getYPos() + decoder.getColourID() + decoder.getOrientation()
+					+ decoder.getObstacleDistance() + (decoder.getRadiation() ? 1 : 0);
+		}
+		consume(check);
+		return bytes;
+	}
+
+	/**
+	 * Replays a recorded mission, taking a snapshot at the given telemetry rate of log time, and
+	 * reports the bandwidth of each format. Position is rebuilt from the tacho counts and gyro
+	 * heading, as the odometry would have done. Every delta frame is decoded and checked against
+	 * the quantised values it was encoded from.
+	 */
+	private static void replayMission(SensorLog log, int rate, double wheelDiameter) throws IOException {
+		if (log.size() == 0) {
+			return;
+		}
+		long period = 1000000000L / rate;
+		double mmPerDegree = Math.PI * wheelDiameter / 360.0;
+
+		TelemetryFrame encoder = new TelemetryFrame();
+		TelemetryFrame decoder = new TelemetryFrame();
+		ByteArrayInputStream wire = new ByteArrayInputStream(encoder.getDeltaBuffer());
+		DataInputStream in = new DataInputStream(wire);
+
+		double x = 0, y = 0, heading = 90;
+		float leftTacho = Float.NaN, rightTacho = Float.NaN;
+		int colourId = -1, distance = 2550, rotationRate = 0;
+		boolean bumper = false;
+
+		long textBytes = 0, deltaBytes = 0, mismatches = 0;
+		int frames = 0;
+		long start = log.getTime(0);
+		long nextFrame = start;
+		for (int r = 0; r < log.size(); r++) {
+			long time = log.getTime(r);
+			while (time - nextFrame >= 0) {
+				SensorSnapshot s = new SensorSnapshot(nextFrame, x, y, x, y, heading, colourId, distance, bumper,
+						(int)heading, rotationRate, false);
+				textBytes += SensorUpdater.textMessage(s).length() + 1;
+				deltaBytes += encoder.encodeDelta(KEYFRAME_INTERVAL, frames, s.getTime(), x, y, heading,
+						colourId, distance, rotationRate, bumper, false);
+				wire.reset();
+				decoder.read(in);
+				if (decoder.getXPos() != Math.round(x * 10) / 10f || decoder.getYPos() != Math.round(y * 10) / 10f
+						|| decoder.getOrientation() != Math.round(heading * 100) / 100f
+						|| decoder.getObstacleDistance() != distance || decoder.getColourID() != colourId) {
+					mismatches++;
+				}
+				frames++;
+				nextFrame += period;
+			}
+
+			switch (log.getChannel(r)) {
+				case tacho:
+					float left = log.getValue(r, 0);
+					float right = log.getValue(r, 1);
+					if (!Float.isNaN(leftTacho)) {
+						double moved = ((left - leftTacho) + (right - rightTacho)) / 2 * mmPerDegree;
+						x += moved * Math.cos(Math.toRadians(heading));
+						y += moved * Math.sin(Math.toRadians(heading));
+					}
+					leftTacho = left;
+					rightTacho = right;
+					break;
+				case gyro:
+					heading = 90 + log.getValue(r, 0);
+					rotationRate = (int)log.getValue(r, 1);
+					break;
+				case ultrasonic:
+					distance = (int)Math.min(log.getValue(r, 0) * 1000f, 2550f);
+					break;
+				case colourId:
+					colourId = (int)log.getValue(r, 0);
+					break;
+				case touch:
+					bumper = log.getValue(r, 0) == 1;
+					break;
+				default:
+					break;
+			}
+		}
+
+		double seconds = (log.getTime(log.size() - 1) - start) / 1e9;
+		System.out.println(String.format("mission at %dHz: %d frames over %.1fs, %d delta mismatches", rate, frames,
+				seconds, mismatches));
+		reportBandwidth("text", frames, textBytes, seconds);
+		reportBandwidth("binary", frames, (long)frames * TelemetryFrame.SIZE, seconds);
+		reportBandwidth("delta", frames, deltaBytes, seconds);
+	}
+
+	private static void report(String name, int frames, long bytes, long nanos) {
+		System.out.println(String.format("%-6s %10.0f frames/s %6.1f bytes/frame", name,
+				frames * 1e9 / nanos, (double)bytes / frames));
+	}
+
+	private static void reportBandwidth(String name, int frames, long bytes, double seconds) {
+		System.out.println(String.format("  %-6s %6.1f bytes/frame %8.0f bytes/s", name,
+				(double)bytes / Math.max(1, frames), bytes / Math.max(seconds, 1e-9)));
+	}
+
+	// Keeps the decoded values live so the work isn't optimised away
+	private static volatile double sink;
+
+	private static void consume(double value) {
+		sink += value;
+	}
+}
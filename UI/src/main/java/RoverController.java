@@ -7,26 +7,43 @@
 * Authors: SEP UG02
 */
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.DataInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.UnknownHostException;
 import java.lang.Thread;
-import java.util.concurrent.TimeUnit;
+import java.util.Arrays;
+
+import javax.swing.SwingUtilities;
 
 public class RoverController {
 	
-	private ConnectionCheckThread connectionCheckThread; 
+	// Time between heartbeats, and longest wait for a reply before the link counts as dead, in ms.
+	// Both can be set on the command line, e.g. -Dheartbeat.interval=100 -Dheartbeat.timeout=500
+	private static final long HEARTBEAT_INTERVAL = Long.getLong("heartbeat.interval", 250);
+	private static final long HEARTBEAT_TIMEOUT = Long.getLong("heartbeat.timeout", 1000);
+
+	// Number of recent round trip times the link latency is worked out from
+	private static final int RTT_SAMPLES = 128;
+
+	private Heartbeat heartbeat; 
 
 	private BufferedWriter pw;
-	private Socket sendSocket;	
+	private volatile Socket sendSocket;	
 	private ServerSocket receiveSocket;
+	private DatagramSocket datagramSocket;
 
-	private boolean connected;
+	private volatile boolean connected;
 	private double[] rover_position;
 	
 	// We need to communicate with the ui
@@ -36,6 +53,7 @@ public class RoverController {
 	private MODE controlState;
 
 	private ReadSensorData readSensorDataThread;
+	private ReadDatagrams readDatagramsThread;
 	
 	public RoverController( UI ui ) {
 		// Let's assign our UI
@@ -51,6 +69,7 @@ public class RoverController {
 		
 		try {
 			this.receiveSocket = new ServerSocket(19234);
+			this.datagramSocket = new DatagramSocket(TelemetryFrame.UDP_PORT);
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
@@ -64,15 +83,32 @@ public class RoverController {
 	 */
 	public void connectToRover(String IP) {
 		try {
-			this.sendSocket = new Socket(IP, 19232);
-			pw = new BufferedWriter(new OutputStreamWriter(this.sendSocket.getOutputStream()));
-		
-			// Let's create a connection check thread and start it 
-			connectionCheckThread = new ConnectionCheckThread();
-			connectionCheckThread.start();
+			Socket socket = new Socket(IP, 19232);
+			socket.setTcpNoDelay(true);
+			synchronized (this) {
+				this.sendSocket = socket;
+				pw = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
+			}
 			
-			readSensorDataThread = new ReadSensorData();
-			readSensorDataThread.start();
+			// Replies come back on the command connection, so each connection gets its own reader
+			ReadReplies replies = new ReadReplies(socket);
+			replies.setDaemon(true);
+			replies.start();
+		
+			// The rover accepts reconnects, so the threads below are only started on the first connection
+			if (heartbeat == null) {
+				// Let's create a heartbeat thread and start it 
+				heartbeat = new Heartbeat();
+				heartbeat.setDaemon(true);
+				heartbeat.start();
+				
+				readSensorDataThread = new ReadSensorData();
+				readSensorDataThread.start();
+				
+				readDatagramsThread = new ReadDatagrams();
+				readDatagramsThread.setDaemon(true);
+				readDatagramsThread.start();
+			}
 			
 		} catch (UnknownHostException e) {
 			e.printStackTrace();
@@ -105,13 +141,47 @@ public class RoverController {
 			       throw new IllegalArgumentException("writer is null");
 			if (command == null)
 			       throw new IllegalArgumentException("stats is null");
-			try {
-				pw.write(command+"\n");
-				pw.flush();
-			} catch (IOException e1) {
-				e1.printStackTrace();
-			}
+			writeLine(command);
+		}
+	}
+	
+	/**
+	 * Writes a line to the rover whether or not the link is up. Commands and heartbeats are
+	 * written from different threads, so writes are serialised.
+	 * 
+	 * @return false if the line couldn't be written
+	 */
+	private synchronized boolean writeLine(String line) {
+		if (pw == null) {
+			return false;
 		}
+		try {
+			pw.write(line+"\n");
+			pw.flush();
+			return true;
+		} catch (IOException e1) {
+			e1.printStackTrace();
+			return false;
+		}
+	}
+	
+	/**
+	 * Marks the link as up or down, enabling or disabling the controls to match on the event
+	 * dispatch thread.
+	 */
+	private void setConnected(final boolean connected) {
+		if (this.connected == connected) {
+			return;
+		}
+		this.connected = connected;
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				ui.enableButtons(connected);
+				if (!connected) {
+					ui.roverRtt.setText("no reply");
+				}
+			}
+		});
 	}
 	
 	/**
@@ -215,47 +285,177 @@ public class RoverController {
 		sendCommand(String.format("REMOVENGZ %f %f %f %f", start_x, Math.min(-start_y, -end_y), end_x, Math.max(-start_y, -end_y)));
 	}
   
+	/**
+	 * Sends a message asking the rover to record RGB samples of the colour under its colour sensor.
+	 * 
+	 * @param colourId - id of the colour the sensor is over (see Colour.ID_*)
+	 */
+	public void calibrateColour(int colourId) {
+		sendCommand("CALIBRATE " + colourId);
+	}
+	
+	/**
+	 * Sends a message asking the rover to build and save a colour lookup table from the recorded samples.
+	 */
+	public void saveColourCalibration() {
+		sendCommand("CALIBRATE-SAVE");
+	}
+  
 	public boolean isConnected() {
 		return connected;
 	}
 	
-  /**
-	 * We will use this thread to continuously check the connection status.
-	 * If we're connected then we tell the UI to enable buttons, otherwise 
-	 * we want to disable the buttons 
+	/**
+	 * Shows a set of sensor readings and maps the rover's position and any obstacle it sees.
 	 */
-	private class ConnectionCheckThread extends Thread {
+	private void showSensors(double x, double y, int colour, double orientation, int obstacleDistance,
+			boolean inRadiation) {
+		rover_position[0] = x;
+		rover_position[1] = -y;
+		
+		ui.roverXY.setText(x + ", " + y);
+		ui.roverColour.setText(Colour.getString(colour));
+		ui.roverAngle.setText(Double.toString(orientation));
+		ui.roverDistance.setText(Integer.toString(obstacleDistance));
+		
+		// Set the value on the grid
+
+		ui.grid.setValue(rover_position[0],rover_position[1], Colour.getRGB(colour),true);
+		
+		// if an object is detected 7.5cm away (same as obstacle avoidance), map it
+		if (inRadiation && obstacleDistance <= 150) {
+			double objectX = rover_position[0]+((obstacleDistance+50)*Math.cos(Math.toRadians(orientation)));
+			double objectY = rover_position[1]-((obstacleDistance+50)*Math.sin(Math.toRadians(orientation)));
+			ui.grid.setValue(objectX,objectY,Colour.CYAN,false);
+		}
+		else if(obstacleDistance <= 75) {
+			double objectX = rover_position[0]+((obstacleDistance+50)*Math.cos(Math.toRadians(orientation)));
+			double objectY = rover_position[1]-((obstacleDistance+50)*Math.sin(Math.toRadians(orientation)));
+			ui.grid.setValue(objectX,objectY,Colour.DARK_GRAY,false);
+		}
+	}
+	
+	/**
+	 * Sends "PING <seq>" heartbeats to the rover and times the "PONG <seq>" replies.
+	 * The link is up while replies arrive; if none arrives within the timeout, or a heartbeat
+	 * can't be written, the link is marked down and the controls are disabled. A dead link is
+	 * therefore noticed within the heartbeat interval plus the timeout.
+	 */
+	private class Heartbeat extends Thread {
+		
+		private static final long NANOS_PER_MILLI = 1000000L;
+		
+		// Send time of each heartbeat still expected back, indexed by sequence number
+		private final long[] sentAt = new long[RTT_SAMPLES];
+		private long seq = 0;
+		
+		// Most recent round trip times in ns, with a scratch copy to sort for the percentile
+		private final long[] samples = new long[RTT_SAMPLES];
+		private final long[] sorted = new long[RTT_SAMPLES];
+		private int sampleCount = 0;
+		private int nextSample = 0;
+		
+		// Time the last reply arrived, in ns
+		private long lastReply;
+		
+		Heartbeat() {
+			setName("Heartbeat");
+		}
+		
 		public void run() {
 			while(true) {
-				// We want to check the connection every two seconds
-				
 				try {
-					TimeUnit.SECONDS.sleep(2);
-				} catch (InterruptedException e2) {
-					e2.printStackTrace();
+					Thread.sleep(HEARTBEAT_INTERVAL);
+				} catch (InterruptedException e) {
+					return;
 				}
-				// Check that we can read, otherwise there must be no connection
-				try {
-					sendSocket.getOutputStream().write("".getBytes());
-					// Now check that we can write, otherwise there is no connection
-					try {
-						pw.write("\n");
-						pw.flush();
-						connected = true;
-						ui.enableButtons(true);
-						
-					} catch (IOException e1) {
-						e1.printStackTrace();
-						connected = false;
-						ui.enableButtons(false);
+				
+				long now = System.nanoTime();
+				long next;
+				boolean late;
+				synchronized (this) {
+					next = ++seq;
+					sentAt[(int)(next % RTT_SAMPLES)] = now;
+					late = now - lastReply > HEARTBEAT_TIMEOUT * NANOS_PER_MILLI;
+				}
+				if (!writeLine("PING " + next) || late) {
+					setConnected(false);
+				}
+			}
+		}
+		
+		/**
+		 * Records the round trip time of a reply and marks the link as up.
+		 * Replies to heartbeats too old to still be remembered are ignored.
+		 */
+		void reply(long replySeq) {
+			long now = System.nanoTime();
+			final String stats;
+			synchronized (this) {
+				if (replySeq <= seq - RTT_SAMPLES || replySeq > seq) {
+					return;
+				}
+				samples[nextSample] = now - sentAt[(int)(replySeq % RTT_SAMPLES)];
+				nextSample = (nextSample + 1) % RTT_SAMPLES;
+				sampleCount = Math.min(sampleCount + 1, RTT_SAMPLES);
+				lastReply = now;
+				stats = statistics();
+			}
+			setConnected(true);
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					ui.roverRtt.setText(stats);
+				}
+			});
+		}
+		
+		/**
+		 * @return minimum, average and 99th percentile round trip time of the recent heartbeats
+		 */
+		private String statistics() {
+			System.arraycopy(samples, 0, sorted, 0, sampleCount);
+			Arrays.sort(sorted, 0, sampleCount);
+			long total = 0;
+			for (int i = 0; i < sampleCount; i++) {
+				total += sorted[i];
+			}
+			int p99 = Math.max(0, (int)Math.ceil(sampleCount * 0.99) - 1);
+			return String.format("min %.1f avg %.1f p99 %.1f", sorted[0] / 1e6, total / 1e6 / sampleCount,
+					sorted[p99] / 1e6);
+		}
+	}
+	
+	/**
+	 * Reads replies the rover sends back on a command connection until it closes.
+	 */
+	private class ReadReplies extends Thread {
+		
+		private final Socket socket;
+		
+		ReadReplies(Socket socket) {
+			setName("ReadReplies");
+			this.socket = socket;
+		}
+		
+		public void run() {
+			try {
+				BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+				String line;
+				while ((line = in.readLine()) != null) {
+					if (line.startsWith("PONG ")) {
+						try {
+							heartbeat.reply(Long.parseLong(line.substring(5).trim()));
+						} catch (NumberFormatException e) {
+							e.printStackTrace();
+						}
 					}
-					// We must not be connected, so let the ui know to disable buttons
-				} catch (IOException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-					connected = false;
-					ui.enableButtons(false);
 				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			// Only the current connection closing means the link is down
+			if (socket == sendSocket) {
+				setConnected(false);
 			}
 		}
 	}
@@ -265,49 +465,37 @@ public class RoverController {
 	 */
 	private class ReadSensorData extends Thread {
 		
+		// Reused for every binary frame received
+		private final TelemetryFrame frame = new TelemetryFrame();
+		
 		public void run() {
 			while (true) {
 				try {
 					Socket socket = receiveSocket.accept();
-					BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+					InputStream in = new BufferedInputStream(socket.getInputStream());
+					
+					// A rover that can send binary frames offers them first; accept by echoing the offer.
+					String line = readLine(in);
+					if (line.equals(TelemetryFrame.HELLO) || line.equals(TelemetryFrame.DELTA_HELLO)
+							|| line.equals(TelemetryFrame.UDP_HELLO)) {
+						if (line.equals(TelemetryFrame.UDP_HELLO)) {
+							readDatagramsThread.reset();
+						}
+						reply(socket.getOutputStream(), line);
+						readFrames(new DataInputStream(in));
+						continue;
+					}
+					if (line.startsWith("TELEMETRY ")) {
+						reply(socket.getOutputStream(), TelemetryFrame.TEXT);
+					}
+					else {
+						handleLine(line);
+					}
+					
+					BufferedReader reader = new BufferedReader(new InputStreamReader(in));
 					// the listener with the while readline
-					String line;
-					while ((line = reader.readLine()) != "STOP") {
-						if (line.startsWith("SENSORS ")) {
-							String[] data = line.split("\\s+");
-							
-							// Convert strings to values
-							int colour = Integer.valueOf(data[3]);
-							rover_position[0] = Double.valueOf(data[1]);
-							rover_position[1] = -Double.valueOf(data[2]);
-							double orientation = Double.valueOf(data[4]);
-							int obstacleDistance = Integer.valueOf(data[5]);
-							boolean inRadiation = Boolean.valueOf(data[6]);
-							
-							// Order of messages sent are in one line as follows:
-							// SENSORS x y colorid rotationangle obstacledistance
-							ui.roverXY.setText(data[1] + ", " + data[2]);
-							ui.roverColour.setText(Colour.getString(colour));
-							ui.roverAngle.setText(data[4]);
-							ui.roverDistance.setText(data[5]);
-							
-							// Set the value on the grid
-
-							ui.grid.setValue(rover_position[0],rover_position[1], Colour.getRGB(colour),true);
-							
-							// if an object is detected 7.5cm away (same as obstacle avoidance), map it
-							if (inRadiation && obstacleDistance <= 150) {
-								double objectX = rover_position[0]+((obstacleDistance+50)*Math.cos(Math.toRadians(orientation)));
-								double objectY = rover_position[1]-((obstacleDistance+50)*Math.sin(Math.toRadians(orientation)));
-								ui.grid.setValue(objectX,objectY,Colour.CYAN,false);
-							}
-							else if(obstacleDistance <= 75) {
-								double objectX = rover_position[0]+((obstacleDistance+50)*Math.cos(Math.toRadians(orientation)));
-								double objectY = rover_position[1]-((obstacleDistance+50)*Math.sin(Math.toRadians(orientation)));
-								ui.grid.setValue(objectX,objectY,Colour.DARK_GRAY,false);
-							}
-								
-						}	
+					while ((line = reader.readLine()) != null) {
+						handleLine(line);
 					}
 				} catch (IOException e) {
 					e.printStackTrace();
@@ -315,5 +503,176 @@ public class RoverController {
 			}
 		
 		}
+		
+		/**
+		 * Reads binary telemetry frames, fixed width or delta compressed, until the connection closes.
+		 */
+		private void readFrames(DataInputStream in) throws IOException {
+			while (true) {
+				if (frame.read(in) == TelemetryFrame.TYPE_TEXT) {
+					handleLine(frame.getText());
+				}
+				else {
+					showSensors(frame.getXPos(), frame.getYPos(), frame.getColourID(), frame.getOrientation(),
+							frame.getObstacleDistance(), frame.getRadiation());
+				}
+			}
+		}
+		
+		/**
+		 * Handles a single text protocol message.
+		 */
+		private void handleLine(String line) {
+			if (line.startsWith("SENSORS ")) {
+				// Order of messages sent are in one line as follows:
+				// SENSORS x y colorid rotationangle obstacledistance radiation
+				String[] data = line.split("\\s+");
+				showSensors(Double.valueOf(data[1]), Double.valueOf(data[2]), Integer.valueOf(data[3]),
+						Double.valueOf(data[4]), Integer.valueOf(data[5]), Boolean.valueOf(data[6]));
+			}
+			else if (line.startsWith("RATES ")) {
+				// RATES profile name rate name rate ...
+				String[] data = line.split("\\s+");
+				StringBuilder rates = new StringBuilder(data[1] + ":");
+				for (int i = 2; i + 1 < data.length; i += 2) {
+					rates.append(" " + data[i] + " " + data[i+1]);
+				}
+				ui.roverRates.setText(rates.toString());
+			}
+			else if (line.startsWith("TXSTATS ")) {
+				// TXSTATS name count name count ...
+				String[] data = line.split("\\s+");
+				StringBuilder stats = new StringBuilder();
+				for (int i = 1; i + 1 < data.length; i += 2) {
+					stats.append((i > 1 ? ", " : "") + data[i] + " " + data[i+1]);
+				}
+				ui.roverTelemetry.setText(stats.toString());
+			}
+			else if (line.startsWith("CMDSTATS ")) {
+				// CMDSTATS preempted count rejected count name average max name average max ...
+				String[] data = line.split("\\s+");
+				StringBuilder stats = new StringBuilder("preempted " + data[2] + ", rejected " + data[4]);
+				for (int i = 5; i + 2 < data.length; i += 3) {
+					stats.append(", " + data[i] + " " + data[i+1] + "/" + data[i+2]);
+				}
+				ui.roverCommands.setText(stats.toString());
+			}
+		}
+		
+		/**
+		 * Reads a single line a byte at a time, so nothing after it is buffered away.
+		 */
+		private String readLine(InputStream in) throws IOException {
+			StringBuilder sb = new StringBuilder();
+			int c;
+			while ((c = in.read()) != -1 && c != '\n') {
+				sb.append((char)c);
+			}
+			return sb.toString().trim();
+		}
+		
+		private void reply(OutputStream out, String line) throws IOException {
+			out.write((line + "\n").getBytes());
+			out.flush();
+		}
+	}
+	
+	/**
+	 * Class to read sensor frames sent as UDP datagrams. Frames that arrive after a newer one are
+	 * discarded, and loss, reordering and inter-arrival jitter are shown on the UI.
+	 */
+	private class ReadDatagrams extends Thread {
+		
+		// How often the link statistics are shown, in ns
+		private static final long STATS_INTERVAL = 1000000000L;
+		
+		private final byte[] buffer = new byte[TelemetryFrame.SIZE];
+		private final DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+		private final TelemetryFrame frame = new TelemetryFrame();
+		
+		// Highest sequence number accepted, and the first one of this connection
+		private boolean started;
+		private int firstSequence;
+		private int highestSequence;
+		private long accepted;
+		private long reordered;
+		
+		// Transit time of the last accepted frame, and the jitter estimate (RFC 3550), in ns
+		private long lastTransit;
+		private double jitter;
+		private long lastStatsTime;
+		
+		/**
+		 * Starts counting from the next frame, e.g. when the rover reconnects.
+		 */
+		public synchronized void reset() {
+			started = false;
+			accepted = 0;
+			reordered = 0;
+			jitter = 0;
+		}
+		
+		public void run() {
+			while (true) {
+				try {
+					datagramSocket.receive(packet);
+					long arrival = System.nanoTime();
+					if (packet.getLength() != TelemetryFrame.SIZE) {
+						continue;
+					}
+					frame.decode(buffer, 0);
+					if (accept(frame.getSequence(), frame.getTime(), arrival)) {
+						showSensors(frame.getXPos(), frame.getYPos(), frame.getColourID(), frame.getOrientation(),
+								frame.getObstacleDistance(), frame.getRadiation());
+					}
+					if (arrival - lastStatsTime >= STATS_INTERVAL) {
+						ui.roverLink.setText(statistics());
+						lastStatsTime = arrival;
+					}
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+		
+		/**
+		 * Counts a frame and decides whether it is newer than every frame accepted so far.
+		 * 
+		 * @param sequence - sequence number of the frame
+		 * @param sent - rover time the frame was sent at
+		 * @param arrival - local time the frame arrived at
+		 * @return true if the frame should be shown
+		 */
+		private synchronized boolean accept(int sequence, long sent, long arrival) {
+			long transit = arrival - sent;
+			if (!started) {
+				started = true;
+				firstSequence = sequence;
+				highestSequence = sequence;
+				lastTransit = transit;
+				accepted = 1;
+				return true;
+			}
+			if (sequence - highestSequence <= 0) {
+				reordered++;
+				return false;
+			}
+			highestSequence = sequence;
+			accepted++;
+			// Clocks differ, but only the change in transit time matters
+			jitter += (Math.abs(transit - lastTransit) - jitter) / 16;
+			lastTransit = transit;
+			return true;
+		}
+		
+		/**
+		 * @return frames lost (never arrived), reordered (arrived after a newer frame) and the jitter
+		 */
+		private synchronized String statistics() {
+			long expected = (long)(highestSequence - firstSequence) + 1;
+			long lost = Math.max(0, expected - accepted - reordered);
+			return String.format("lost %d (%.1f%%), reordered %d, jitter %.1f ms", lost,
+					100.0 * lost / Math.max(1, expected), reordered, jitter / 1e6);
+		}
 	}
 }
@@ -84,6 +84,11 @@ public class UI extends JFrame {
 	public JLabel roverColour;
 	public JLabel roverDistance;
 	public JLabel roverAngle;
+	public JLabel roverRates;
+	public JLabel roverTelemetry;
+	public JLabel roverLink;
+	public JLabel roverCommands;
+	public JLabel roverRtt;
 	
 	// Creates the listeners for all of our buttons.
 	private Listeners listeners;
@@ -289,6 +294,37 @@ public class UI extends JFrame {
 			}
         });
         roverMenu.add(disconnectRover);
+        
+        JMenuItem calibrateColour = new JMenuItem("Calibrate colour...");
+        calibrateColour.addActionListener(new AbstractAction() {
+
+			public void actionPerformed(ActionEvent e) {
+				if(ui.isConnected()) {
+					// Ask which map colour the rover's colour sensor is currently over.
+					String[] colours = {"BLACK", "BLUE", "GREEN", "WHITE", "RED", "YELLOW"};
+					int[] ids = {Colour.ID_BLACK, Colour.ID_BLUE, Colour.ID_GREEN, Colour.ID_WHITE, Colour.ID_RED, Colour.ID_YELLOW};
+					int choice = JOptionPane.showOptionDialog(frame, "Which colour is the colour sensor over?", "Calibrate colour",
+							JOptionPane.DEFAULT_OPTION, JOptionPane.QUESTION_MESSAGE, null, colours, colours[0]);
+					if (choice >= 0) {
+						ui.getController().calibrateColour(ids[choice]);
+						ui.addToLog("Calibrating " + colours[choice] + "\n");
+					}
+				}
+			}
+        });
+        roverMenu.add(calibrateColour);
+        
+        JMenuItem saveCalibration = new JMenuItem("Save colour calibration");
+        saveCalibration.addActionListener(new AbstractAction() {
+
+			public void actionPerformed(ActionEvent e) {
+				if(ui.isConnected()) {
+					ui.getController().saveColourCalibration();
+					ui.addToLog("Saving colour calibration\n");
+				}
+			}
+        });
+        roverMenu.add(saveCalibration);
 	}
 	
 	
@@ -807,6 +843,11 @@ public class UI extends JFrame {
 		this.roverAngle = new JLabel("undefined");
 		this.roverColour = new JLabel("undefined");
 		this.roverDistance = new JLabel("undefined");
+		this.roverRates = new JLabel("undefined");
+		this.roverTelemetry = new JLabel("undefined");
+		this.roverLink = new JLabel("undefined");
+		this.roverCommands = new JLabel("undefined");
+		this.roverRtt = new JLabel("undefined");
 	}
 	
 	/**
@@ -1024,6 +1065,71 @@ public class UI extends JFrame {
             gbc.gridx++;
             gbc.anchor = GridBagConstraints.WEST;
             add(roverDistance, gbc);
+            
+            // Place the sensor rates label underneath to the left.
+            gbc.gridwidth = 1;
+            gbc.gridy++;
+            gbc.gridx = 0;
+            gbc.anchor = GridBagConstraints.EAST;
+            JLabel roverRatesState = new JLabel("Rates (Hz):");
+            add(roverRatesState, gbc);
+            
+            // Place the sensor rates to the right.
+            gbc.gridx++;
+            gbc.anchor = GridBagConstraints.WEST;
+            add(roverRates, gbc);
+            
+            // Place the telemetry statistics label underneath to the left.
+            gbc.gridwidth = 1;
+            gbc.gridy++;
+            gbc.gridx = 0;
+            gbc.anchor = GridBagConstraints.EAST;
+            JLabel roverTelemetryState = new JLabel("Telemetry:");
+            add(roverTelemetryState, gbc);
+            
+            // Place the telemetry statistics to the right.
+            gbc.gridx++;
+            gbc.anchor = GridBagConstraints.WEST;
+            add(roverTelemetry, gbc);
+            
+            // Place the UDP link statistics label underneath to the left.
+            gbc.gridwidth = 1;
+            gbc.gridy++;
+            gbc.gridx = 0;
+            gbc.anchor = GridBagConstraints.EAST;
+            JLabel roverLinkState = new JLabel("UDP link:");
+            add(roverLinkState, gbc);
+            
+            // Place the UDP link statistics to the right.
+            gbc.gridx++;
+            gbc.anchor = GridBagConstraints.WEST;
+            add(roverLink, gbc);
+            
+            // Place the command latency label underneath to the left.
+            gbc.gridwidth = 1;
+            gbc.gridy++;
+            gbc.gridx = 0;
+            gbc.anchor = GridBagConstraints.EAST;
+            JLabel roverCommandsState = new JLabel("Commands (us):");
+            add(roverCommandsState, gbc);
+            
+            // Place the command latencies to the right.
+            gbc.gridx++;
+            gbc.anchor = GridBagConstraints.WEST;
+            add(roverCommands, gbc);
+            
+            // Place the link round trip time label underneath to the left.
+            gbc.gridwidth = 1;
+            gbc.gridy++;
+            gbc.gridx = 0;
+            gbc.anchor = GridBagConstraints.EAST;
+            JLabel roverRttState = new JLabel("Link RTT (ms):");
+            add(roverRttState, gbc);
+            
+            // Place the round trip times to the right.
+            gbc.gridx++;
+            gbc.anchor = GridBagConstraints.WEST;
+            add(roverRtt, gbc);
 		}
 	}
 	